@@ -8,6 +8,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
 import com.estebanuri.verifymfn.db.DB
 import com.estebanuri.verifymfn.db.FaceEmbeddingsRecord
+import com.estebanuri.verifymfn.db.FaceEmbeddingsWriter
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
@@ -16,6 +17,8 @@ import org.junit.runner.RunWith
 import org.tensorflow.lite.tflite.FaceEmbedder
 import java.io.*
 import java.net.URL
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 
 /**
@@ -152,38 +155,56 @@ class ProcessLFWTest {
 
         Log.d(TAG, "processLFW: loading face embedder...")
 
-        val faceEmbedder = FaceEmbedder(getContext().assets)
-        val dao = DB.getInstance(getContext()).dao
-        dao.deleteFaceEmbeddings()
+        // One single-threaded interpreter per core; images are embedded concurrently.
+        val pool = FaceEmbedder.createPool(
+                getContext().assets, Runtime.getRuntime().availableProcessors(), 1)
+        val faceEmbedder = FaceEmbedder(getContext().assets, pool)
+        val db = DB.getInstance(getContext())
+        db.dao.deleteFaceEmbeddings()
 
-        val debugInfo = HashMap<String, Any>()
-        for (sd in subDirs) {
+        val executor = Executors.newFixedThreadPool(pool.size())
+        try {
+            // Inserts run in batches on the writer's thread while the next images are embedded.
+            FaceEmbeddingsWriter(db).use { writer ->
+                val tasks = ArrayList<Future<*>>()
+                for (sd in subDirs) {
 
-            val personName = sd
-            val subDir = File(dir, "/" + sd)
-            val imgPaths = subDir.list()
+                    val personName = sd
+                    val subDir = File(dir, "/" + sd)
+                    val imgPaths = subDir.list()
 
-            for (imgPath in imgPaths) {
-                val imgFile = File(subDir, imgPath)
-                Log.d(TAG, "processLfw: ${personName}, ${imgPath}")
+                    for (imgPath in imgPaths) {
+                        tasks.add(executor.submit(Runnable {
+                            val imgFile = File(subDir, imgPath)
+                            Log.d(TAG, "processLfw: ${personName}, ${imgPath}")
 
-                val bitmap = BitmapFactory.decodeFile(imgFile.absolutePath)
+                            val bitmap = BitmapFactory.decodeFile(imgFile.absolutePath)
 
-                val embeddings = faceEmbedder.run(bitmap, debugInfo)
+                            val debugInfo = HashMap<String, Any>()
+                            val embeddings = faceEmbedder.run(bitmap, debugInfo)
 
-                val rec = FaceEmbeddingsRecord()
-                rec.embeddings = embeddings
-                rec.idPerson = personName
-                rec.idResource = imgPath
-                rec.idAlgorithm = "0"
-                rec.image = encodeBitmap(debugInfo["faceBmp"] as Bitmap)
+                            val rec = FaceEmbeddingsRecord()
+                            rec.embeddings = embeddings
+                            rec.idPerson = personName
+                            rec.idResource = imgPath
+                            rec.idAlgorithm = "0"
+                            rec.image = encodeBitmap(debugInfo["faceBmp"] as Bitmap)
 
-                dao.insertFaceEmbeddings(rec)
+                            writer.add(rec)
 
-                bitmap.recycle()
+                            bitmap.recycle()
+                        }))
+                    }
 
+                }
+                // Rethrows the first failure of any image.
+                for (task in tasks) {
+                    task.get()
+                }
             }
-
+        } finally {
+            executor.shutdown()
+            pool.close()
         }
 
     }
@@ -2,15 +2,18 @@ package com.estebanuri.verifymfn.db;
 
 import androidx.room.TypeConverter;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Date;
 
 public class Converters {
 
+    /**
+     * Byte order of the embedding blobs. Big-endian, as written by the DataOutputStream based
+     * converter used before, so existing databases keep decoding to the same values.
+     */
+    public static final ByteOrder EMBEDDING_BYTE_ORDER = ByteOrder.BIG_ENDIAN;
+
     @TypeConverter
     public static Date dateFromLong(Long value) {
 
@@ -30,41 +33,39 @@ public class Converters {
     @TypeConverter
     public static float[] floatArrayFromByteArray(byte[] bytes)  {
 
-        float[] floats = null;
-        try {
-
-            ByteArrayInputStream bas = new ByteArrayInputStream(bytes);
-            DataInputStream ds = new DataInputStream(bas);
-            floats = new float[bytes.length / 4];  // 4 bytes per float
-            for (int i = 0; i < floats.length; i++)
-            {
-                    floats[i] = ds.readFloat();
-            }
-
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (bytes == null) {
+            return null;
         }
+        return floatArrayFromByteArray(bytes, new float[bytes.length / 4]);  // 4 bytes per float
+    }
 
-        return floats;
+    /**
+     * Decodes an embedding blob into a caller-supplied array, e.g. one reused across rows.
+     *
+     * @return out, holding bytes.length / 4 values.
+     */
+    public static float[] floatArrayFromByteArray(byte[] bytes, float[] out) {
+
+        int count = bytes.length / 4;
+        if (out.length < count) {
+            throw new IllegalArgumentException(
+                    "Need room for " + count + " floats, got " + out.length);
+        }
+        ByteBuffer.wrap(bytes, 0, count * 4).order(EMBEDDING_BYTE_ORDER)
+                .asFloatBuffer().get(out, 0, count);
+        return out;
     }
 
     @TypeConverter
     public static byte[] byteArrayFromFloatArray(float[] floats)  {
 
-        byte[] bytes = null;
-        try {
-            ByteArrayOutputStream bas = new ByteArrayOutputStream();
-            DataOutputStream ds = new DataOutputStream(bas);
-            for (float f : floats) {
-                    ds.writeFloat(f);
-            }
-            bytes = bas.toByteArray();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (floats == null) {
+            return null;
         }
-
-        return bytes;
+        ByteBuffer buffer = ByteBuffer.allocate(floats.length * 4).order(EMBEDDING_BYTE_ORDER);
+        buffer.asFloatBuffer().put(floats);
+        return buffer.array();
     }
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+package com.estebanuri.verifymfn.db;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Buffers FaceEmbeddingsRecords and inserts them on a background thread, batchSize records per
+ * transaction, instead of one implicit transaction (and fsync) per row.
+ *
+ * {@link #add} blocks while queueCapacity records are waiting to be written, so a producer that
+ * outruns the disk is slowed down instead of buffering without bound. Records are visible in the
+ * database once {@link #flush} or {@link #close} returns.
+ *
+ * If an insert fails, the remaining records are discarded and the failure is rethrown from the
+ * next call to add, flush or close.
+ */
+public class FaceEmbeddingsWriter implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    // Queued by close() to stop the writer thread.
+    private static final FaceEmbeddingsRecord STOP = new FaceEmbeddingsRecord();
+
+    private final DBDao dao;
+    private final int batchSize;
+    private final BlockingQueue<FaceEmbeddingsRecord> queue;
+    private final Thread thread;
+
+    private final Object lock = new Object();
+    // Guarded by lock.
+    private long submitted;
+    private long written;
+    private boolean closed;
+    private volatile RuntimeException failure;
+
+    public FaceEmbeddingsWriter(DB db) {
+        this(db.getDAO());
+    }
+
+    public FaceEmbeddingsWriter(DBDao dao) {
+        this(dao, DEFAULT_BATCH_SIZE, 4 * DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize number of records inserted per transaction.
+     * @param queueCapacity number of records add() accepts before it blocks; at least batchSize.
+     */
+    public FaceEmbeddingsWriter(DBDao dao, int batchSize, int queueCapacity) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.dao = dao;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(Math.max(batchSize, queueCapacity));
+        this.thread = new Thread(this::run, "face-embeddings-writer");
+        thread.start();
+    }
+
+    /**
+     * Queues a record, waiting for room if the writer is behind. Throws IllegalStateException if
+     * the writer is closed, also while waiting.
+     */
+    public void add(FaceEmbeddingsRecord record) throws InterruptedException {
+        // The record is queued and counted under the lock that close() takes, so a record that
+        // add() accepted is always ahead of STOP in the queue and flush() waits for it.
+        synchronized (lock) {
+            while (true) {
+                checkFailure();
+                if (closed) {
+                    throw new IllegalStateException("Writer is closed");
+                }
+                if (queue.offer(record)) {
+                    submitted++;
+                    return;
+                }
+                // Woken when the writer takes records off the queue, or by close().
+                lock.wait();
+            }
+        }
+    }
+
+    /** Waits until every record added so far has been committed. */
+    public void flush() throws InterruptedException {
+        synchronized (lock) {
+            final long target = submitted;
+            while (written < target) {
+                lock.wait();
+            }
+        }
+        checkFailure();
+    }
+
+    /** Number of records taken off the queue and committed (or dropped after a failure). */
+    public long getWrittenCount() {
+        synchronized (lock) {
+            return written;
+        }
+    }
+
+    /** Writes the remaining records and stops the writer thread. */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            // The writer keeps draining the queue, even after a failure, so this cannot block
+            // for long.
+            queue.put(STOP);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    private void run() {
+        final List<FaceEmbeddingsRecord> batch = new ArrayList<>(batchSize);
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            synchronized (lock) {
+                // Room in the queue for producers waiting in add().
+                lock.notifyAll();
+            }
+            stop = batch.remove(STOP);
+            if (!batch.isEmpty() && failure == null) {
+                try {
+                    // A @Insert of a list runs in a single transaction.
+                    dao.insertFaceEmbeddings(batch);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            synchronized (lock) {
+                written += batch.size();
+                lock.notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    private void checkFailure() {
+        final RuntimeException e = failure;
+        if (e != null) {
+            throw new IllegalStateException("Writing face embeddings failed", e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.tensorflow.lite.tflite;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.tensorflow.lite.embedding.EmbeddingEngine;
+
+/**
+ * Thread-safe pool of {@link EmbeddingEngine}s, for running the embedding model from several
+ * threads at once (e.g. offline gallery builds).
+ *
+ * An engine owns one interpreter plus its input/output buffers and must not be used by two
+ * threads at the same time. The pool creates poolSize of them over a single memory-mapped copy
+ * of the model and hands them out one thread at a time. Throughput scales with poolSize up to
+ * the number of cores; threadsPerInterpreter is the intra-op parallelism of each run, so
+ * poolSize * threadsPerInterpreter should not exceed the core count.
+ *
+ * Every engine is either idle or leased to one caller. Closing the pool closes the idle engines
+ * at once and each leased one when it is released, so no interpreter is closed under a run.
+ */
+public class EmbedderPool implements Closeable {
+
+    private final EmbeddingEngine[] models;
+    // Guards idle, leased and closed; acquire() waits on it for an engine or for close().
+    private final Object lock = new Object();
+    private final ArrayDeque<EmbeddingEngine> idle;
+    private final Set<EmbeddingEngine> leased =
+            Collections.newSetFromMap(new IdentityHashMap<EmbeddingEngine, Boolean>());
+    private boolean closed;
+
+    /**
+     * @param poolSize number of interpreters, i.e. how many embeddings can run concurrently.
+     * @param threadsPerInterpreter threads each interpreter uses for a single run.
+     */
+    public EmbedderPool(
+            AssetManager assets,
+            String modelFilename,
+            int inputSize,
+            int embeddingSize,
+            boolean isQuantized,
+            int poolSize,
+            int threadsPerInterpreter) throws IOException {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        }
+        final MappedByteBuffer modelBuffer = EmbeddingEngine.loadModelFile(assets, modelFilename);
+        final EmbeddingEngine.Options options = new EmbeddingEngine.Options()
+                .setQuantized(isQuantized)
+                .setNumThreads(threadsPerInterpreter);
+        models = new EmbeddingEngine[poolSize];
+        idle = new ArrayDeque<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            models[i] = EmbeddingEngine.create(modelBuffer, inputSize, embeddingSize, options);
+            idle.add(models[i]);
+        }
+    }
+
+    /** One single-threaded interpreter per available core. */
+    public EmbedderPool(
+            AssetManager assets,
+            String modelFilename,
+            int inputSize,
+            int embeddingSize,
+            boolean isQuantized) throws IOException {
+        this(assets, modelFilename, inputSize, embeddingSize, isQuantized,
+                Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    public int size() {
+        return models.length;
+    }
+
+    /**
+     * Checks out a model for exclusive use by the calling thread, waiting up to timeout for one to
+     * be returned. Every acquired model must be handed back with {@link #release}.
+     *
+     * @throws TimeoutException if no model became available in time.
+     * @throws IllegalStateException if the pool is closed, also while waiting.
+     */
+    public EmbeddingEngine acquire(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("EmbedderPool is closed");
+                }
+                final EmbeddingEngine model = idle.poll();
+                if (model != null) {
+                    leased.add(model);
+                    return model;
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException(
+                            "No interpreter available after " + unit.toMillis(timeout) + " ms");
+                }
+                // Woken by release() and close().
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+        }
+    }
+
+    /** Returns a model obtained from {@link #acquire}; closes it if the pool has been closed. */
+    public void release(EmbeddingEngine model) {
+        synchronized (lock) {
+            if (!leased.remove(model)) {
+                throw new IllegalStateException("Released a model that was not acquired");
+            }
+            if (closed) {
+                model.close();
+            } else {
+                idle.add(model);
+                lock.notify();
+            }
+        }
+    }
+
+    /**
+     * Embeds a face bitmap of the model's input size on the next free interpreter.
+     *
+     * @return the embedding, owned by the caller.
+     */
+    public float[] run(Bitmap faceBmp, long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        final EmbeddingEngine model = acquire(timeout, unit);
+        try {
+            return model.embed(faceBmp).clone();
+        } finally {
+            release(model);
+        }
+    }
+
+    /**
+     * Closes the idle interpreters and refuses further acquires. Does not wait for models that are
+     * checked out: each of them is closed by its {@link #release}.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            EmbeddingEngine model;
+            while ((model = idle.poll()) != null) {
+                model.close();
+            }
+            // Waiting acquires throw instead of sleeping out their timeout.
+            lock.notifyAll();
+        }
+    }
+}
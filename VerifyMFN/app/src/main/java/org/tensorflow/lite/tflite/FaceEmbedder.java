@@ -23,12 +23,20 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.tensorflow.lite.embedding.EmbeddingEngine;
 
 public class FaceEmbedder {
 
-    private TFLiteModel model;
+    private EmbeddingEngine engine;
+    // Set when embeddings run on a shared pool of interpreters instead of engine.
+    private EmbedderPool pool;
+    private static final long POOL_TIMEOUT_SECONDS = 30;
 
     private static final int TF_OD_API_INPUT_SIZE = 112;
+    private static final int TF_OD_API_EMBEDDING_SIZE = 192;
     private static final boolean TF_OD_API_IS_QUANTIZED = false;
     private static final String TF_OD_API_MODEL_FILE = "mobile_face_net.tflite";
 
@@ -50,6 +58,14 @@ public class FaceEmbedder {
 
 
     public FaceEmbedder(AssetManager mgr) throws IOException {
+        this(mgr, null);
+    }
+
+    /**
+     * Creates an embedder that runs the model on the given pool's interpreters. Such an embedder
+     * can be called from several threads at once; use {@link #createPool} to build the pool.
+     */
+    public FaceEmbedder(AssetManager mgr, EmbedderPool pool) throws IOException {
 
         //Context context = RekonApp.getAppContext();
         //FaceDetector detector = new FaceDetector.Builder(context)
@@ -76,14 +92,31 @@ public class FaceEmbedder {
         final int inputSize = TF_OD_API_INPUT_SIZE;
         final boolean isQuantized = TF_OD_API_IS_QUANTIZED;
 
-        model = TFLiteModel.create(mgr, modelFilename, inputSize, isQuantized);
+        this.pool = pool;
+        if (pool == null) {
+            engine = EmbeddingEngine.create(mgr, modelFilename, inputSize,
+                    TF_OD_API_EMBEDDING_SIZE,
+                    new EmbeddingEngine.Options().setQuantized(isQuantized));
 
-        //bitmap = null;
-        faceBmp = Bitmap.createBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, Bitmap.Config.ARGB_8888);
+            //bitmap = null;
+            faceBmp = Bitmap.createBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, Bitmap.Config.ARGB_8888);
+        }
 
     }
 
 
+    /**
+     * Pool of interpreters for this embedder's model.
+     *
+     * @param poolSize number of embeddings that can run concurrently.
+     * @param threadsPerInterpreter intra-op threads of each run.
+     */
+    public static EmbedderPool createPool(AssetManager mgr, int poolSize, int threadsPerInterpreter)
+            throws IOException {
+        return new EmbedderPool(mgr, TF_OD_API_MODEL_FILE, TF_OD_API_INPUT_SIZE,
+                TF_OD_API_EMBEDDING_SIZE, TF_OD_API_IS_QUANTIZED, poolSize, threadsPerInterpreter);
+    }
+
     private Face findLargestArea(final List<Face> faces) {
 
         Face face = null;
@@ -126,6 +159,11 @@ public class FaceEmbedder {
         //final Bitmap debugBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
         //final Canvas debugCanvas = new Canvas(debugBitmap);
 
+        // Pooled embedders may run concurrently, so each call gets its own face bitmap.
+        final Bitmap faceBmp = pool == null
+                ? this.faceBmp
+                : Bitmap.createBitmap(
+                        TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, Bitmap.Config.ARGB_8888);
         final Canvas cvFace = new Canvas(faceBmp);
         final RectF faceBB = new RectF(face.getBoundingBox());
 
@@ -175,8 +213,16 @@ public class FaceEmbedder {
             debugInfo.put("faceBmp", faceBmp);
         }
 
-        float[][] result = model.run(faceBmp);
-        return result[0];
+        if (pool != null) {
+            try {
+                return pool.run(faceBmp, POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new ExecutionException(e);
+            }
+        }
+
+        // The engine reuses its output, callers keep the embedding.
+        return engine.embed(faceBmp).clone();
 
     }
 
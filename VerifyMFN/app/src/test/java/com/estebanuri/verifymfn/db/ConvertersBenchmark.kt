@@ -0,0 +1,59 @@
+package com.estebanuri.verifymfn.db
+
+import com.estebanuri.verifymfn.db.ConvertersTest.Companion.legacyDecode
+import com.estebanuri.verifymfn.db.ConvertersTest.Companion.legacyEncode
+import org.junit.Test
+import java.util.Random
+
+/**
+ * Compares the throughput of the ByteBuffer based embedding converters with the DataOutputStream
+ * based ones they replace, on an LFW sized batch, and prints it. Not part of the unit tests: run
+ * with ./gradlew :app:benchmark.
+ */
+class ConvertersBenchmark {
+
+    @Test
+    fun lfwBatch() {
+        val random = Random(7)
+        val records = Array(RECORDS) { FloatArray(DIM) { random.nextGaussian().toFloat() } }
+        val blobs = Array(RECORDS) { legacyEncode(records[it]) }
+        val out = FloatArray(DIM)
+
+        // Warm up both paths before timing them.
+        repeat(3) {
+            records.forEach { legacyEncode(it) }
+            blobs.forEach { legacyDecode(it) }
+            records.forEach { Converters.byteArrayFromFloatArray(it) }
+            blobs.forEach { Converters.floatArrayFromByteArray(it, out) }
+        }
+
+        val legacyEncodeMs = time { records.forEach { legacyEncode(it) } }
+        val encodeMs = time { records.forEach { Converters.byteArrayFromFloatArray(it) } }
+        val legacyDecodeMs = time { blobs.forEach { legacyDecode(it) } }
+        val decodeMs = time { blobs.forEach { Converters.floatArrayFromByteArray(it) } }
+        val decodeIntoMs = time { blobs.forEach { Converters.floatArrayFromByteArray(it, out) } }
+
+        println("Converters, $RECORDS records of $DIM floats, records/s:")
+        println("  encode: streams ${rate(legacyEncodeMs)}  ByteBuffer ${rate(encodeMs)}")
+        println("  decode: streams ${rate(legacyDecodeMs)}  ByteBuffer ${rate(decodeMs)}")
+        println("  decode into caller array:          ${rate(decodeIntoMs)}")
+    }
+
+    private fun time(block: () -> Unit): Double {
+        var best = Long.MAX_VALUE
+        repeat(5) {
+            val start = System.nanoTime()
+            block()
+            best = minOf(best, System.nanoTime() - start)
+        }
+        return best / 1e6
+    }
+
+    private fun rate(ms: Double) = String.format("%,12.0f", RECORDS / (ms / 1000))
+
+    companion object {
+        // Roughly the number of images in LFW.
+        private const val RECORDS = 13233
+        private const val DIM = 192
+    }
+}
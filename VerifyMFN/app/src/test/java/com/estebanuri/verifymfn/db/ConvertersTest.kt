@@ -0,0 +1,59 @@
+package com.estebanuri.verifymfn.db
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+/**
+ * Checks that the ByteBuffer based embedding converters read and write the same bytes as the
+ * DataOutputStream based ones they replace. [ConvertersBenchmark] compares their throughput.
+ */
+class ConvertersTest {
+
+    @Test
+    fun blobsMatchDataOutputStreamEncoding() {
+        val embedding = floatArrayOf(0f, -1.5f, 3.25e-7f, Float.MAX_VALUE, Float.NaN)
+        val bytes = Converters.byteArrayFromFloatArray(embedding)
+        assertArrayEquals(legacyEncode(embedding), bytes)
+        assertArrayEquals(embedding, Converters.floatArrayFromByteArray(bytes), 0f)
+        assertArrayEquals(legacyDecode(bytes), Converters.floatArrayFromByteArray(bytes), 0f)
+    }
+
+    @Test
+    fun decodesIntoCallerArray() {
+        val embedding = floatArrayOf(1f, 2f, 3f)
+        val out = FloatArray(8)
+        val decoded = Converters.floatArrayFromByteArray(
+                Converters.byteArrayFromFloatArray(embedding), out)
+        assertSame(out, decoded)
+        assertArrayEquals(embedding, out.copyOf(3), 0f)
+    }
+
+    @Test
+    fun nullPassesThrough() {
+        assertNull(Converters.floatArrayFromByteArray(null))
+        assertNull(Converters.byteArrayFromFloatArray(null))
+    }
+
+    companion object {
+        // The converters as they were before switching to ByteBuffer.
+        fun legacyEncode(floats: FloatArray): ByteArray {
+            val bas = ByteArrayOutputStream()
+            val ds = DataOutputStream(bas)
+            for (f in floats) {
+                ds.writeFloat(f)
+            }
+            return bas.toByteArray()
+        }
+
+        fun legacyDecode(bytes: ByteArray): FloatArray {
+            val ds = DataInputStream(ByteArrayInputStream(bytes))
+            return FloatArray(bytes.size / 4) { ds.readFloat() }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.estebanuri.verifymfn.db
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+class FaceEmbeddingsWriterTest {
+
+    @Test
+    fun insertsInBatchesOfBatchSize() {
+        val dao = FakeDao(blocked = true)
+        val writer = FaceEmbeddingsWriter(dao, 4, 8)
+        val records = List(30) { record(it) }
+        val producer = thread { records.forEach { writer.add(it) } }
+
+        // The first insert holds the writer until the producer has filled the queue.
+        awaitWaiting(producer)
+        dao.release()
+        producer.join()
+        writer.close()
+
+        assertEquals(records, dao.inserted)
+        assertTrue(dao.batchSizes.toString(), dao.batchSizes.all { it in 1..4 })
+        assertEquals(4, dao.batchSizes[1])
+    }
+
+    @Test
+    fun addBlocksWhileTheQueueIsFull() {
+        val dao = FakeDao(blocked = true)
+        val writer = FaceEmbeddingsWriter(dao, 4, 8)
+        val accepted = AtomicInteger()
+        val producer = thread {
+            repeat(100) {
+                writer.add(record(it))
+                accepted.incrementAndGet()
+            }
+        }
+
+        awaitWaiting(producer)
+        // At most one batch in the insert that is held, and a full queue.
+        assertTrue(accepted.toString(), accepted.get() in 8..12)
+        dao.release()
+        producer.join()
+        writer.close()
+        assertEquals(100, dao.inserted.size)
+    }
+
+    @Test
+    fun flushWaitsForEveryAddedRecord() {
+        val dao = FakeDao()
+        val writer = FaceEmbeddingsWriter(dao, 4, 8)
+        repeat(10) { writer.add(record(it)) }
+        writer.flush()
+        assertEquals(10, dao.inserted.size)
+        assertEquals(10L, writer.writtenCount)
+
+        writer.add(record(10))
+        writer.flush()
+        assertEquals(11, dao.inserted.size)
+        writer.close()
+    }
+
+    @Test
+    fun insertFailureIsRethrown() {
+        val failure = RuntimeException("disk full")
+        val dao = FakeDao(failure = failure)
+        val writer = FaceEmbeddingsWriter(dao, 4, 8)
+        writer.add(record(0))
+        try {
+            writer.flush()
+            fail()
+        } catch (e: IllegalStateException) {
+            assertSame(failure, e.cause)
+        }
+        try {
+            writer.add(record(1))
+            fail()
+        } catch (e: IllegalStateException) {
+            assertSame(failure, e.cause)
+        }
+        try {
+            writer.close()
+            fail()
+        } catch (e: IllegalStateException) {
+            assertSame(failure, e.cause)
+        }
+        assertTrue(dao.inserted.isEmpty())
+    }
+
+    @Test
+    fun closeWakesBlockedAdd() {
+        val dao = FakeDao(blocked = true)
+        val writer = FaceEmbeddingsWriter(dao, 1, 1)
+        var thrown: Throwable? = null
+        val producer = thread {
+            try {
+                repeat(10) { writer.add(record(it)) }
+            } catch (e: IllegalStateException) {
+                thrown = e
+            }
+        }
+        awaitWaiting(producer)
+
+        // close() waits for the held insert, but must release the producer right away.
+        val closer = thread { writer.close() }
+        producer.join(TIMEOUT_MS)
+        assertFalse(producer.isAlive)
+        assertTrue(thrown.toString(), thrown is IllegalStateException)
+        dao.release()
+        closer.join()
+    }
+
+    @Test
+    fun recordsAcceptedWhileClosingAreWritten() {
+        repeat(200) { round ->
+            val dao = FakeDao()
+            val writer = FaceEmbeddingsWriter(dao, 2, 2)
+            val accepted = AtomicInteger()
+            val producer = thread {
+                try {
+                    while (true) {
+                        writer.add(record(accepted.get()))
+                        accepted.incrementAndGet()
+                    }
+                } catch (e: IllegalStateException) {
+                    // closed
+                }
+            }
+            while (accepted.get() < round % 20) {
+                Thread.yield()
+            }
+            writer.close()
+            producer.join()
+
+            assertEquals(accepted.get(), dao.inserted.size)
+            assertEquals(accepted.get().toLong(), writer.writtenCount)
+            val flusher = thread { writer.flush() }
+            flusher.join(TIMEOUT_MS)
+            assertFalse("flush() hangs in round $round", flusher.isAlive)
+        }
+    }
+
+    private fun record(index: Int) = FaceEmbeddingsRecord().apply {
+        idResource = "face$index.jpg"
+        idAlgorithm = "test"
+        idPerson = "person${index % 7}"
+        embeddings = floatArrayOf(index.toFloat())
+    }
+
+    // Waits until the thread waits for room in add().
+    private fun awaitWaiting(producer: Thread) {
+        val deadline = System.currentTimeMillis() + TIMEOUT_MS
+        while (producer.state != Thread.State.WAITING) {
+            assertTrue("producer never blocked", System.currentTimeMillis() < deadline)
+            Thread.sleep(1)
+        }
+    }
+
+    /** Records inserted batches; can hold every insert until released, or fail them. */
+    private class FakeDao(
+        blocked: Boolean = false,
+        private val failure: RuntimeException? = null
+    ) : DBDao {
+        val inserted: MutableList<FaceEmbeddingsRecord> =
+                Collections.synchronizedList(ArrayList())
+        val batchSizes: MutableList<Int> = Collections.synchronizedList(ArrayList())
+        private val gate = CountDownLatch(if (blocked) 1 else 0)
+
+        fun release() = gate.countDown()
+
+        override fun insertFaceEmbeddings(records: List<FaceEmbeddingsRecord>) {
+            assertTrue(gate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            failure?.let { throw it }
+            // The writer reuses its batch list.
+            batchSizes.add(records.size)
+            inserted.addAll(records)
+        }
+
+        override fun insertFaceEmbeddings(record: FaceEmbeddingsRecord) {
+            insertFaceEmbeddings(listOf(record))
+        }
+
+        override fun deleteFaceEmbeddings() {
+            inserted.clear()
+        }
+    }
+
+    companion object {
+        private const val TIMEOUT_MS = 10_000L
+    }
+}
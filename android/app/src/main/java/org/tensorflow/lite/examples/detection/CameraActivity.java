@@ -53,8 +53,10 @@ import androidx.appcompat.widget.Toolbar;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.examples.detection.env.YuvToRgbConverter;
 
 import java.nio.ByteBuffer;
 
@@ -78,8 +80,15 @@ public abstract class CameraActivity extends AppCompatActivity
   private byte[][] yuvBytes = new byte[3][];
   private int[] rgbBytes = null;
   private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
   private Runnable postInferenceCallback;
   private Runnable imageConverter;
+  // Converts preview frames to ARGB in row bands on up to four cores.
+  private final YuvToRgbConverter yuvToRgbConverter =
+      new YuvToRgbConverter(Math.min(4, Runtime.getRuntime().availableProcessors()));
+  // Latencies of the pipeline stages and frames dropped, shared with the detector.
+  protected final PipelineMetrics metrics = new PipelineMetrics();
 
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
@@ -321,11 +330,33 @@ public abstract class CameraActivity extends AppCompatActivity
     return yuvBytes[0];
   }
 
+  /**
+   * Copies the current frame into frame. Must be called before readyForNextImage(), which hands
+   * the camera buffers back.
+   */
+  protected void copyYuvFrame(final YuvFrame frame) {
+    if (useCamera2API) {
+      frame.setPlanes(
+          yuvBytes[0],
+          yuvBytes[1],
+          yuvBytes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride);
+    } else {
+      frame.setNv21(yuvBytes[0], previewWidth, previewHeight);
+    }
+  }
+
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
+    metrics.countFrame();
     if (isProcessingFrame) {
       LOGGER.w("Dropping frame!");
+      metrics.countDrop(PipelineMetrics.Drop.CAMERA_BUSY);
       return;
     }
 
@@ -357,7 +388,8 @@ public abstract class CameraActivity extends AppCompatActivity
         new Runnable() {
           @Override
           public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+            yuvToRgbConverter.convertYUV420SPToARGB8888(
+                bytes, previewWidth, previewHeight, rgbBytes);
           }
         };
 
@@ -389,8 +421,10 @@ public abstract class CameraActivity extends AppCompatActivity
         return;
       }
 
+      metrics.countFrame();
       if (isProcessingFrame) {
         image.close();
+        metrics.countDrop(PipelineMetrics.Drop.CAMERA_BUSY);
         return;
       }
       isProcessingFrame = true;
@@ -398,14 +432,14 @@ public abstract class CameraActivity extends AppCompatActivity
       final Plane[] planes = image.getPlanes();
       fillBytes(planes, yuvBytes);
       yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
+      uvRowStride = planes[1].getRowStride();
+      uvPixelStride = planes[1].getPixelStride();
 
       imageConverter =
           new Runnable() {
             @Override
             public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
+              yuvToRgbConverter.convertYUV420ToARGB8888(
                   yuvBytes[0],
                   yuvBytes[1],
                   yuvBytes[2],
@@ -477,6 +511,7 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   public synchronized void onDestroy() {
     LOGGER.d("onDestroy " + this);
+    yuvToRgbConverter.close();
     super.onDestroy();
   }
 
@@ -486,6 +521,14 @@ public abstract class CameraActivity extends AppCompatActivity
     }
   }
 
+  /** Runs r on the inference thread after delayMs, replacing a pending delayed run of r. */
+  protected synchronized void runInBackgroundDelayed(final Runnable r, final long delayMs) {
+    if (handler != null) {
+      handler.removeCallbacks(r);
+      handler.postDelayed(r, delayMs);
+    }
+  }
+
   @Override
   public void onRequestPermissionsResult(
       final int requestCode, final String[] permissions, final int[] grantResults) {
@@ -17,7 +17,6 @@
 package org.tensorflow.lite.examples.detection;
 
 import android.app.AlertDialog;
-import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
@@ -29,14 +28,13 @@ import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.hardware.camera2.CameraCharacteristics;
 import android.media.ImageReader.OnImageAvailableListener;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.SystemClock;
-import android.provider.BaseColumns;
 import android.util.Log;
 import android.util.Size;
 import android.util.TypedValue;
@@ -57,27 +55,44 @@ import com.google.mlkit.vision.face.FaceDetector;
 import com.google.mlkit.vision.face.FaceDetectorOptions;
 import com.google.mlkit.vision.face.FaceLandmark;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.tensorflow.lite.examples.detection.customview.OverlayView;
 import org.tensorflow.lite.examples.detection.customview.OverlayView.DrawCallback;
+import org.tensorflow.lite.examples.detection.database.EmbeddingCodec;
 import org.tensorflow.lite.examples.detection.database.FaceReaderContract;
 import org.tensorflow.lite.examples.detection.database.FaceReaderDbHelper;
+import org.tensorflow.lite.examples.detection.database.GallerySnapshot;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.LatestFrameSlot;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.examples.detection.liveness.LivenessEngine;
+import org.tensorflow.lite.examples.detection.pipeline.DetectedFace;
+import org.tensorflow.lite.examples.detection.pipeline.FacePipeline;
 import org.tensorflow.lite.examples.detection.tflite.SimilarityClassifier;
 import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+import org.tensorflow.lite.examples.detection.tracking.IdentityTracker;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
 
 /**
@@ -91,6 +106,26 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
   private static final int TF_OD_API_INPUT_SIZE = 112;
   private static final boolean TF_OD_API_IS_QUANTIZED = false;
   private static final String TF_OD_API_MODEL_FILE = "mobile_face_net.tflite";
+  // Version of the embeddings produced by TF_OD_API_MODEL_FILE (FaceEmbedder.idAlgorithm() in
+  // VerifyMFN). Gallery snapshots taken with another model are ignored.
+  private static final String TF_OD_API_MODEL_ID = "MFN.01";
+  // Faces further than this (Euclidean distance) from their nearest enrolled embedding are unknown.
+  private static final float MAX_RECOGNITION_DISTANCE = 1.0f;
+  // A tracked face is embedded again at least every this many frames, and on every frame while
+  // its distance is within this margin of MAX_RECOGNITION_DISTANCE.
+  private static final int RECOGNITION_REFRESH_FRAMES = 10;
+  private static final float RECOGNITION_DISTANCE_MARGIN = 0.1f;
+  // The gallery snapshot is rewritten once the gallery has not changed for this long.
+  private static final long SNAPSHOT_DELAY_MS = 5000;
+  // Weighting of head movement and blinking in each of the combined liveness modes.
+  private static final Map<String, LivenessEngine.Weighting> LIVENESS_WEIGHTINGS = new HashMap<>();
+  static {
+    LIVENESS_WEIGHTINGS.put(FACE_BOTH_ONE_DETECTION, LivenessEngine.Weighting.EQUAL);
+    LIVENESS_WEIGHTINGS.put(FACE_BOTH_TWO_DETECTION, LivenessEngine.Weighting.MOSTLY_MOVEMENT);
+    LIVENESS_WEIGHTINGS.put(FACE_BOTH_THREE_DETECTION, LivenessEngine.Weighting.MOSTLY_BLINKING);
+    LIVENESS_WEIGHTINGS.put(FACE_BOTH_FOUR_DETECTION, LivenessEngine.Weighting.BLINKING_ONLY);
+    LIVENESS_WEIGHTINGS.put(FACE_BOTH_FIVE_DETECTION, LivenessEngine.Weighting.MOVEMENT_ONLY);
+  }
 
   private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labelmap.txt";
 
@@ -106,45 +141,75 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
   private SimilarityClassifier detector;
 
-  private long lastProcessingTimeMs;
   private Bitmap rgbFrameBitmap = null;
   private Bitmap croppedBitmap = null;
 
-  private boolean computingDetection = false;
+  // Frames go through two stages: face detection (ML Kit) and embedding plus matching (the
+  // background thread). Stage 1 takes one frame at a time and drops frames that arrive while it
+  // is busy; it then hands the frame to stage 2 through embeddingSlot, so that stage 1 detects
+  // frame N + 1 while stage 2 embeds the faces of frame N. If stage 2 falls behind, the frame
+  // waiting in the slot is replaced by the newer one.
+  private volatile boolean detectionInFlight = false;
+  private final LatestFrameSlot<FrameJob> embeddingSlot = new LatestFrameSlot<>();
+  // One frame in each stage and one in the slot.
+  private final BlockingQueue<FrameJob> freeJobs = new ArrayBlockingQueue<>(3);
   private boolean addPending = false;
 
   private long timestamp = 0;
 
   private Matrix frameToCropTransform;
   private Matrix cropToFrameTransform;
+  // Preview frame to portrait (the frame rotated by sensorOrientation), its inverse, and
+  // detector crop to portrait. They only change with the preview size and orientation.
+  private Matrix frameToPortraitTransform;
+  private Matrix portraitToFrameTransform;
+  private Matrix cropToPortraitTransform;
 
   private MultiBoxTracker tracker;
+  // Tracks, samples, recognizes and scores the liveness of the detected faces; only used on the
+  // inference thread.
+  private FacePipeline facePipeline;
 
   private BorderedText borderedText;
 
   // Face detector
   private FaceDetector faceDetector;
 
-  // here the preview image is drawn in portrait way
-  private Bitmap portraitBmp = null;
-  // here the face is cropped and drawn
-  private Bitmap faceBmp = null;
+  // size of the preview frame rotated to portrait
+  private int portraitWidth;
+  private int portraitHeight;
 
   private FloatingActionButton fabAdd;
 
   private FaceReaderDbHelper faceReaderDbHelper;
+  // Set when the gallery changed since the snapshot was last written.
+  private volatile boolean snapshotDirty = false;
+  private final Runnable saveSnapshotTask = () -> saveSnapshot(detector);
+  // Writes the snapshot left over when the activity pauses, once inference has stopped.
+  private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor();
+  private Future<?> pendingSnapshot;
   TextView messageText;
 
-  private Map<String, ArrayList<Double>> blinkingLeftEye = new HashMap<>();
-  private Map<String, ArrayList<Double>> blinkingRightEye = new HashMap<>();
-  private Map<String, ArrayList<Double>> faceMovementsX = new HashMap<>();
-  private Map<String, ArrayList<Double>> faceMovementsY = new HashMap<>();
 
+  // A frame on its way through the pipeline.
+  private static final class FrameJob {
+    // the camera frame, faces are sampled from it
+    final YuvFrame frame = new YuvFrame();
+    long timestamp;
+    // uptime at which the frame was taken for detection
+    long timeMs;
+    List<Face> faces;
+    boolean add;
+  }
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
 
+    while (freeJobs.remainingCapacity() > 0) {
+      freeJobs.add(new FrameJob());
+    }
+
     fabAdd = findViewById(R.id.fab_add);
     fabAdd.setOnClickListener(view -> addPending = true);
 
@@ -168,29 +233,110 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     faceReaderDbHelper = new FaceReaderDbHelper(getApplicationContext());
     SQLiteDatabase db = faceReaderDbHelper.getReadableDatabase();
 
+    final long start = SystemClock.uptimeMillis();
+    final long[] tableState = faceReaderDbHelper.queryTableState(db);
+    if (GallerySnapshot.load(getSnapshotFile(), TF_OD_API_MODEL_ID,
+            tableState[0], tableState[1], detector.getEmbeddingIndex())) {
+      LOGGER.i("Loaded %d faces from snapshot in %d ms",
+              detector.getEmbeddingIndex().size(), SystemClock.uptimeMillis() - start);
+      return;
+    }
+
     String[] projection = {
-            BaseColumns._ID,
-            FaceReaderContract.FaceEntry.COLUMN_NAME_FACE,
-            FaceReaderContract.FaceEntry.COLUMN_NAME_NAME
+            FaceReaderContract.FaceEntry.COLUMN_NAME_NAME,
+            FaceReaderContract.FaceEntry.COLUMN_NAME_EMBEDDING
     };
     Cursor cursor = db.query(
             FaceReaderContract.FaceEntry.TABLE_NAME,
             projection,
-            null,
+            FaceReaderContract.FaceEntry.COLUMN_NAME_EMBEDDING + " IS NOT NULL",
             null,
             null,
             null,
             null
     );
+    final int nameColumn =
+            cursor.getColumnIndexOrThrow(FaceReaderContract.FaceEntry.COLUMN_NAME_NAME);
+    final int embeddingColumn =
+            cursor.getColumnIndexOrThrow(FaceReaderContract.FaceEntry.COLUMN_NAME_EMBEDDING);
     while(cursor.moveToNext()) {
-      String name = cursor.getString(
-              cursor.getColumnIndexOrThrow(FaceReaderContract.FaceEntry.COLUMN_NAME_NAME));
-      String face = cursor.getString(
-              cursor.getColumnIndexOrThrow(FaceReaderContract.FaceEntry.COLUMN_NAME_FACE));
-      SimilarityClassifier.Recognition rec = new SimilarityClassifier.Recognition(face);
+      String name = cursor.getString(nameColumn);
+      float[] embedding = EmbeddingCodec.decode(cursor.getBlob(embeddingColumn));
+      SimilarityClassifier.Recognition rec =
+              new SimilarityClassifier.Recognition(null, name, null, null);
+      rec.setExtra(new float[][] {embedding});
       detector.register(name, rec);
     }
     cursor.close();
+    LOGGER.i("Loaded %d faces from the database in %d ms",
+            detector.getEmbeddingIndex().size(), SystemClock.uptimeMillis() - start);
+    scheduleSnapshot();
+  }
+
+  private File getSnapshotFile() {
+    return new File(getFilesDir(), GallerySnapshot.FILE_NAME);
+  }
+
+  // Marks the gallery as changed and (re)starts the countdown to saving it on the inference thread.
+  private void scheduleSnapshot() {
+    snapshotDirty = true;
+    runInBackgroundDelayed(saveSnapshotTask, SNAPSHOT_DELAY_MS);
+  }
+
+  // Runs on the inference thread, which owns the gallery, or on snapshotExecutor while inference
+  // is stopped, so the gallery is not searched or changed while it is written.
+  private void saveSnapshot(final SimilarityClassifier detector) {
+    if (faceReaderDbHelper == null || detector == null) {
+      return;
+    }
+    try {
+      final long[] tableState =
+              faceReaderDbHelper.queryTableState(faceReaderDbHelper.getReadableDatabase());
+      GallerySnapshot.save(getSnapshotFile(), TF_OD_API_MODEL_ID,
+              tableState[0], tableState[1], detector.getEmbeddingIndex());
+      snapshotDirty = false;
+    } catch (final IOException e) {
+      LOGGER.e(e, "Could not write the gallery snapshot");
+    }
+  }
+
+  @Override
+  public synchronized void onResume() {
+    super.onResume();
+    final Future<?> snapshot = pendingSnapshot;
+    pendingSnapshot = null;
+    if (snapshot != null) {
+      // Hold back the first frames until the gallery is no longer being written.
+      runInBackground(() -> awaitSnapshot(snapshot));
+    }
+  }
+
+  @Override
+  public synchronized void onPause() {
+    super.onPause();
+    // Inference has stopped and dropped the delayed write; finish it without blocking the UI.
+    // A resume may replace detector, so hand over the current one.
+    final SimilarityClassifier paused = detector;
+    if (snapshotDirty) {
+      pendingSnapshot = snapshotExecutor.submit(() -> saveSnapshot(paused));
+    }
+  }
+
+  @Override
+  public synchronized void onDestroy() {
+    // A pending snapshot write still runs to completion.
+    snapshotExecutor.shutdown();
+    super.onDestroy();
+  }
+
+  private static void awaitSnapshot(final Future<?> snapshot) {
+    try {
+      snapshot.get();
+    } catch (final ExecutionException e) {
+      LOGGER.e(e.getCause(), "Could not write the gallery snapshot");
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   @Override
@@ -211,6 +357,8 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                       TF_OD_API_LABELS_FILE,
                       TF_OD_API_INPUT_SIZE,
                       TF_OD_API_IS_QUANTIZED);
+      detector.setMetrics(metrics);
+      detector.enableStatLogging(true);
       initDetector();
     } catch (final IOException e) {
       e.printStackTrace();
@@ -246,8 +394,8 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     croppedBitmap = Bitmap.createBitmap(cropW, cropH, Config.ARGB_8888);
 
-    portraitBmp = Bitmap.createBitmap(targetW, targetH, Config.ARGB_8888);
-    faceBmp = Bitmap.createBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, Config.ARGB_8888);
+    portraitWidth = targetW;
+    portraitHeight = targetH;
 
     frameToCropTransform =
             ImageUtils.getTransformationMatrix(
@@ -258,12 +406,32 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     cropToFrameTransform = new Matrix();
     frameToCropTransform.invert(cropToFrameTransform);
 
+    frameToPortraitTransform = createTransform(
+            previewWidth, previewHeight,
+            portraitWidth, portraitHeight,
+            sensorOrientation);
+    portraitToFrameTransform = new Matrix();
+    frameToPortraitTransform.invert(portraitToFrameTransform);
+    cropToPortraitTransform = new Matrix(cropToFrameTransform);
+    cropToPortraitTransform.postConcat(frameToPortraitTransform);
+
+    facePipeline = new FacePipeline(detector, TF_OD_API_INPUT_SIZE,
+            new IdentityTracker<SimilarityClassifier.Recognition>()
+                    .setRefreshInterval(RECOGNITION_REFRESH_FRAMES)
+                    .setMarginalDistance(MAX_RECOGNITION_DISTANCE, RECOGNITION_DISTANCE_MARGIN),
+            new LivenessEngine());
+    facePipeline.setTransforms(getValues(cropToFrameTransform),
+            getValues(cropToPortraitTransform), getValues(portraitToFrameTransform));
+
     trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
     trackingOverlay.addCallback(
             canvas -> {
               tracker.draw(canvas);
               if (isDebug()) {
                 tracker.drawDebug(canvas);
+                final Vector<String> lines =
+                        new Vector<>(Arrays.asList(metrics.toString().split("\n")));
+                borderedText.drawLines(canvas, 10, canvas.getHeight() - 10, lines);
               }
             });
 
@@ -278,18 +446,27 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     trackingOverlay.postInvalidate();
 
     // No mutex needed as this method is not reentrant.
-    if (computingDetection) {
+    final FrameJob job = detectionInFlight ? null : freeJobs.poll();
+    if (job == null) {
+      metrics.countDrop(PipelineMetrics.Drop.DETECTOR_BUSY);
       readyForNextImage();
       return;
     }
-    computingDetection = true;
+    detectionInFlight = true;
+    job.timestamp = currTimestamp;
+    job.timeMs = SystemClock.uptimeMillis();
 
     LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
 
+    final long conversionStart = System.nanoTime();
     rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+    // faces are sampled from the YUV planes later, after the camera buffers are handed back
+    copyYuvFrame(job.frame);
+    metrics.record(PipelineMetrics.Stage.YUV_CONVERSION, System.nanoTime() - conversionStart);
 
     readyForNextImage();
 
+    final long detectionStart = System.nanoTime();
     final Canvas canvas = new Canvas(croppedBitmap);
     canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
     if (SAVE_PREVIEW_BITMAP) {
@@ -300,20 +477,60 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     faceDetector
             .process(image)
             .addOnSuccessListener(faces -> {
+              metrics.record(PipelineMetrics.Stage.DETECTION, System.nanoTime() - detectionStart);
               if (faces.size() == 0) {
                 messageText.setText("Error!!");
-                updateResults(currTimestamp, new LinkedList<>());
-                return;
+              } else {
+                messageText.setText("");
+              }
+              job.faces = faces;
+              job.add = addPending && faces.size() > 0;
+              if (job.add) {
+                addPending = false;
               }
-              messageText.setText("");
-              runInBackground(
-                      () -> {
-                        onFacesDetected(currTimestamp, faces, addPending);
-                        addPending = false;
-                      });
+              // croppedBitmap is free again, stage 1 can take the next frame.
+              detectionInFlight = false;
+              publishForEmbedding(job);
+            })
+            .addOnFailureListener(e -> {
+              LOGGER.e(e, "Face detection failed");
+              freeJobs.add(job);
+              detectionInFlight = false;
             });
+  }
 
+  // Hands a detected frame to stage 2.
+  private void publishForEmbedding(FrameJob job) {
+    final FrameJob dropped = embeddingSlot.offer(job);
+    if (dropped != null) {
+      LOGGER.d("Dropping frame %d, embedding is behind", dropped.timestamp);
+      metrics.countDrop(PipelineMetrics.Drop.EMBEDDING_BEHIND);
+      if (dropped.add) {
+        // the request to add a face carries over to the newer frame, or the next one with a face
+        if (job.faces.size() > 0) {
+          job.add = true;
+        } else {
+          addPending = true;
+        }
+      }
+      freeJobs.add(dropped);
+    }
+    runInBackground(this::embedLatestFrame);
+  }
 
+  // Stage 2: embeds and matches the faces of the latest detected frame, if any is waiting.
+  private void embedLatestFrame() {
+    final FrameJob job = embeddingSlot.poll();
+    if (job == null) {
+      // already taken by an earlier run
+      return;
+    }
+    try {
+      onFacesDetected(job.timestamp, job.timeMs, job.faces, job.add, job.frame);
+    } finally {
+      job.faces = null;
+      freeJobs.add(job);
+    }
   }
 
   @Override
@@ -390,15 +607,19 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
       public void onClick(DialogInterface dlg, int i) {
 
           String name = etName.getText().toString();
-          SQLiteDatabase db = faceReaderDbHelper.getWritableDatabase();
           if (name.isEmpty()) {
               return;
           }
-          detector.register(name, rec);
-          ContentValues values = new ContentValues();
-          values.put(FaceReaderContract.FaceEntry.COLUMN_NAME_FACE, rec.toString());
-          values.put(FaceReaderContract.FaceEntry.COLUMN_NAME_NAME, name);
-          db.insert(FaceReaderContract.FaceEntry.TABLE_NAME, null, values);
+          // The gallery is only searched, changed and saved on the inference thread. The row is
+          // inserted in the same run, so a snapshot never sees the table ahead of the gallery.
+          runInBackground(() -> {
+            SQLiteDatabase db = faceReaderDbHelper.getWritableDatabase();
+            faceReaderDbHelper.insertFace(db, name, ((float[][]) rec.getExtra())[0]);
+            detector.register(name, rec);
+            // identities cached before the new face was known may be wrong now
+            facePipeline.invalidateIdentities();
+            scheduleSnapshot();
+          });
 
           dlg.dismiss();
       }
@@ -412,7 +633,6 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     tracker.trackResults(mappedRecognitions, currTimestamp);
     trackingOverlay.postInvalidate();
-    computingDetection = false;
 
     if (mappedRecognitions.size() > 0) {
        LOGGER.i("Adding results");
@@ -427,139 +647,29 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
             () -> {
               showFrameInfo(previewWidth + "x" + previewHeight);
               showCropInfo(croppedBitmap.getWidth() + "x" + croppedBitmap.getHeight());
-              showInference(lastProcessingTimeMs + "ms");
+              showInference(
+                      metrics.getHistogram(PipelineMetrics.Stage.DETECTION)
+                              .getValueAtPercentile(50) / 1000000
+                      + " + "
+                      + metrics.getHistogram(PipelineMetrics.Stage.INFERENCE)
+                              .getValueAtPercentile(50) / 1000000
+                      + "ms (p50)");
             });
 
   }
 
-  private double getStandardDeviation(ArrayList<Double> numArray) {
-    double sum = 0.0, standardDeviation = 0.0;
-    int length = numArray.size();
-
-    for(double num : numArray) {
-      sum += num;
-    }
-
-    double mean = sum/length;
-
-    for(double num: numArray) {
-      standardDeviation += Math.pow(num - mean, 2);
-    }
-
-    return Math.sqrt(standardDeviation/length);
-  }
-
-  private double checkMovement(String face, Map<String, ArrayList<Double>> faceMovements, double x) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-      ArrayList<Double> array;
-      if (!faceMovements.containsKey(face)) {
-        array = new ArrayList<>();
-      } else {
-        array = faceMovements.get(face);
-      }
-      array.add(x);
-      faceMovements.put(face, array);
-      double stDeviation = getStandardDeviation(array);
-      return calculateMovingProbability(stDeviation);
-    }
-    return 0.0;
-  }
-
-  private double calculateMovingProbability(double stDev) {
-    if(stDev <= 0.7) {
-      return (stDev / 0.7) * 0.6;
-    }
-    if(stDev <= 0.9) {
-      return ((stDev - 0.7) / 0.2) * 0.1 + 0.7;
-    }
-    if(stDev <= 1.1) {
-      return ((stDev - 1.1) / 0.2) * 0.1 + 0.8;
-    }
-    if(stDev <= 2) {
-      return ((stDev - 2) / 0.9) * 0.2 + 1;
-    }
-    return 1.0;
+  private static float eyeOpenProbability(Float probability) {
+    return probability != null ? probability : Float.NaN;
   }
 
-  private double checkBlinking(String face, Map<String, ArrayList<Double>> blinking, double x) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-      ArrayList<Double> array;
-      if (!blinking.containsKey(face)) {
-        array = new ArrayList<>();
-      } else {
-        array = blinking.get(face);
-      }
-      array.add(x);
-      blinking.put(face, array);
-      return calculateBlinkingProbability(array);
-    }
-    return 0.0;
+  private static float[] getValues(Matrix matrix) {
+    final float[] values = new float[9];
+    matrix.getValues(values);
+    return values;
   }
 
-  private double calculateBlinkingProbability(ArrayList<Double> array) {
-    double min = Collections.min(array);
-    double max = Collections.max(array);
-    double diff = max - min;
-
-    if(diff <= 0.1) {
-      return 0.0;
-    }
-    if(diff <= 0.9) {
-      return ((diff - 0.1) / 0.8);
-    }
-    return 1.0;
-  }
-
-  private EyeMovement checkBlinking(SimilarityClassifier.Recognition result, Face face) {
-    double left = face.getLeftEyeOpenProbability();
-    double right = face.getRightEyeOpenProbability();
-
-    double blinkingLeft = checkBlinking(result.getTitle(), blinkingLeftEye, left);
-    double blinkingRight = checkBlinking(result.getTitle(), blinkingRightEye, right);
-    return new EyeMovement(blinkingLeft, blinkingRight);
-  }
-
-  private boolean isBlinking(SimilarityClassifier.Recognition result, Face face) {
-    EyeMovement eyeMovement = checkBlinking(result, face);
-
-    if(eyeMovement.blinkingLeft > 0.9)
-      return true;
-    if(eyeMovement.blinkingRight > 0.9)
-      return true;
-    return false;
-  }
-
-  private FaceMovement checkMovement(SimilarityClassifier.Recognition result, Face face) {
-    double x = face.getHeadEulerAngleX();
-    double y = face.getHeadEulerAngleY();
-
-    double movementX = checkMovement(result.getTitle(), faceMovementsX, x);
-    double movementY = checkMovement(result.getTitle(), faceMovementsY, y);
-    return new FaceMovement(movementX, movementY);
-  }
-
-  private boolean isMoving(SimilarityClassifier.Recognition result, Face face) {
-    FaceMovement faceMovement = checkMovement(result, face);
-
-    if(faceMovement.movementX > 0.9)
-      return true;
-    if(faceMovement.movementY > 0.9)
-      return true;
-    return false;
-  }
-
-  private double getBothProbability(SimilarityClassifier.Recognition result, Face face, double facePerc, double eyePerc) {
-    FaceMovement faceMovement = checkMovement(result, face);
-    EyeMovement eyeMovement = checkBlinking(result, face);
-
-    double faceMovementValue = Math.max(faceMovement.movementX, faceMovement.movementY);
-    double eyeMovementValue = Math.max(eyeMovement.blinkingLeft, eyeMovement.blinkingRight);
-
-    double val = faceMovementValue * facePerc + eyeMovementValue * eyePerc;
-    return val;
-  }
-
-  private void onFacesDetected(long currTimestamp, List<Face> faces, boolean add) {
+  private void onFacesDetected(long currTimestamp, long timeMs, List<Face> faces, boolean add,
+                               YuvFrame frame) {
 
     final Paint paint = new Paint();
     paint.setColor(Color.RED);
@@ -569,202 +679,113 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     final List<SimilarityClassifier.Recognition> mappedRecognitions =
             new LinkedList<SimilarityClassifier.Recognition>();
 
-    // Note this can be done only once
-    int sourceW = rgbFrameBitmap.getWidth();
-    int sourceH = rgbFrameBitmap.getHeight();
-    int targetW = portraitBmp.getWidth();
-    int targetH = portraitBmp.getHeight();
-    Matrix transform = createTransform(
-            sourceW,
-            sourceH,
-            targetW,
-            targetH,
-            sensorOrientation);
-    final Canvas cv = new Canvas(portraitBmp);
-
-    // draws the original image in portrait mode.
-    cv.drawBitmap(rgbFrameBitmap, transform, null);
-
-    final Canvas cvFace = new Canvas(faceBmp);
-
+    final List<DetectedFace> detected = new ArrayList<>(faces.size());
     for (Face face : faces) {
-
       LOGGER.i("FACE" + face.toString());
-      LOGGER.i("Running detection on face " + currTimestamp);
-
-      final RectF boundingBox = new RectF(face.getBoundingBox());
-
-      //final boolean goodConfidence = result.getConfidence() >= minimumConfidence;
-      final boolean goodConfidence = true; //face.get;
-      if (boundingBox != null && goodConfidence) {
-
-        // maps crop coordinates to original
-        cropToFrameTransform.mapRect(boundingBox);
-
-        // maps original coordinates to portrait coordinates
-        RectF faceBB = new RectF(boundingBox);
-        transform.mapRect(faceBB);
-
-        // translates portrait to origin and scales to fit input inference size
-        float sx = ((float) TF_OD_API_INPUT_SIZE) / faceBB.width();
-        float sy = ((float) TF_OD_API_INPUT_SIZE) / faceBB.height();
-        Matrix matrix = new Matrix();
-        matrix.postTranslate(-faceBB.left, -faceBB.top);
-        matrix.postScale(sx, sy);
-
-        cvFace.drawBitmap(portraitBmp, matrix, null);
-
-        String label = "";
-        float confidence = -1f;
-        Integer color = Color.BLUE;
-        Object extra = null;
-        Bitmap crop = null;
-
-        if (add) {
-          crop = Bitmap.createBitmap(portraitBmp,
-                            (int) faceBB.left,
-                            (int) faceBB.top,
-                            (int) faceBB.width(),
-                            (int) faceBB.height());
-        }
-
-        final long startTime = SystemClock.uptimeMillis();
-        final List<SimilarityClassifier.Recognition> resultsAux = detector.recognizeImage(faceBmp, add);
-        lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-        if (resultsAux.size() > 0) {
-
-          SimilarityClassifier.Recognition result = resultsAux.get(0);
-
-          if(result.getDistance() < 1.0) {
-            Intent intent = getIntent();
-            String detectionMode = intent.getStringExtra(KEY_DETECTION_MODE) == null
-                    ? FACE_BOTH_ONE_DETECTION
-                    : intent.getStringExtra(KEY_DETECTION_MODE);
-
-            if(detectionMode != null) {
-              boolean isMoving = false;
-              boolean isBlinking = false;
-              if (detectionMode.equals(FACE_BLINK_DETECTION)) {
-                isBlinking = isBlinking(result, face);
-              }
-              if (detectionMode.equals(FACE_MOVEMENT_DETECTION)) {
-                isMoving = isMoving(result, face);
-              }
-              String text = "";
-              if (!isBlinking && detectionMode.equals(FACE_BLINK_DETECTION)) {
-                text = "Not blinking!";
-              } else if (!isMoving && detectionMode.equals(FACE_MOVEMENT_DETECTION)) {
-                text += " Not moving!";
-              }
-              if(detectionMode.equals(FACE_BOTH_ONE_DETECTION)) {
-                double probability = getBothProbability(result, face, 0.5, 0.5);
-                text += probability;
-              }
-              if(detectionMode.equals(FACE_BOTH_TWO_DETECTION)) {
-                double probability = getBothProbability(result, face, 0.7, 0.3);
-                text += probability;
-              }
-              if(detectionMode.equals(FACE_BOTH_THREE_DETECTION)) {
-                double probability = getBothProbability(result, face, 0.3, 0.7);
-                text += probability;
-              }
-              if(detectionMode.equals(FACE_BOTH_FOUR_DETECTION)) {
-                double probability = getBothProbability(result, face, 0, 1);
-                text += probability;
-              }
-              if(detectionMode.equals(FACE_BOTH_FIVE_DETECTION)) {
-                double probability = getBothProbability(result, face, 1, 0);
-                text += probability;
-              }
-
-              messageText.setText(text);
-            }
-          } else {
-            messageText.setText("Face not detected");
-          }
-
-          extra = result.getExtra();
-
-          float conf = result.getDistance();
-          if (conf < 1.0f) {
-
-            confidence = conf;
-            label = result.getTitle();
-            if (result.getId().equals("0")) {
-              color = Color.GREEN;
+      final Rect box = face.getBoundingBox();
+      detected.add(new DetectedFace(box.left, box.top, box.right, box.bottom,
+              face.getHeadEulerAngleX(), face.getHeadEulerAngleY(),
+              eyeOpenProbability(face.getLeftEyeOpenProbability()),
+              eyeOpenProbability(face.getRightEyeOpenProbability())));
+    }
+    LOGGER.i("Running detection on faces " + currTimestamp);
+
+    final List<FacePipeline.FaceResult> faceResults =
+            facePipeline.process(frame, detected, timeMs, add);
+    metrics.record(PipelineMetrics.Stage.CROP,
+            facePipeline.getLastStageNanos(FacePipeline.Stage.SAMPLE));
+    metrics.record(PipelineMetrics.Stage.LIVENESS,
+            facePipeline.getLastStageNanos(FacePipeline.Stage.LIVENESS));
+    final LivenessEngine livenessEngine = facePipeline.getLivenessEngine();
+    LOGGER.d("Liveness state: %d faces, %d evicted, %d expired", livenessEngine.getTrackCount(),
+            livenessEngine.getEvictedTrackCount(), livenessEngine.getExpiredTrackCount());
+
+    for (FacePipeline.FaceResult faceResult : faceResults) {
+      final float[] frameBox = faceResult.getFrameBox();
+      final RectF boundingBox = new RectF(frameBox[0], frameBox[1], frameBox[2], frameBox[3]);
+      final Bitmap crop = faceResult.getCropPixels() == null
+              ? null
+              : Bitmap.createBitmap(faceResult.getCropPixels(),
+                      faceResult.getCropWidth(), faceResult.getCropHeight(), Config.ARGB_8888);
+      final LivenessEngine.Score liveness = faceResult.getLiveness();
+      final SimilarityClassifier.Recognition recognized = faceResult.getRecognition();
+
+      String label = "";
+      float confidence = -1f;
+      Integer color = Color.BLUE;
+      Object extra = null;
+
+      if (recognized != null) {
+
+        SimilarityClassifier.Recognition result = recognized;
+
+        if(result.getDistance() < MAX_RECOGNITION_DISTANCE) {
+          Intent intent = getIntent();
+          String detectionMode = intent.getStringExtra(KEY_DETECTION_MODE) == null
+                  ? FACE_BOTH_ONE_DETECTION
+                  : intent.getStringExtra(KEY_DETECTION_MODE);
+
+          if(detectionMode != null) {
+            String text = "";
+            if (!liveness.isBlinking() && detectionMode.equals(FACE_BLINK_DETECTION)) {
+              text = "Not blinking!";
+            } else if (!liveness.isMoving() && detectionMode.equals(FACE_MOVEMENT_DETECTION)) {
+              text += " Not moving!";
             }
-            else {
-              color = Color.RED;
+            final LivenessEngine.Weighting weighting = LIVENESS_WEIGHTINGS.get(detectionMode);
+            if (weighting != null) {
+              text += liveness.getProbability(weighting);
             }
-          }
 
+            messageText.setText(text);
+          }
+        } else {
+          messageText.setText("Face not detected");
         }
 
-        if (getCameraFacing() == CameraCharacteristics.LENS_FACING_FRONT) {
+        extra = result.getExtra();
 
-          Matrix flip = new Matrix();
-          if (sensorOrientation == 90 || sensorOrientation == 270) {
-            flip.postScale(1, -1, previewWidth / 2.0f, previewHeight / 2.0f);
+        float conf = result.getDistance();
+        if (conf < MAX_RECOGNITION_DISTANCE) {
+
+          confidence = conf;
+          label = result.getTitle();
+          if (result.getId().equals("0")) {
+            color = Color.GREEN;
           }
           else {
-            flip.postScale(-1, 1, previewWidth / 2.0f, previewHeight / 2.0f);
+            color = Color.RED;
           }
-          flip.mapRect(boundingBox);
-
         }
 
-        final SimilarityClassifier.Recognition result = new SimilarityClassifier.Recognition(
-                "0", label, confidence, boundingBox);
-
-        result.setColor(color);
-        result.setLocation(boundingBox);
-        result.setExtra(extra);
-        result.setCrop(crop);
-        mappedRecognitions.add(result);
-
       }
-    }
-
-    updateResults(currTimestamp, mappedRecognitions);
-
 
-  }
+      if (getCameraFacing() == CameraCharacteristics.LENS_FACING_FRONT) {
 
+        Matrix flip = new Matrix();
+        if (sensorOrientation == 90 || sensorOrientation == 270) {
+          flip.postScale(1, -1, previewWidth / 2.0f, previewHeight / 2.0f);
+        }
+        else {
+          flip.postScale(-1, 1, previewWidth / 2.0f, previewHeight / 2.0f);
+        }
+        flip.mapRect(boundingBox);
 
-  private class FaceMovement {
-    private double movementX;
-    private double movementY;
+      }
 
-    public FaceMovement(double movementX, double movementY) {
-      this.movementX = movementX;
-      this.movementY = movementY;
-    }
+      final SimilarityClassifier.Recognition result = new SimilarityClassifier.Recognition(
+              "0", label, confidence, boundingBox);
 
-    public double getMovementX() {
-      return movementX;
-    }
+      result.setColor(color);
+      result.setLocation(boundingBox);
+      result.setExtra(extra);
+      result.setCrop(crop);
+      mappedRecognitions.add(result);
 
-    public double getMovementY() {
-      return movementY;
     }
-  }
-
-  private class EyeMovement {
-    private double blinkingLeft;
-    private double blinkingRight;
 
-    public EyeMovement(double blinkingLeft, double blinkingRight) {
-      this.blinkingLeft = blinkingLeft;
-      this.blinkingRight = blinkingRight;
-    }
+    updateResults(currTimestamp, mappedRecognitions);
 
-    public double getBlinkingLeft() {
-      return blinkingLeft;
-    }
 
-    public double getBlinkingRight() {
-      return blinkingRight;
-    }
   }
 }
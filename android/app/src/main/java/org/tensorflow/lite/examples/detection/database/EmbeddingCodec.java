@@ -0,0 +1,69 @@
+package org.tensorflow.lite.examples.detection.database;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary encoding of face embeddings for the
+ * {@link FaceReaderContract.FaceEntry#COLUMN_NAME_EMBEDDING} column: the raw float32 values in
+ * little-endian order, 4 bytes per dimension, no header.
+ */
+public final class EmbeddingCodec {
+    private static final String LEGACY_EXTRA_PREFIX = "extra: ";
+
+    private EmbeddingCodec() {}
+
+    public static byte[] encode(float[] embedding) {
+        ByteBuffer buffer =
+                ByteBuffer.allocate(embedding.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+
+    public static float[] decode(byte[] blob) {
+        if (blob.length % 4 != 0) {
+            throw new IllegalArgumentException(
+                    "Embedding blob is not a float array: " + blob.length);
+        }
+        float[] embedding = new float[blob.length / 4];
+        ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(embedding);
+        return embedding;
+    }
+
+    /**
+     * Extracts the embedding from a schema version 1 row, i.e. the "extra: f,f,...,;" field of a
+     * Recognition.toString(). Returns null if the row holds no embedding.
+     */
+    public static float[] parseLegacy(String face) {
+        if (face == null) {
+            return null;
+        }
+        int start = face.indexOf(LEGACY_EXTRA_PREFIX);
+        if (start < 0) {
+            return null;
+        }
+        start += LEGACY_EXTRA_PREFIX.length();
+        int end = face.indexOf(';', start);
+        if (end < 0) {
+            end = face.length();
+        }
+        String[] values = face.substring(start, end).split(",");
+        int count = 0;
+        float[] embedding = new float[values.length];
+        for (String value : values) {
+            String trimmed = value.trim();
+            if (!trimmed.isEmpty()) {
+                embedding[count++] = Float.parseFloat(trimmed);
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        if (count == embedding.length) {
+            return embedding;
+        }
+        float[] result = new float[count];
+        System.arraycopy(embedding, 0, result, 0, count);
+        return result;
+    }
+}
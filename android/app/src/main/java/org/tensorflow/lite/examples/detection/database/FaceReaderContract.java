@@ -8,7 +8,15 @@ public class FaceReaderContract {
     /* Inner class that defines the table contents */
     public static class FaceEntry implements BaseColumns {
         public static final String TABLE_NAME = "faces";
+        /**
+         * Recognition.toString() of the enrolled face. Only written by schema version 1, and
+         * cleared by the migration to version 2 once the embedding is in COLUMN_NAME_EMBEDDING.
+         * The empty column stays because SQLite on older Android versions cannot drop columns;
+         * new tables create it too, so both have the same schema. Downgrades drop the table.
+         */
         public static final String COLUMN_NAME_FACE = "face";
         public static final String COLUMN_NAME_NAME = "name";
+        /** Embedding as little-endian float32 values, see {@link EmbeddingCodec}. */
+        public static final String COLUMN_NAME_EMBEDDING = "embedding";
     }
 }
@@ -1,19 +1,35 @@
 package org.tensorflow.lite.examples.detection.database;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import org.tensorflow.lite.examples.detection.env.Logger;
 
 public class FaceReaderDbHelper extends SQLiteOpenHelper {
+    private static final Logger LOGGER = new Logger();
+
     // If you change the database schema, you must increment the database version.
-    public static final int DATABASE_VERSION = 1;
+    // 1: embeddings stored as Recognition.toString() text in "face".
+    // 2: embeddings stored as little-endian float blobs in "embedding".
+    public static final int DATABASE_VERSION = 2;
     public static final String DATABASE_NAME = "FaceReader.db";
 
     private static final String SQL_CREATE_ENTRIES =
             "CREATE TABLE " + FaceReaderContract.FaceEntry.TABLE_NAME + " (" +
                     FaceReaderContract.FaceEntry._ID + " INTEGER PRIMARY KEY," +
                     FaceReaderContract.FaceEntry.COLUMN_NAME_FACE + " TEXT," +
-                    FaceReaderContract.FaceEntry.COLUMN_NAME_NAME + " TEXT)";
+                    FaceReaderContract.FaceEntry.COLUMN_NAME_NAME + " TEXT," +
+                    FaceReaderContract.FaceEntry.COLUMN_NAME_EMBEDDING + " BLOB)";
+
+    private static final String SQL_ADD_EMBEDDING_COLUMN =
+            "ALTER TABLE " + FaceReaderContract.FaceEntry.TABLE_NAME +
+                    " ADD COLUMN " + FaceReaderContract.FaceEntry.COLUMN_NAME_EMBEDDING + " BLOB";
+
+    private static final String SQL_TABLE_STATE =
+            "SELECT COUNT(*), IFNULL(MAX(" + FaceReaderContract.FaceEntry._ID + "), 0) FROM " +
+                    FaceReaderContract.FaceEntry.TABLE_NAME;
 
     private static final String SQL_DELETE_ENTRIES =
             "DROP TABLE IF EXISTS " + FaceReaderContract.FaceEntry.TABLE_NAME;
@@ -25,12 +41,91 @@ public class FaceReaderDbHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_CREATE_ENTRIES);
     }
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Runs inside the transaction opened by SQLiteOpenHelper, so a failed migration leaves the
+        // database at oldVersion.
+        if (oldVersion < 2) {
+            migrateTextToBlob(db);
+        }
+    }
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Older versions cannot read the blob column; start over.
         db.execSQL(SQL_DELETE_ENTRIES);
         onCreate(db);
     }
-    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+
+    /** Writes a new enrolment and returns its row id, or -1 on error. */
+    public long insertFace(SQLiteDatabase db, String name, float[] embedding) {
+        ContentValues values = new ContentValues();
+        values.put(FaceReaderContract.FaceEntry.COLUMN_NAME_NAME, name);
+        values.put(FaceReaderContract.FaceEntry.COLUMN_NAME_EMBEDDING,
+                EmbeddingCodec.encode(embedding));
+        return db.insert(FaceReaderContract.FaceEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Returns the row count and the highest _ID (0 when empty) of the faces table. Together they
+     * change with every insert and delete, which is what {@link GallerySnapshot} keys on.
+     */
+    public long[] queryTableState(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery(SQL_TABLE_STATE, null)) {
+            cursor.moveToFirst();
+            return new long[] {cursor.getLong(0), cursor.getLong(1)};
+        }
+    }
+
+    // Version 1 -> 2, see LegacyFaceMigration.
+    private static void migrateTextToBlob(final SQLiteDatabase db) {
+        db.execSQL(SQL_ADD_EMBEDDING_COLUMN);
+        String[] projection = {
+                FaceReaderContract.FaceEntry._ID,
+                FaceReaderContract.FaceEntry.COLUMN_NAME_FACE
+        };
+        String where = FaceReaderContract.FaceEntry._ID + " = ?";
+        ContentValues values = new ContentValues();
+        int[] counts = LegacyFaceMigration.run(new LegacyFaceMigration.Table() {
+            @Override
+            public LegacyFaceMigration.Rows query() {
+                Cursor cursor = db.query(FaceReaderContract.FaceEntry.TABLE_NAME,
+                        projection, null, null, null, null, null);
+                return new LegacyFaceMigration.Rows() {
+                    @Override
+                    public boolean moveToNext() {
+                        return cursor.moveToNext();
+                    }
+
+                    @Override
+                    public long getId() {
+                        return cursor.getLong(0);
+                    }
+
+                    @Override
+                    public String getFace() {
+                        return cursor.getString(1);
+                    }
+
+                    @Override
+                    public void close() {
+                        cursor.close();
+                    }
+                };
+            }
+
+            @Override
+            public void update(long id, byte[] embedding) {
+                values.clear();
+                values.put(FaceReaderContract.FaceEntry.COLUMN_NAME_EMBEDDING, embedding);
+                values.putNull(FaceReaderContract.FaceEntry.COLUMN_NAME_FACE);
+                db.update(FaceReaderContract.FaceEntry.TABLE_NAME, values, where,
+                        new String[] {Long.toString(id)});
+            }
+
+            @Override
+            public void delete(long id) {
+                db.delete(FaceReaderContract.FaceEntry.TABLE_NAME, where,
+                        new String[] {Long.toString(id)});
+            }
+        });
+        LOGGER.i("Migrated %d faces to blob embeddings, dropped %d unreadable rows",
+                counts[0], counts[1]);
     }
-}
\ No newline at end of file
+}
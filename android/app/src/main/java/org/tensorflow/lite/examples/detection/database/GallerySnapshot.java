@@ -0,0 +1,266 @@
+package org.tensorflow.lite.examples.detection.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.tflite.EmbeddingIndex;
+
+/**
+ * Compact binary copy of the enrolled gallery, memory-mapped at startup so that recognition is
+ * available without walking the faces table row by row.
+ *
+ * The faces table stays the source of truth. A snapshot records the row count and the highest
+ * row id of the table it was taken from, and is ignored as soon as those no longer match, when it
+ * was produced by a different model, or when its checksum fails. The caller then reloads from
+ * SQLite and saves a fresh snapshot.
+ *
+ * Layout, little-endian:
+ * <pre>
+ *   int    magic "FGS1"
+ *   int    format version
+ *   int    dim
+ *   int    count
+ *   long   source row count
+ *   long   source max row id
+ *   int    model id length, followed by the UTF-8 model id
+ *   count x (int length, UTF-8 label)
+ *   0-3 padding bytes, so the float block is 4-byte aligned
+ *   count * dim float32 embeddings
+ *   int    CRC32 of everything above
+ * </pre>
+ */
+public final class GallerySnapshot {
+    private static final Logger LOGGER = new Logger();
+
+    public static final String FILE_NAME = "gallery.snapshot";
+
+    private static final int MAGIC = 0x31534746; // "FGS1" read as little-endian bytes
+    private static final int FORMAT_VERSION = 1;
+    private static final int FIXED_HEADER_BYTES = 4 * 4 + 2 * 8 + 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CRC_CHUNK = 64 * 1024;
+
+    private GallerySnapshot() {}
+
+    /**
+     * Loads the snapshot into index if it is intact and matches the given model and table state.
+     * Nothing is added to index when this returns false.
+     *
+     * @param modelId identifies the embedding model (and matching mode) the vectors came from.
+     * @param rowCount number of rows in the faces table.
+     * @param maxRowId highest _ID in the faces table, or 0 if it is empty.
+     */
+    public static boolean load(File file, String modelId, long rowCount, long maxRowId,
+                               EmbeddingIndex index) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (FileInputStream input = new FileInputStream(file);
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            String problem = validate(mapped, modelId, rowCount, maxRowId, index.getDimension());
+            if (problem != null) {
+                LOGGER.i("Ignoring gallery snapshot: %s", problem);
+                return false;
+            }
+            read(mapped, index);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.w(e, "Could not read gallery snapshot %s", file);
+            return false;
+        }
+    }
+
+    /**
+     * Writes index to file, replacing any previous snapshot atomically. The file is streamed
+     * through a CRC_CHUNK buffer rather than assembled in memory first. Blocks until the data is
+     * on disk, so call it off the UI thread.
+     */
+    public static void save(File file, String modelId, long rowCount, long maxRowId,
+                            EmbeddingIndex index) throws IOException {
+        int count = index.size();
+        int dim = index.getDimension();
+        byte[] model = modelId.getBytes(UTF_8);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp)) {
+            ChunkWriter writer = new ChunkWriter(output);
+            writer.putInt(MAGIC);
+            writer.putInt(FORMAT_VERSION);
+            writer.putInt(dim);
+            writer.putInt(count);
+            writer.putLong(rowCount);
+            writer.putLong(maxRowId);
+            writer.putInt(model.length);
+            writer.put(model);
+            for (int slot = 0; slot < count; slot++) {
+                byte[] label = index.getLabel(slot).getBytes(UTF_8);
+                writer.putInt(label.length);
+                writer.put(label);
+            }
+            writer.padTo4();
+            float[] vector = new float[dim];
+            for (int slot = 0; slot < count; slot++) {
+                index.getVector(slot, vector);
+                for (float value : vector) {
+                    writer.putFloat(value);
+                }
+            }
+            writer.finish();
+            output.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    // Returns why the mapped snapshot cannot be used, or null if it can.
+    private static String validate(ByteBuffer mapped, String modelId, long rowCount,
+                                   long maxRowId, int dim) {
+        int length = mapped.capacity();
+        if (length < FIXED_HEADER_BYTES + 4 || mapped.getInt(0) != MAGIC) {
+            return "not a snapshot";
+        }
+        if (mapped.getInt(4) != FORMAT_VERSION) {
+            return "format version " + mapped.getInt(4);
+        }
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[CRC_CHUNK];
+        ByteBuffer data = mapped.duplicate();
+        data.position(0).limit(length - 4);
+        while (data.hasRemaining()) {
+            int n = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        if ((int) crc.getValue() != mapped.getInt(length - 4)) {
+            return "checksum mismatch";
+        }
+        int modelLength = mapped.getInt(FIXED_HEADER_BYTES - 4);
+        byte[] model = new byte[modelLength];
+        ByteBuffer header = mapped.duplicate();
+        header.position(FIXED_HEADER_BYTES);
+        header.get(model);
+        String snapshotModel = new String(model, UTF_8);
+        if (!snapshotModel.equals(modelId)) {
+            return "taken with model " + snapshotModel + ", expected " + modelId;
+        }
+        if (mapped.getInt(8) != dim) {
+            return "dimension " + mapped.getInt(8) + ", expected " + dim;
+        }
+        if (mapped.getLong(16) != rowCount || mapped.getLong(24) != maxRowId) {
+            return "faces table changed since the snapshot was taken";
+        }
+        return null;
+    }
+
+    private static void read(ByteBuffer mapped, EmbeddingIndex index) {
+        int dim = mapped.getInt(8);
+        int count = mapped.getInt(12);
+        ByteBuffer cursor = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        cursor.position(FIXED_HEADER_BYTES + mapped.getInt(FIXED_HEADER_BYTES - 4));
+        String[] labels = new String[count];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int n = cursor.getInt();
+            if (n > bytes.length) {
+                bytes = new byte[n];
+            }
+            cursor.get(bytes, 0, n);
+            labels[i] = new String(bytes, 0, n, UTF_8);
+        }
+        cursor.position(align4(cursor.position()));
+        FloatBuffer floats = cursor.asFloatBuffer();
+        float[] vector = new float[dim];
+        for (int i = 0; i < count; i++) {
+            floats.get(vector);
+            index.put(labels[i], vector);
+        }
+    }
+
+    private static int align4(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    // Little-endian writer that checksums and writes out its input one CRC_CHUNK at a time, and
+    // ends the file with the CRC32 of everything before it.
+    private static final class ChunkWriter {
+        private final OutputStream output;
+        private final ByteBuffer buffer =
+                ByteBuffer.allocate(CRC_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private long written;
+
+        ChunkWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        void putInt(int value) throws IOException {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            reserve(8);
+            buffer.putLong(value);
+        }
+
+        void putFloat(float value) throws IOException {
+            reserve(4);
+            buffer.putFloat(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                reserve(1);
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        // Pads with zeros to the next multiple of 4 bytes from the start of the file.
+        void padTo4() throws IOException {
+            while (((written + buffer.position()) & 3) != 0) {
+                reserve(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            output.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            crc.update(buffer.array(), 0, buffer.position());
+            output.write(buffer.array(), 0, buffer.position());
+            written += buffer.position();
+            buffer.clear();
+        }
+    }
+}
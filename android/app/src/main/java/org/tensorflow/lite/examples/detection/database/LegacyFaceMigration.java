@@ -0,0 +1,78 @@
+package org.tensorflow.lite.examples.detection.database;
+
+import java.util.Arrays;
+
+/**
+ * Schema version 1 -> 2 migration of the faces table: parses every text row once, stores its
+ * embedding as a blob and drops the text. Rows without a parsable embedding are removed; they
+ * could not be registered anyway.
+ *
+ * All rows are read, and the cursor closed, before any of them is changed. A cursor fills its
+ * window by re-running the query from its current position, so rows deleted or rewritten behind
+ * it shift later rows out of view and they would never be migrated.
+ */
+final class LegacyFaceMigration {
+
+    /** The faces table, as the migration needs it. */
+    interface Table {
+        /** Opens a cursor over the _ID and face text of every row. */
+        Rows query();
+
+        /** Stores the embedding blob of the given row and clears its text. */
+        void update(long id, byte[] embedding);
+
+        void delete(long id);
+    }
+
+    /** Forward-only cursor over (_ID, face) rows. */
+    interface Rows extends AutoCloseable {
+        boolean moveToNext();
+
+        long getId();
+
+        String getFace();
+
+        @Override
+        void close();
+    }
+
+    private LegacyFaceMigration() {}
+
+    /** Returns the number of migrated rows and the number of dropped rows. */
+    static int[] run(Table table) {
+        long[] ids = new long[64];
+        // Encoded embeddings, null for rows to drop. Smaller than the text they replace.
+        byte[][] blobs = new byte[64][];
+        int count = 0;
+        try (Rows rows = table.query()) {
+            while (rows.moveToNext()) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                    blobs = Arrays.copyOf(blobs, count * 2);
+                }
+                float[] embedding;
+                try {
+                    embedding = EmbeddingCodec.parseLegacy(rows.getFace());
+                } catch (NumberFormatException e) {
+                    embedding = null;
+                }
+                ids[count] = rows.getId();
+                blobs[count] = embedding == null ? null : EmbeddingCodec.encode(embedding);
+                count++;
+            }
+        }
+
+        int migrated = 0;
+        int dropped = 0;
+        for (int i = 0; i < count; i++) {
+            if (blobs[i] == null) {
+                table.delete(ids[i]);
+                dropped++;
+            } else {
+                table.update(ids[i], blobs[i]);
+                migrated++;
+            }
+        }
+        return new int[] {migrated, dropped};
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Map bounded both in size and in idle time, for per-face state that must not outlive the face.
+ *
+ * An entry expires once it was not accessed for idleTimeoutMs, and the least recently accessed
+ * entry is evicted when a put would exceed the capacity. Entries are kept in access order, so
+ * expiring visits only the expired entries and the first live one. Times are supplied by the
+ * caller and must not go backwards, e.g. SystemClock.uptimeMillis().
+ *
+ * Counts the entries evicted and expired, for monitoring. Not thread-safe.
+ */
+public final class ExpiringStore<K, V> {
+
+  private static final class Entry<V> {
+    final V value;
+    long lastAccessMs;
+
+    Entry(final V value, final long lastAccessMs) {
+      this.value = value;
+      this.lastAccessMs = lastAccessMs;
+    }
+  }
+
+  private final int capacity;
+  private final long idleTimeoutMs;
+  private final LinkedHashMap<K, Entry<V>> entries;
+  private long evicted;
+  private long expired;
+
+  /**
+   * @param capacity most entries kept.
+   * @param idleTimeoutMs entries not accessed for longer than this expire.
+   */
+  public ExpiringStore(final int capacity, final long idleTimeoutMs) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.capacity = capacity;
+    this.idleTimeoutMs = idleTimeoutMs;
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /** Returns the value of key and marks it accessed at nowMs, or null if absent or expired. */
+  public V get(final K key, final long nowMs) {
+    expire(nowMs);
+    final Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    entry.lastAccessMs = nowMs;
+    return entry.value;
+  }
+
+  /**
+   * Stores value under key, accessed at nowMs, evicting the least recently accessed entry if the
+   * store is full.
+   *
+   * @return the value replaced, or null.
+   */
+  public V put(final K key, final V value, final long nowMs) {
+    expire(nowMs);
+    final Entry<V> previous = entries.put(key, new Entry<>(value, nowMs));
+    if (previous != null) {
+      return previous.value;
+    }
+    if (entries.size() > capacity) {
+      final Iterator<Entry<V>> it = entries.values().iterator();
+      it.next();
+      it.remove();
+      evicted++;
+    }
+    return null;
+  }
+
+  public V remove(final K key) {
+    final Entry<V> entry = entries.remove(key);
+    return entry != null ? entry.value : null;
+  }
+
+  /**
+   * Removes the entries not accessed for more than idleTimeoutMs before nowMs.
+   *
+   * @return the number of entries removed.
+   */
+  public int expire(final long nowMs) {
+    int removed = 0;
+    final Iterator<Entry<V>> it = entries.values().iterator();
+    while (it.hasNext() && nowMs - it.next().lastAccessMs > idleTimeoutMs) {
+      it.remove();
+      removed++;
+    }
+    expired += removed;
+    return removed;
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /** Number of live entries, including expired ones not removed yet. */
+  public int size() {
+    return entries.size();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** Entries removed so far to make room for new ones. */
+  public long getEvictedCount() {
+    return evicted;
+  }
+
+  /** Entries removed so far because they were idle for too long. */
+  public long getExpiredCount() {
+    return expired;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d/%d live, %d evicted, %d expired", entries.size(), capacity, evicted, expired);
+  }
+}
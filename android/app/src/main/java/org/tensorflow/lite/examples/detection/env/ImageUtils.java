@@ -85,26 +85,49 @@ public class ImageUtils {
     }
   }
 
+  // YUV2RGB's products for every 8-bit sample, so that converting a pixel takes only table
+  // lookups and additions. The results are identical to YUV2RGB.
+  private static final int[] Y_1192 = new int[256];
+  private static final int[] V_TO_R = new int[256];
+  private static final int[] V_TO_G = new int[256];
+  private static final int[] U_TO_G = new int[256];
+  private static final int[] U_TO_B = new int[256];
+  // Clamping a channel to [0, kMaxChannelValue] and keeping its top 8 bits equals clamping
+  // (channel >> 10) to [0, 255]; CLAMP[(channel >> 10) + CLAMP_OFFSET] does the latter. Channels
+  // range from about -2^18 to 2^19, hence the size of the table.
+  private static final int CLAMP_OFFSET = 320;
+  private static final int[] CLAMP = new int[1024];
+
+  static {
+    for (int i = 0; i < CLAMP.length; i++) {
+      CLAMP[i] = Math.min(255, Math.max(0, i - CLAMP_OFFSET));
+    }
+    for (int i = 0; i < 256; i++) {
+      Y_1192[i] = 1192 * Math.max(i - 16, 0);
+      V_TO_R[i] = 1634 * (i - 128);
+      V_TO_G[i] = 833 * (i - 128);
+      U_TO_G[i] = 400 * (i - 128);
+      U_TO_B[i] = 2066 * (i - 128);
+    }
+  }
+
   public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
-    final int frameSize = width * height;
-    for (int j = 0, yp = 0; j < height; j++) {
-      int uvp = frameSize + (j >> 1) * width;
-      int u = 0;
-      int v = 0;
-
-      for (int i = 0; i < width; i++, yp++) {
-        int y = 0xff & input[yp];
-        if ((i & 1) == 0) {
-          v = 0xff & input[uvp++];
-          u = 0xff & input[uvp++];
-        }
+    convertYUV420SPToARGB8888(input, width, height, output, 0, height);
+  }
 
-        output[yp] = YUV2RGB(y, u, v);
-      }
-    }
+  /**
+   * Converts rows [rowStart, rowEnd) of an NV21 frame; rowStart must be even. Bands of rows can be
+   * converted concurrently, see {@link YuvToRgbConverter}.
+   */
+  static void convertYUV420SPToARGB8888(
+      byte[] input, int width, int height, int[] output, int rowStart, int rowEnd) {
+    final int frameSize = width * height;
+    // NV21 is a YUV 4:2:0 layout with V and U interleaved after the Y plane.
+    convertRows(input, input, input, frameSize + 1, frameSize, width, width, width, 2, output,
+        rowStart, rowEnd);
   }
 
-  private static int YUV2RGB(int y, int u, int v) {
+  static int YUV2RGB(int y, int u, int v) {
     // Adjust and check YUV values
     y = (y - 16) < 0 ? 0 : (y - 16);
     u -= 128;
@@ -138,19 +161,89 @@ public class ImageUtils {
       int uvRowStride,
       int uvPixelStride,
       int[] out) {
-    int yp = 0;
-    for (int j = 0; j < height; j++) {
-      int pY = yRowStride * j;
-      int pUV = uvRowStride * (j >> 1);
+    convertRows(yData, uData, vData, 0, 0, width, yRowStride, uvRowStride, uvPixelStride, out,
+        0, height);
+  }
+
+  /**
+   * Converts rows [rowStart, rowEnd) of a YUV_420_888 frame; rowStart must be even. Bands of rows
+   * can be converted concurrently, see {@link YuvToRgbConverter}.
+   */
+  static void convertYUV420ToARGB8888(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int width,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out,
+      int rowStart,
+      int rowEnd) {
+    convertRows(yData, uData, vData, 0, 0, width, yRowStride, uvRowStride, uvPixelStride, out,
+        rowStart, rowEnd);
+  }
 
-      for (int i = 0; i < width; i++) {
-        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+  // Converts two rows at a time, so that the chroma of each 2x2 block is read and multiplied once.
+  private static void convertRows(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int uOffset,
+      int vOffset,
+      int width,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out,
+      int rowStart,
+      int rowEnd) {
+    final int evenWidth = width & ~1;
+    for (int j = rowStart; j < rowEnd; j += 2) {
+      final boolean secondRow = j + 1 < rowEnd;
+      final int pY0 = yRowStride * j;
+      final int pY1 = pY0 + yRowStride;
+      final int o0 = width * j;
+      final int o1 = o0 + width;
+      int pUV = uvRowStride * (j >> 1);
 
-        out[yp++] = YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
+      int i = 0;
+      for (; i < evenWidth; i += 2, pUV += uvPixelStride) {
+        final int v = 0xff & vData[vOffset + pUV];
+        final int u = 0xff & uData[uOffset + pUV];
+        final int r = V_TO_R[v];
+        final int g = V_TO_G[v] + U_TO_G[u];
+        final int b = U_TO_B[u];
+        out[o0 + i] = toARGB(Y_1192[0xff & yData[pY0 + i]], r, g, b);
+        out[o0 + i + 1] = toARGB(Y_1192[0xff & yData[pY0 + i + 1]], r, g, b);
+        if (secondRow) {
+          out[o1 + i] = toARGB(Y_1192[0xff & yData[pY1 + i]], r, g, b);
+          out[o1 + i + 1] = toARGB(Y_1192[0xff & yData[pY1 + i + 1]], r, g, b);
+        }
+      }
+      if (i < width) {
+        // Odd width: the last column has a chroma sample of its own.
+        final int v = 0xff & vData[vOffset + pUV];
+        final int u = 0xff & uData[uOffset + pUV];
+        final int r = V_TO_R[v];
+        final int g = V_TO_G[v] + U_TO_G[u];
+        final int b = U_TO_B[u];
+        out[o0 + i] = toARGB(Y_1192[0xff & yData[pY0 + i]], r, g, b);
+        if (secondRow) {
+          out[o1 + i] = toARGB(Y_1192[0xff & yData[pY1 + i]], r, g, b);
+        }
       }
     }
   }
 
+  // The clamping and packing of YUV2RGB, from the luma and chroma terms of each channel.
+  private static int toARGB(int y1192, int vr, int uvg, int ub) {
+    return 0xff000000
+        | (CLAMP[((y1192 + vr) >> 10) + CLAMP_OFFSET] << 16)
+        | (CLAMP[((y1192 - uvg) >> 10) + CLAMP_OFFSET] << 8)
+        | CLAMP[((y1192 + ub) >> 10) + CLAMP_OFFSET];
+  }
+
   /**
    * Returns a transformation matrix from one reference frame into another. Handles cropping (if
    * maintaining aspect ratio is desired) and rotation.
@@ -0,0 +1,131 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of latencies in nanoseconds, with percentiles accurate to within 1/64 (1.6%) of
+ * the value, in fixed memory and without allocating per recorded value.
+ *
+ * Buckets are laid out like HdrHistogram's: values below 128 get one bucket each, and every
+ * further power of two is split into 64 equally wide buckets, so the bucket width grows with the
+ * value and the relative error stays bounded. Values above highestTrackableNanos are counted as
+ * highestTrackableNanos. Percentiles report the highest value of their bucket, capped at the
+ * largest value recorded.
+ *
+ * Thread-safe, so that stages running on different threads can share one registry.
+ */
+public final class LatencyHistogram {
+  // Values v >= 2 * SUB_BUCKETS go to the bucket of v >> shift, with shift chosen so that
+  // v >> shift is in [SUB_BUCKETS, 2 * SUB_BUCKETS).
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final long highestTrackableNanos;
+  private final long[] counts;
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  /** @param highestTrackableNanos largest latency told apart from larger ones; at least 1. */
+  public LatencyHistogram(final long highestTrackableNanos) {
+    if (highestTrackableNanos < 1) {
+      throw new IllegalArgumentException(
+          "highestTrackableNanos must be positive: " + highestTrackableNanos);
+    }
+    this.highestTrackableNanos = highestTrackableNanos;
+    counts = new long[indexOf(highestTrackableNanos) + 1];
+  }
+
+  /** Records one latency; negative values count as 0. */
+  public synchronized void record(final long nanos) {
+    final long value = Math.max(0, Math.min(nanos, highestTrackableNanos));
+    counts[indexOf(value)]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /** Smallest latency recorded, 0 if none. */
+  public synchronized long getMin() {
+    return count > 0 ? min : 0;
+  }
+
+  /** Largest latency recorded, 0 if none. */
+  public synchronized long getMax() {
+    return max;
+  }
+
+  /** Exact mean of the latencies recorded, 0 if none. */
+  public synchronized double getMean() {
+    return count > 0 ? (double) sum / count : 0;
+  }
+
+  /**
+   * Latency that percentile percent of the recorded latencies do not exceed, e.g. 99 for the
+   * p99, 0 if none were recorded.
+   *
+   * @param percentile in [0, 100].
+   */
+  public synchronized long getValueAtPercentile(final double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    final double fraction = Math.max(0, Math.min(100, percentile)) / 100;
+    final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  public synchronized void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+  }
+
+  static int indexOf(final long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+  }
+
+  // Largest value that falls into bucket index.
+  static long highestValueOf(final int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+    final long subBucket = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
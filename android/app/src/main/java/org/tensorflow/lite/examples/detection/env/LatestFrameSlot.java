@@ -0,0 +1,66 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * Hand-off between two pipeline stages that holds at most one item: the latest one wins.
+ *
+ * A producer that runs ahead of its consumer replaces the pending item instead of queueing
+ * behind it, so the consumer always works on the most recent frame and latency stays bounded by
+ * one item. The replaced item is returned to the producer, which owns it again (e.g. to recycle its
+ * buffers), and counted as dropped.
+ */
+public final class LatestFrameSlot<T> {
+
+  private T pending;
+  private long offered;
+  private long dropped;
+
+  /**
+   * Makes item the pending item.
+   *
+   * @return the item it replaced, which the consumer will never see, or null.
+   */
+  public synchronized T offer(final T item) {
+    if (item == null) {
+      throw new NullPointerException("item");
+    }
+    final T replaced = pending;
+    pending = item;
+    offered++;
+    if (replaced != null) {
+      dropped++;
+    }
+    return replaced;
+  }
+
+  /** Takes the pending item, or returns null if there is none. */
+  public synchronized T poll() {
+    final T item = pending;
+    pending = null;
+    return item;
+  }
+
+  /** Number of items offered so far. */
+  public synchronized long getOfferedCount() {
+    return offered;
+  }
+
+  /** Number of items replaced before the consumer took them. */
+  public synchronized long getDroppedCount() {
+    return dropped;
+  }
+}
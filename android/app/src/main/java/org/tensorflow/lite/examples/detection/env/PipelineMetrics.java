@@ -0,0 +1,137 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution of each stage a camera frame goes through, and counts of the frames
+ * dropped on the way, shared by the camera, the detector and the classifier.
+ *
+ * Recording does not allocate and is safe from any thread. {@link #toString()} summarizes the
+ * p50, p95 and p99 of each stage recorded so far, in milliseconds.
+ */
+public final class PipelineMetrics {
+
+  // Latencies above a second are told apart only as "a second or more".
+  private static final long HIGHEST_TRACKABLE_NANOS = 1000000000L;
+
+  /** Timed stages, in the order a frame goes through them. */
+  public enum Stage {
+    /** Converting the camera frame to ARGB and copying its YUV planes. */
+    YUV_CONVERSION,
+    /** Scaling the frame to the detector input and running the face detector. */
+    DETECTION,
+    /** Sampling the faces to embed from the camera frame. */
+    CROP,
+    /** Converting face pixels to the model input. */
+    PREPROCESS,
+    /** Running the embedding model. */
+    INFERENCE,
+    /** Looking up the closest registered faces. */
+    SEARCH,
+    /** Scoring head movement and blinking. */
+    LIVENESS
+  }
+
+  /** Reasons a camera frame is dropped. */
+  public enum Drop {
+    /** The previous camera frame was still being handed to the detector. */
+    CAMERA_BUSY,
+    /** The face detector was still busy with an earlier frame. */
+    DETECTOR_BUSY,
+    /** A newer frame replaced this one before its faces were embedded. */
+    EMBEDDING_BEHIND
+  }
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+  private final AtomicLongArray drops = new AtomicLongArray(Drop.values().length);
+  private final AtomicLong frames = new AtomicLong();
+
+  public PipelineMetrics() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+    }
+  }
+
+  public void record(final Stage stage, final long nanos) {
+    histograms[stage.ordinal()].record(nanos);
+  }
+
+  public LatencyHistogram getHistogram(final Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  /** Counts a frame delivered by the camera. */
+  public void countFrame() {
+    frames.incrementAndGet();
+  }
+
+  public void countDrop(final Drop reason) {
+    drops.incrementAndGet(reason.ordinal());
+  }
+
+  public long getFrameCount() {
+    return frames.get();
+  }
+
+  public long getDropCount(final Drop reason) {
+    return drops.get(reason.ordinal());
+  }
+
+  /** Forgets everything recorded so far, e.g. after a warm-up. */
+  public void reset() {
+    for (final LatencyHistogram histogram : histograms) {
+      histogram.reset();
+    }
+    for (int i = 0; i < drops.length(); i++) {
+      drops.set(i, 0);
+    }
+    frames.set(0);
+  }
+
+  /** One line for the frames and drops, then one per stage that was recorded. */
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("frames ").append(getFrameCount()).append(", dropped:");
+    for (final Drop reason : Drop.values()) {
+      sb.append(' ')
+          .append(reason.name().toLowerCase(Locale.ROOT))
+          .append(' ')
+          .append(getDropCount(reason));
+    }
+    for (final Stage stage : Stage.values()) {
+      final LatencyHistogram histogram = getHistogram(stage);
+      if (histogram.getCount() == 0) {
+        continue;
+      }
+      sb.append(
+          String.format(
+              Locale.ROOT,
+              "%n%s n=%d p50=%.2f p95=%.2f p99=%.2f max=%.2f ms",
+              stage.name().toLowerCase(Locale.ROOT),
+              histogram.getCount(),
+              histogram.getValueAtPercentile(50) / 1e6,
+              histogram.getValueAtPercentile(95) / 1e6,
+              histogram.getValueAtPercentile(99) / 1e6,
+              histogram.getMax() / 1e6));
+    }
+    return sb.toString();
+  }
+}
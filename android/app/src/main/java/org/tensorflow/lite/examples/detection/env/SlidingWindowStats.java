@@ -0,0 +1,201 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * Mean, standard deviation, min and max of the last capacity values of a stream, each updated in
+ * constant time and memory per value. Values can also carry a time, to keep only those of the last
+ * so many milliseconds with {@link #removeOlderThan(long)}; the capacity still bounds the window.
+ *
+ * Values are kept in a ring buffer. Mean and variance are updated with Welford's algorithm, adding
+ * the new value and removing the one that falls out of the window; to keep rounding errors from
+ * accumulating, they are recomputed from the window every few thousand values, which costs O(1)
+ * amortized. Min and max come from monotonic deques of window positions, so each value is pushed
+ * and popped at most once.
+ */
+public final class SlidingWindowStats {
+  // Values added between exact recomputations of mean and variance, per window slot.
+  private static final int RECOMPUTE_INTERVAL = 1024;
+
+  private final double[] values;
+  private final long[] times;
+  private int count;
+  // Total number of values added; the value numbered i is at values[i % capacity].
+  private long added;
+
+  private double mean;
+  private double m2;
+  private long untilRecompute;
+
+  // Numbers of the values that can still become the window's min (max), oldest first. Values in
+  // minDeque increase and values in maxDeque decrease from head to tail. Both are rings holding
+  // at most capacity numbers.
+  private final long[] minDeque;
+  private int minHead;
+  private int minSize;
+  private final long[] maxDeque;
+  private int maxHead;
+  private int maxSize;
+
+  public SlidingWindowStats(final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    values = new double[capacity];
+    times = new long[capacity];
+    minDeque = new long[capacity];
+    maxDeque = new long[capacity];
+    untilRecompute = (long) RECOMPUTE_INTERVAL * capacity;
+  }
+
+  /** Adds a value, dropping the oldest one if the window is full. */
+  public void add(final double value) {
+    add(0, value);
+  }
+
+  /** Adds a value observed at timeMs, dropping the oldest one if the window is full. */
+  public void add(final long timeMs, final double value) {
+    final int capacity = values.length;
+    if (count == capacity) {
+      removeOldest();
+    }
+    final int slot = (int) (added % capacity);
+    values[slot] = value;
+    times[slot] = timeMs;
+    count++;
+    final double delta = value - mean;
+    mean += delta / count;
+    m2 += delta * (value - mean);
+
+    while (minSize > 0 && valueOf(minDeque[(minHead + minSize - 1) % capacity]) >= value) {
+      minSize--;
+    }
+    minDeque[(minHead + minSize++) % capacity] = added;
+
+    while (maxSize > 0 && valueOf(maxDeque[(maxHead + maxSize - 1) % capacity]) <= value) {
+      maxSize--;
+    }
+    maxDeque[(maxHead + maxSize++) % capacity] = added;
+
+    added++;
+    if (--untilRecompute == 0) {
+      recompute();
+    }
+  }
+
+  /** Removes the values observed before timeMs. */
+  public void removeOlderThan(final long timeMs) {
+    while (count > 0 && times[(int) ((added - count) % values.length)] < timeMs) {
+      removeOldest();
+    }
+  }
+
+  /** Number of values in the window. */
+  public int size() {
+    return count;
+  }
+
+  public int capacity() {
+    return values.length;
+  }
+
+  /** Mean of the window, 0 if empty. */
+  public double getMean() {
+    return mean;
+  }
+
+  /** Population variance of the window, 0 if empty. */
+  public double getVariance() {
+    // Exactly 0 for a constant window, which the running update only approximates after larger
+    // values left it.
+    if (count == 0 || getMin() == getMax()) {
+      return 0;
+    }
+    return Math.max(0, m2 / count);
+  }
+
+  /** Population standard deviation of the window, 0 if empty. */
+  public double getStandardDeviation() {
+    return Math.sqrt(getVariance());
+  }
+
+  /** Smallest value of the window, NaN if empty. */
+  public double getMin() {
+    return minSize > 0 ? valueOf(minDeque[minHead]) : Double.NaN;
+  }
+
+  /** Largest value of the window, NaN if empty. */
+  public double getMax() {
+    return maxSize > 0 ? valueOf(maxDeque[maxHead]) : Double.NaN;
+  }
+
+  public void clear() {
+    count = 0;
+    added = 0;
+    mean = 0;
+    m2 = 0;
+    minSize = 0;
+    maxSize = 0;
+    untilRecompute = (long) RECOMPUTE_INTERVAL * values.length;
+  }
+
+  private double valueOf(final long number) {
+    return values[(int) (number % values.length)];
+  }
+
+  private void removeOldest() {
+    final long number = added - count;
+    final int capacity = values.length;
+    if (minDeque[minHead] == number) {
+      minHead = (minHead + 1) % capacity;
+      minSize--;
+    }
+    if (maxDeque[maxHead] == number) {
+      maxHead = (maxHead + 1) % capacity;
+      maxSize--;
+    }
+
+    // Inverse of the Welford update in add().
+    final double value = valueOf(number);
+    count--;
+    if (count == 0) {
+      mean = 0;
+      m2 = 0;
+      return;
+    }
+    final double oldMean = mean;
+    mean -= (value - mean) / count;
+    m2 -= (value - oldMean) * (value - mean);
+  }
+
+  private void recompute() {
+    untilRecompute = (long) RECOMPUTE_INTERVAL * values.length;
+    if (count == 0) {
+      return;
+    }
+    final long first = added - count;
+    double sum = 0;
+    for (long i = first; i < added; i++) {
+      sum += valueOf(i);
+    }
+    mean = sum / count;
+    m2 = 0;
+    for (long i = first; i < added; i++) {
+      final double d = valueOf(i) - mean;
+      m2 += d * d;
+    }
+  }
+}
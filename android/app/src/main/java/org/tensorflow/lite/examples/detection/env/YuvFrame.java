@@ -0,0 +1,136 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * Copy of one YUV 4:2:0 camera frame, from which face crops are sampled directly instead of
+ * converting the whole frame to ARGB and redrawing it through intermediate bitmaps.
+ *
+ * Holds either the three planes of a Camera2 YUV_420_888 image or the NV21 buffer of the legacy
+ * camera API. The camera reuses its buffers as soon as the next frame arrives, so the planes are
+ * copied; the copies are reused from frame to frame.
+ */
+public final class YuvFrame {
+
+  private byte[] yData;
+  private byte[] uData;
+  private byte[] vData;
+  // Offsets of the first U and V samples; only non-zero for NV21, where both live in yData.
+  private int uOffset;
+  private int vOffset;
+  private int width;
+  private int height;
+  private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+
+  /** Copies the planes of a YUV_420_888 image, laid out as for convertYUV420ToARGB8888. */
+  public void setPlanes(
+      final byte[] y,
+      final byte[] u,
+      final byte[] v,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    if (uData == yData) {
+      // Was NV21: the chroma arrays are the Y copy.
+      uData = null;
+      vData = null;
+    }
+    yData = copy(y, yData);
+    uData = copy(u, uData);
+    vData = copy(v, vData);
+    uOffset = 0;
+    vOffset = 0;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+
+  /** Copies an NV21 frame: the Y plane followed by interleaved V and U at half resolution. */
+  public void setNv21(final byte[] data, final int width, final int height) {
+    yData = copy(data, yData);
+    uData = yData;
+    vData = yData;
+    vOffset = width * height;
+    uOffset = vOffset + 1;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = width;
+    this.uvRowStride = width;
+    this.uvPixelStride = 2;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Samples a dstWidth x dstHeight ARGB image into out, row by row. Destination pixel (x, y) gets
+   * the color of the frame pixel under its center (x + 0.5, y + 0.5) mapped through dstToFrame,
+   * like Canvas.drawBitmap without filtering, so cropping, rotating and scaling take a single pass
+   * over the destination pixels. Pixels that map outside of the frame are opaque black.
+   *
+   * @param dstToFrame affine transform from destination to frame coordinates, as the first six
+   *     values of Matrix.getValues(): scaleX, skewX, transX, skewY, scaleY, transY.
+   */
+  public void sample(
+      final float[] dstToFrame, final int dstWidth, final int dstHeight, final int[] out) {
+    final float scaleX = dstToFrame[0];
+    final float skewX = dstToFrame[1];
+    final float transX = dstToFrame[2];
+    final float skewY = dstToFrame[3];
+    final float scaleY = dstToFrame[4];
+    final float transY = dstToFrame[5];
+
+    int o = 0;
+    for (int y = 0; y < dstHeight; y++) {
+      final float rowX = skewX * (y + 0.5f) + transX;
+      final float rowY = scaleY * (y + 0.5f) + transY;
+      for (int x = 0; x < dstWidth; x++, o++) {
+        final float fx = scaleX * (x + 0.5f) + rowX;
+        final float fy = skewY * (x + 0.5f) + rowY;
+        // Checked as floats: the int cast truncates (-1, 0) to 0.
+        if (fx < 0 || fy < 0 || fx >= width || fy >= height) {
+          out[o] = 0xff000000;
+          continue;
+        }
+        final int sx = (int) fx;
+        final int sy = (int) fy;
+        final int uv = (sy >> 1) * uvRowStride + (sx >> 1) * uvPixelStride;
+        out[o] =
+            ImageUtils.YUV2RGB(
+                0xff & yData[sy * yRowStride + sx],
+                0xff & uData[uOffset + uv],
+                0xff & vData[vOffset + uv]);
+      }
+    }
+  }
+
+  private static byte[] copy(final byte[] src, final byte[] dst) {
+    final byte[] copy = dst != null && dst.length == src.length ? dst : new byte[src.length];
+    System.arraycopy(src, 0, copy, 0, src.length);
+    return copy;
+  }
+}
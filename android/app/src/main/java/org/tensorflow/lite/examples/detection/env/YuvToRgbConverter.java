@@ -0,0 +1,121 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.io.Closeable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts YUV frames to ARGB like the {@link ImageUtils} methods of the same name, splitting the
+ * rows into bands converted in parallel. The calling thread converts one band itself and returns
+ * once all bands are done. With one thread everything runs on the caller.
+ */
+public final class YuvToRgbConverter implements Closeable {
+  private static final Logger LOGGER = new Logger();
+
+  private final int threads;
+  private final ExecutorService executor;
+
+  /** @param threads number of bands, and of threads converting them including the caller. */
+  public YuvToRgbConverter(final int threads) {
+    this.threads = Math.max(1, threads);
+    if (this.threads == 1) {
+      executor = null;
+      return;
+    }
+    final AtomicInteger count = new AtomicInteger();
+    executor =
+        Executors.newFixedThreadPool(
+            this.threads - 1,
+            runnable -> {
+              final Thread thread =
+                  new Thread(runnable, "yuv-to-rgb-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public void convertYUV420SPToARGB8888(
+      final byte[] input, final int width, final int height, final int[] output) {
+    run(
+        height,
+        (rowStart, rowEnd) ->
+            ImageUtils.convertYUV420SPToARGB8888(input, width, height, output, rowStart, rowEnd));
+  }
+
+  public void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    run(
+        height,
+        (rowStart, rowEnd) ->
+            ImageUtils.convertYUV420ToARGB8888(
+                yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out,
+                rowStart, rowEnd));
+  }
+
+  /** Stops the worker threads; the converter cannot be used afterwards. */
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private interface Band {
+    void convert(int rowStart, int rowEnd);
+  }
+
+  private void run(final int height, final Band band) {
+    // Bands start on even rows, so that no 2x2 chroma block is split between two of them.
+    final int rowsPerBand = ((height + threads - 1) / threads + 1) & ~1;
+    if (executor == null || rowsPerBand >= height) {
+      band.convert(0, height);
+      return;
+    }
+    final int bands = (height + rowsPerBand - 1) / rowsPerBand;
+    final CountDownLatch done = new CountDownLatch(bands - 1);
+    for (int b = 1; b < bands; b++) {
+      final int rowStart = b * rowsPerBand;
+      final int rowEnd = Math.min(height, rowStart + rowsPerBand);
+      executor.execute(
+          () -> {
+            try {
+              band.convert(rowStart, rowEnd);
+            } finally {
+              done.countDown();
+            }
+          });
+    }
+    band.convert(0, rowsPerBand);
+    try {
+      done.await();
+    } catch (final InterruptedException e) {
+      LOGGER.w("Interrupted while converting a frame");
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.liveness;
+
+import org.tensorflow.lite.examples.detection.env.ExpiringStore;
+import org.tensorflow.lite.examples.detection.env.SlidingWindowStats;
+
+/**
+ * Scores how live each tracked face looks, from its head movement and blinking over the last
+ * windowMs milliseconds.
+ *
+ * Feed it, per frame and tracked face, the head Euler angles and eye-open probabilities the face
+ * detector reports. Movement is scored from the standard deviation of each head angle, blinking
+ * from the range of each eye-open probability. History is kept per track id, so two faces never
+ * share it. A track not updated for staleAfterMs is forgotten, and so is the least recently updated
+ * one when more than maxTracks are followed, so memory stays bounded however many people pass.
+ *
+ * Plain Java, so that recorded traces can be replayed on the JVM. Not thread-safe.
+ */
+public final class LivenessEngine {
+
+  public static final long DEFAULT_WINDOW_MS = 1500;
+  public static final int DEFAULT_MAX_SAMPLES = 64;
+  public static final long DEFAULT_STALE_AFTER_MS = 3000;
+  public static final int DEFAULT_MAX_TRACKS = 32;
+  // Movement or blinking scores above this count as movement or a blink.
+  public static final double DEFAULT_THRESHOLD = 0.9;
+
+  /** Weights of the movement and blinking scores in a combined liveness probability. */
+  public static final class Weighting {
+    public static final Weighting EQUAL = new Weighting(0.5, 0.5);
+    public static final Weighting MOSTLY_MOVEMENT = new Weighting(0.7, 0.3);
+    public static final Weighting MOSTLY_BLINKING = new Weighting(0.3, 0.7);
+    public static final Weighting BLINKING_ONLY = new Weighting(0, 1);
+    public static final Weighting MOVEMENT_ONLY = new Weighting(1, 0);
+
+    private final double movement;
+    private final double blinking;
+
+    public Weighting(final double movement, final double blinking) {
+      this.movement = movement;
+      this.blinking = blinking;
+    }
+
+    public double getMovement() {
+      return movement;
+    }
+
+    public double getBlinking() {
+      return blinking;
+    }
+  }
+
+  /** Scores of one face, in [0, 1]. Owned by the track and overwritten by its next update. */
+  public static final class Score {
+    private double movementX;
+    private double movementY;
+    private double blinkingLeft;
+    private double blinkingRight;
+    private double threshold;
+
+    /** Score of the head moving up and down. */
+    public double getMovementX() {
+      return movementX;
+    }
+
+    /** Score of the head turning left and right. */
+    public double getMovementY() {
+      return movementY;
+    }
+
+    public double getBlinkingLeft() {
+      return blinkingLeft;
+    }
+
+    public double getBlinkingRight() {
+      return blinkingRight;
+    }
+
+    public double getMovement() {
+      return Math.max(movementX, movementY);
+    }
+
+    public double getBlinking() {
+      return Math.max(blinkingLeft, blinkingRight);
+    }
+
+    public boolean isMoving() {
+      return getMovement() > threshold;
+    }
+
+    public boolean isBlinking() {
+      return getBlinking() > threshold;
+    }
+
+    /** Weighted sum of the movement and blinking scores. */
+    public double getProbability(final Weighting weighting) {
+      return getMovement() * weighting.movement + getBlinking() * weighting.blinking;
+    }
+  }
+
+  private static final class Track {
+    final SlidingWindowStats headX;
+    final SlidingWindowStats headY;
+    final SlidingWindowStats leftEye;
+    final SlidingWindowStats rightEye;
+    final Score score = new Score();
+
+    Track(final int maxSamples) {
+      headX = new SlidingWindowStats(maxSamples);
+      headY = new SlidingWindowStats(maxSamples);
+      leftEye = new SlidingWindowStats(maxSamples);
+      rightEye = new SlidingWindowStats(maxSamples);
+    }
+  }
+
+  private long windowMs = DEFAULT_WINDOW_MS;
+  private int maxSamples = DEFAULT_MAX_SAMPLES;
+  private double threshold = DEFAULT_THRESHOLD;
+
+  private ExpiringStore<Integer, Track> tracks =
+      new ExpiringStore<>(DEFAULT_MAX_TRACKS, DEFAULT_STALE_AFTER_MS);
+
+  /**
+   * Scores the samples of the last windowMs milliseconds, at most maxSamples of them. Applies to
+   * tracks seen from now on.
+   */
+  public LivenessEngine setWindow(final long windowMs, final int maxSamples) {
+    this.windowMs = windowMs;
+    this.maxSamples = maxSamples;
+    return this;
+  }
+
+  /**
+   * Forgets tracks that were not updated for staleAfterMs, and the least recently updated ones
+   * beyond maxTracks. Forgets all tracks followed so far.
+   */
+  public LivenessEngine setTrackLimits(final int maxTracks, final long staleAfterMs) {
+    tracks = new ExpiringStore<>(maxTracks, staleAfterMs);
+    return this;
+  }
+
+  /** Movement and blinking scores above threshold count as movement and blinks. */
+  public LivenessEngine setThreshold(final double threshold) {
+    this.threshold = threshold;
+    return this;
+  }
+
+  /**
+   * Adds a frame's samples of a face and scores its window.
+   *
+   * @param headEulerX head angle around the horizontal axis, in degrees.
+   * @param headEulerY head angle around the vertical axis, in degrees.
+   * @param leftEyeOpen probability that the left eye is open, NaN if unknown.
+   * @param rightEyeOpen probability that the right eye is open, NaN if unknown.
+   * @return the scores of the face, overwritten by its next update.
+   */
+  public Score update(
+      final int trackId,
+      final long timeMs,
+      final double headEulerX,
+      final double headEulerY,
+      final double leftEyeOpen,
+      final double rightEyeOpen) {
+    Track track = tracks.get(trackId, timeMs);
+    if (track == null) {
+      track = new Track(maxSamples);
+      tracks.put(trackId, track, timeMs);
+    }
+
+    final Score score = track.score;
+    score.threshold = threshold;
+    score.movementX = movingProbability(add(track.headX, timeMs, headEulerX));
+    score.movementY = movingProbability(add(track.headY, timeMs, headEulerY));
+    score.blinkingLeft = blinkingProbability(add(track.leftEye, timeMs, leftEyeOpen));
+    score.blinkingRight = blinkingProbability(add(track.rightEye, timeMs, rightEyeOpen));
+    return score;
+  }
+
+  /**
+   * Forgets the tracks last updated more than staleAfterMs before nowMs. Updates do this as well,
+   * so that only a frame without faces needs to call it.
+   */
+  public void evictStale(final long nowMs) {
+    tracks.expire(nowMs);
+  }
+
+  public void remove(final int trackId) {
+    tracks.remove(trackId);
+  }
+
+  public void clear() {
+    tracks.clear();
+  }
+
+  public int getTrackCount() {
+    return tracks.size();
+  }
+
+  /** Tracks forgotten so far because more than maxTracks were followed. */
+  public long getEvictedTrackCount() {
+    return tracks.getEvictedCount();
+  }
+
+  /** Tracks forgotten so far because they were not updated for staleAfterMs. */
+  public long getExpiredTrackCount() {
+    return tracks.getExpiredCount();
+  }
+
+  private SlidingWindowStats add(
+      final SlidingWindowStats stats, final long timeMs, final double value) {
+    stats.removeOlderThan(timeMs - windowMs);
+    if (!Double.isNaN(value)) {
+      stats.add(timeMs, value);
+    }
+    return stats;
+  }
+
+  /** Movement score of a head angle that varied over the window's values, in degrees. */
+  static double movingProbability(final SlidingWindowStats angle) {
+    return movingProbability(angle.getStandardDeviation());
+  }
+
+  /** Movement score of a head angle with the given standard deviation, in degrees. */
+  static double movingProbability(final double stDev) {
+    if (stDev <= 0.7) {
+      return (stDev / 0.7) * 0.6;
+    }
+    if (stDev <= 0.9) {
+      return ((stDev - 0.7) / 0.2) * 0.1 + 0.7;
+    }
+    if (stDev <= 1.1) {
+      return ((stDev - 1.1) / 0.2) * 0.1 + 0.8;
+    }
+    if (stDev <= 2) {
+      return ((stDev - 2) / 0.9) * 0.2 + 1;
+    }
+    return 1.0;
+  }
+
+  /** Blinking score of an eye whose open probability ranged over the window's values. */
+  static double blinkingProbability(final SlidingWindowStats eyeOpen) {
+    if (eyeOpen.size() == 0) {
+      return 0.0;
+    }
+    final double diff = eyeOpen.getMax() - eyeOpen.getMin();
+    if (diff <= 0.1) {
+      return 0.0;
+    }
+    if (diff <= 0.9) {
+      return ((diff - 0.1) / 0.8);
+    }
+    return 1.0;
+  }
+}
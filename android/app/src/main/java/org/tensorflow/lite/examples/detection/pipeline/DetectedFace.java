@@ -0,0 +1,72 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.pipeline;
+
+/**
+ * A face found by the face detector, independent of the detector library: its box in detector
+ * input coordinates and the attributes liveness is scored from. Built from ML Kit faces on the
+ * device, and from recorded boxes when replaying.
+ */
+public final class DetectedFace {
+  private final float[] box;
+  private final float headEulerX;
+  private final float headEulerY;
+  private final float leftEyeOpen;
+  private final float rightEyeOpen;
+
+  /**
+   * @param headEulerX head angle around the horizontal axis, in degrees.
+   * @param headEulerY head angle around the vertical axis, in degrees.
+   * @param leftEyeOpen probability that the left eye is open, NaN if unknown.
+   * @param rightEyeOpen probability that the right eye is open, NaN if unknown.
+   */
+  public DetectedFace(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final float headEulerX,
+      final float headEulerY,
+      final float leftEyeOpen,
+      final float rightEyeOpen) {
+    this.box = new float[] {left, top, right, bottom};
+    this.headEulerX = headEulerX;
+    this.headEulerY = headEulerY;
+    this.leftEyeOpen = leftEyeOpen;
+    this.rightEyeOpen = rightEyeOpen;
+  }
+
+  /** {left, top, right, bottom} in detector input coordinates; do not modify. */
+  public float[] getBox() {
+    return box;
+  }
+
+  public float getHeadEulerX() {
+    return headEulerX;
+  }
+
+  public float getHeadEulerY() {
+    return headEulerY;
+  }
+
+  public float getLeftEyeOpen() {
+    return leftEyeOpen;
+  }
+
+  public float getRightEyeOpen() {
+    return rightEyeOpen;
+  }
+}
@@ -0,0 +1,362 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.examples.detection.liveness.LivenessEngine;
+import org.tensorflow.lite.examples.detection.tflite.SimilarityClassifier;
+import org.tensorflow.lite.examples.detection.tflite.SimilarityClassifier.Recognition;
+import org.tensorflow.lite.examples.detection.tracking.IdentityTracker;
+
+/**
+ * Per-frame face processing after detection: tracks the detected faces, samples those that need
+ * embedding from the camera frame, recognizes them with one batched inference and scores the
+ * liveness of every face.
+ *
+ * Depends on no Android class beyond the {@link SimilarityClassifier} it is given, so that the
+ * same code runs in the app and in a JVM replay of recorded frames. Transforms are given as the
+ * values of Matrix.getValues(). Each call to {@link #process} records the time spent in each
+ * {@link Stage}. Not thread-safe.
+ */
+public final class FacePipeline {
+
+  private static final float[] IDENTITY = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+  /** Steps of {@link #process}, timed separately. */
+  public enum Stage {
+    /** Matching faces to tracks and expiring liveness state. */
+    TRACK,
+    /** Sampling model inputs (and crops of faces to add) from the YUV frame. */
+    SAMPLE,
+    /** Embedding and matching against the registered faces. */
+    RECOGNIZE,
+    /** Scoring head movement and blinking. */
+    LIVENESS
+  }
+
+  /** Result for one detected face. Recycled: valid until the next call to process(). */
+  public static final class FaceResult {
+    private DetectedFace face;
+    private IdentityTracker.Track<Recognition> track;
+    private final float[] frameBox = new float[4];
+    private Recognition recognition;
+    private boolean embedded;
+    private LivenessEngine.Score liveness;
+    private int[] cropPixels;
+    private int cropWidth;
+    private int cropHeight;
+
+    public DetectedFace getFace() {
+      return face;
+    }
+
+    public int getTrackId() {
+      return track.getId();
+    }
+
+    /** Box of the face in camera frame coordinates, {left, top, right, bottom}. */
+    public float[] getFrameBox() {
+      return frameBox;
+    }
+
+    /** Closest registered face, null if the face could not be recognized. */
+    public Recognition getRecognition() {
+      return recognition;
+    }
+
+    /** Whether the face was embedded on this frame, rather than reusing its track's identity. */
+    public boolean isEmbedded() {
+      return embedded;
+    }
+
+    public LivenessEngine.Score getLiveness() {
+      return liveness;
+    }
+
+    /** ARGB crop of the face in portrait orientation when adding faces, else null. */
+    public int[] getCropPixels() {
+      return cropPixels;
+    }
+
+    public int getCropWidth() {
+      return cropWidth;
+    }
+
+    public int getCropHeight() {
+      return cropHeight;
+    }
+  }
+
+  private final SimilarityClassifier classifier;
+  private final int inputSize;
+  private final IdentityTracker<Recognition> identityTracker;
+  private final LivenessEngine livenessEngine;
+
+  private final float[] cropToFrame = new float[9];
+  private final float[] cropToPortrait = new float[9];
+  private final float[] portraitToFrame = new float[9];
+
+  // The faces of the frame as model input pixels, one array per face; grown on demand.
+  private final List<int[]> facePixels = new ArrayList<>();
+  private final List<int[]> faceInputs = new ArrayList<>();
+  private final List<FaceResult> resultPool = new ArrayList<>();
+  private final List<FaceResult> results = new ArrayList<>();
+  private final List<float[]> boxes = new ArrayList<>();
+  private final float[] dstToFrame = new float[6];
+  private final float[] portraitBox = new float[4];
+  private int[] inputIndex = new int[0];
+
+  private final long[] lastStageNanos = new long[Stage.values().length];
+  private long frames;
+  private long faces;
+  private long embeddedFaces;
+
+  /**
+   * @param classifier embeds and matches the faces.
+   * @param inputSize width and height of the classifier's input, in pixels.
+   */
+  public FacePipeline(
+      final SimilarityClassifier classifier,
+      final int inputSize,
+      final IdentityTracker<Recognition> identityTracker,
+      final LivenessEngine livenessEngine) {
+    this.classifier = classifier;
+    this.inputSize = inputSize;
+    this.identityTracker = identityTracker;
+    this.livenessEngine = livenessEngine;
+    setTransforms(IDENTITY, IDENTITY, IDENTITY);
+  }
+
+  /**
+   * Sets how detector input ("crop") coordinates relate to the camera frame and to the frame
+   * rotated upright ("portrait"), from which faces are sampled.
+   */
+  public void setTransforms(
+      final float[] cropToFrame, final float[] cropToPortrait, final float[] portraitToFrame) {
+    System.arraycopy(cropToFrame, 0, this.cropToFrame, 0, 9);
+    System.arraycopy(cropToPortrait, 0, this.cropToPortrait, 0, 9);
+    System.arraycopy(portraitToFrame, 0, this.portraitToFrame, 0, 9);
+  }
+
+  public IdentityTracker<Recognition> getIdentityTracker() {
+    return identityTracker;
+  }
+
+  public LivenessEngine getLivenessEngine() {
+    return livenessEngine;
+  }
+
+  /**
+   * Processes the faces detected in frame.
+   *
+   * @param timeMs when the frame was taken, for liveness windows; must not go backwards.
+   * @param add whether a face is being added: all faces are then embedded, and results carry the
+   *     embedding as extra and a crop of the face.
+   * @return one result per detected face, in order, recycled by the next call.
+   */
+  public List<FaceResult> process(
+      final YuvFrame frame,
+      final List<DetectedFace> detected,
+      final long timeMs,
+      final boolean add) {
+    long start = System.nanoTime();
+
+    // Matches the faces to those of the previous frames first: a face that is tracked steadily
+    // reuses its cached identity, only new, moved or long unchecked faces are embedded. When a
+    // face is being added, all faces are embedded, as the new one needs its embedding.
+    boxes.clear();
+    for (final DetectedFace face : detected) {
+      boxes.add(face.getBox());
+    }
+    final List<IdentityTracker.Track<Recognition>> tracks = identityTracker.update(boxes);
+    livenessEngine.evictStale(timeMs);
+    start = lap(Stage.TRACK, start);
+
+    // Samples every face to embed into its own model input, so that all of them are embedded by
+    // a single batched inference. Each face is cropped, rotated to portrait and scaled straight
+    // from the YUV frame through the transforms, so the work per frame depends on the number of
+    // faces, not on the frame size.
+    results.clear();
+    faceInputs.clear();
+    if (inputIndex.length < detected.size()) {
+      inputIndex = new int[detected.size()];
+    }
+    for (int i = 0; i < detected.size(); i++) {
+      final FaceResult result = getResult(i);
+      result.face = detected.get(i);
+      result.track = tracks.get(i);
+      result.recognition = null;
+      result.embedded = add || result.track.needsEmbedding();
+      result.cropPixels = null;
+      results.add(result);
+
+      final float[] box = result.face.getBox();
+      mapRect(cropToFrame, box, result.frameBox);
+      mapRect(cropToPortrait, box, portraitBox);
+      if (result.embedded) {
+        final int[] faceInput = getFacePixels(faceInputs.size());
+        sampleFrame(frame, portraitBox[0], portraitBox[1], portraitBox[2], portraitBox[3],
+            inputSize, inputSize, faceInput);
+        inputIndex[i] = faceInputs.size();
+        faceInputs.add(faceInput);
+      } else {
+        inputIndex[i] = -1;
+      }
+      if (add) {
+        final int left = (int) portraitBox[0];
+        final int top = (int) portraitBox[1];
+        result.cropWidth = Math.max(1, (int) (portraitBox[2] - portraitBox[0]));
+        result.cropHeight = Math.max(1, (int) (portraitBox[3] - portraitBox[1]));
+        result.cropPixels = new int[result.cropWidth * result.cropHeight];
+        sampleFrame(frame, left, top, left + result.cropWidth, top + result.cropHeight,
+            result.cropWidth, result.cropHeight, result.cropPixels);
+      }
+    }
+    start = lap(Stage.SAMPLE, start);
+
+    final List<Recognition> recognitions =
+        faceInputs.isEmpty()
+            ? Collections.<Recognition>emptyList()
+            : classifier.recognizePixels(faceInputs, add);
+    for (int i = 0; i < results.size(); i++) {
+      final FaceResult result = results.get(i);
+      if (inputIndex[i] < 0) {
+        result.recognition = result.track.getIdentity();
+      } else if (inputIndex[i] < recognitions.size()) {
+        final Recognition recognition = recognitions.get(inputIndex[i]);
+        result.recognition = recognition;
+        // results are only valid until the next recognition, the track keeps a copy
+        result.track.setIdentity(
+            new Recognition(
+                recognition.getId(), recognition.getTitle(), recognition.getDistance(), null),
+            recognition.getDistance());
+      }
+    }
+    start = lap(Stage.RECOGNIZE, start);
+
+    for (final FaceResult result : results) {
+      final DetectedFace face = result.face;
+      result.liveness = livenessEngine.update(result.track.getId(), timeMs,
+          face.getHeadEulerX(), face.getHeadEulerY(),
+          face.getLeftEyeOpen(), face.getRightEyeOpen());
+    }
+    lap(Stage.LIVENESS, start);
+
+    frames++;
+    faces += results.size();
+    embeddedFaces += faceInputs.size();
+    return results;
+  }
+
+  /** Makes every tracked face be embedded again, e.g. after the registered faces changed. */
+  public void invalidateIdentities() {
+    identityTracker.invalidate();
+  }
+
+  /** Time the last call to process() spent in stage. */
+  public long getLastStageNanos(final Stage stage) {
+    return lastStageNanos[stage.ordinal()];
+  }
+
+  /** Number of frames processed. */
+  public long getFrameCount() {
+    return frames;
+  }
+
+  /** Number of faces processed. */
+  public long getFaceCount() {
+    return faces;
+  }
+
+  /** Number of faces embedded; the others reused the identity of their track. */
+  public long getEmbeddedFaceCount() {
+    return embeddedFaces;
+  }
+
+  private long lap(final Stage stage, final long start) {
+    final long now = System.nanoTime();
+    lastStageNanos[stage.ordinal()] = now - start;
+    return now;
+  }
+
+  private FaceResult getResult(final int index) {
+    while (resultPool.size() <= index) {
+      resultPool.add(new FaceResult());
+    }
+    return resultPool.get(index);
+  }
+
+  // Returns the index-th reusable face input.
+  private int[] getFacePixels(final int index) {
+    while (facePixels.size() <= index) {
+      facePixels.add(new int[inputSize * inputSize]);
+    }
+    return facePixels.get(index);
+  }
+
+  // Samples the region (left, top, right, bottom) of the portrait frame, scaled to
+  // width x height, from the camera frame. Only the pixels of the region are visited.
+  private void sampleFrame(
+      final YuvFrame frame,
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final int width,
+      final int height,
+      final int[] out) {
+    // portraitToFrame, pre-translated by (left, top) and pre-scaled to the region, as
+    // Matrix.preTranslate() and Matrix.preScale() would.
+    final float[] m = portraitToFrame;
+    final float sx = (right - left) / width;
+    final float sy = (bottom - top) / height;
+    dstToFrame[0] = m[0] * sx;
+    dstToFrame[1] = m[1] * sy;
+    dstToFrame[2] = m[0] * left + m[1] * top + m[2];
+    dstToFrame[3] = m[3] * sx;
+    dstToFrame[4] = m[4] * sy;
+    dstToFrame[5] = m[3] * left + m[4] * top + m[5];
+    frame.sample(dstToFrame, width, height, out);
+  }
+
+  /**
+   * Maps rect {left, top, right, bottom} through the affine transform m into out, as
+   * Matrix.mapRect(): out is the bounding box of the mapped corners.
+   */
+  static void mapRect(final float[] m, final float[] rect, final float[] out) {
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+    for (int corner = 0; corner < 4; corner++) {
+      final float x = rect[(corner & 1) == 0 ? 0 : 2];
+      final float y = rect[(corner & 2) == 0 ? 1 : 3];
+      final float mx = m[0] * x + m[1] * y + m[2];
+      final float my = m[3] * x + m[4] * y + m[5];
+      minX = Math.min(minX, mx);
+      minY = Math.min(minY, my);
+      maxX = Math.max(maxX, mx);
+      maxY = Math.max(maxY, my);
+    }
+    out[0] = minX;
+    out[1] = minY;
+    out[2] = maxX;
+    out[3] = maxY;
+  }
+}
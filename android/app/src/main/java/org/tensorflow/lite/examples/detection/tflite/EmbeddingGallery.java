@@ -0,0 +1,315 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Contiguous storage for the enrolled face embeddings, and the exact (brute-force) {@link
+ * EmbeddingIndex}.
+ *
+ * All vectors live in one flat float array (slot i occupies [i * dim, (i + 1) * dim)) next to a
+ * parallel slot -> label table, so a nearest neighbour scan walks memory linearly and does not
+ * allocate. Removing an entry moves the last slot into the hole, so slots are not stable across
+ * removals; use the label to address an entry.
+ *
+ * <p>With {@link #setParallelism(int)} large galleries are scanned in shards on a fixed worker
+ * pool; galleries smaller than the parallel threshold keep the serial scan, which is cheaper than
+ * the fork/join overhead at that size.
+ */
+public class EmbeddingGallery implements EmbeddingIndex {
+
+  private static final int INITIAL_CAPACITY = 64;
+  // Below this many entries a serial scan beats handing shards to other threads.
+  private static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+
+  private final int dim;
+  private float[] vectors;
+  private String[] labels;
+  private final HashMap<String, Integer> slots = new HashMap<>();
+  private int size;
+
+  private ShardedScan parallelScan;
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+  // Collector for the k = 1 search when it runs sharded.
+  private final NearestNeighbors nearest = new NearestNeighbors(1);
+  // Scratch for the batched search.
+  private final float[] batchDistance = new float[1];
+
+  public EmbeddingGallery(final int dim) {
+    this(dim, INITIAL_CAPACITY);
+  }
+
+  public EmbeddingGallery(final int dim, final int initialCapacity) {
+    if (dim <= 0) {
+      throw new IllegalArgumentException("Invalid embedding dimension: " + dim);
+    }
+    this.dim = dim;
+    final int capacity = Math.max(1, initialCapacity);
+    this.vectors = new float[capacity * dim];
+    this.labels = new String[capacity];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int getDimension() {
+    return dim;
+  }
+
+  /**
+   * Scans galleries of at least getParallelThreshold() entries with numThreads threads (the caller
+   * plus numThreads - 1 pool workers). Values below 2 switch back to serial scans only.
+   */
+  public void setParallelism(final int numThreads) {
+    if (parallelScan != null) {
+      if (parallelScan.getNumShards() == numThreads) {
+        return;
+      }
+      parallelScan.shutdown();
+      parallelScan = null;
+    }
+    if (numThreads >= 2) {
+      parallelScan = new ShardedScan(this, numThreads);
+    }
+  }
+
+  public int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  /** Gallery size from which scans run sharded, when parallelism is enabled. */
+  public void setParallelThreshold(final int parallelThreshold) {
+    this.parallelThreshold = Math.max(1, parallelThreshold);
+  }
+
+  /** Stops the worker threads, if any. The gallery keeps working with serial scans. */
+  @Override
+  public void close() {
+    setParallelism(1);
+  }
+
+  @Override
+  public String getLabel(final int slot) {
+    checkSlot(slot);
+    return labels[slot];
+  }
+
+  /** Returns the slot holding the given label, or -1 if it is not enrolled. */
+  @Override
+  public int indexOf(final String label) {
+    final Integer slot = slots.get(label);
+    return slot == null ? -1 : slot;
+  }
+
+  @Override
+  public void getVector(final int slot, final float[] out) {
+    checkSlot(slot);
+    System.arraycopy(vectors, slot * dim, out, 0, dim);
+  }
+
+  /**
+   * Enrolls an embedding under the given label. If the label is already enrolled its vector is
+   * overwritten in place, mirroring the previous HashMap#put semantics of register().
+   *
+   * @return the slot the embedding was written to.
+   */
+  @Override
+  public int put(final String label, final float[] embedding) {
+    checkLength(embedding);
+    final Integer existing = slots.get(label);
+    if (existing != null) {
+      update(existing, embedding);
+      return existing;
+    }
+    ensureCapacity(size + 1);
+    final int slot = size++;
+    labels[slot] = label;
+    slots.put(label, slot);
+    System.arraycopy(embedding, 0, vectors, slot * dim, dim);
+    return slot;
+  }
+
+  /** Overwrites the embedding stored in the given slot. */
+  public void update(final int slot, final float[] embedding) {
+    checkSlot(slot);
+    checkLength(embedding);
+    System.arraycopy(embedding, 0, vectors, slot * dim, dim);
+  }
+
+  /** Removes the given label. Returns false if it was not enrolled. */
+  @Override
+  public boolean remove(final String label) {
+    final Integer slot = slots.remove(label);
+    if (slot == null) {
+      return false;
+    }
+    final int last = --size;
+    if (slot != last) {
+      System.arraycopy(vectors, last * dim, vectors, slot * dim, dim);
+      labels[slot] = labels[last];
+      slots.put(labels[slot], slot);
+    }
+    labels[last] = null;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(labels, 0, size, null);
+    slots.clear();
+    size = 0;
+  }
+
+  /** Squared L2 distance between the query and the embedding stored in the given slot. */
+  public float squaredDistance(final int slot, final float[] query) {
+    checkSlot(slot);
+    checkLength(query);
+    return distanceTo(slot, query);
+  }
+
+  /**
+   * Linear scan for the embedding closest to the query (using L2 norm).
+   *
+   * @param query the embedding to look up.
+   * @param outDistance receives the squared L2 distance of the winner in element 0.
+   * @return the winning slot, or -1 if the gallery is empty.
+   */
+  @Override
+  public int findNearest(final float[] query, final float[] outDistance) {
+    checkLength(query);
+    if (isParallel()) {
+      nearest.reset(1);
+      parallelScan.scan(query, size, nearest);
+      outDistance[0] = nearest.size() == 0 ? Float.MAX_VALUE : nearest.getDistance(0);
+      return nearest.size() == 0 ? -1 : nearest.getSlot(0);
+    }
+    int best = -1;
+    float bestDistance = Float.MAX_VALUE;
+    for (int slot = 0, offset = 0; slot < size; slot++, offset += dim) {
+      final float distance = squaredDistanceAt(offset, query);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = slot;
+      }
+    }
+    outDistance[0] = bestDistance;
+    return best;
+  }
+
+  /**
+   * Linear scan for the k embeddings closest to the query, where k is set by out.reset(k). On
+   * return out holds min(k, size()) slots ordered from closest to farthest, with their squared L2
+   * distances.
+   */
+  @Override
+  public void findNearest(final float[] query, final NearestNeighbors out) {
+    checkLength(query);
+    if (isParallel()) {
+      parallelScan.scan(query, size, out);
+    } else {
+      scan(query, 0, size, out);
+    }
+    out.sort();
+  }
+
+  /**
+   * Answers all queries in one pass over the gallery, so that each enrolled embedding is read
+   * once per batch instead of once per query. Large galleries that are scanned in parallel are
+   * searched query by query instead.
+   */
+  @Override
+  public void findNearest(
+      final float[][] queries, final int count, final int[] outSlots, final float[] outDistances) {
+    if (count == 1 || isParallel()) {
+      for (int q = 0; q < count; q++) {
+        outSlots[q] = findNearest(queries[q], batchDistance);
+        outDistances[q] = batchDistance[0];
+      }
+      return;
+    }
+    for (int q = 0; q < count; q++) {
+      checkLength(queries[q]);
+    }
+    final float[] best = outDistances;
+    Arrays.fill(outSlots, 0, count, -1);
+    Arrays.fill(best, 0, count, Float.MAX_VALUE);
+    for (int slot = 0, offset = 0; slot < size; slot++, offset += dim) {
+      for (int q = 0; q < count; q++) {
+        final float distance = squaredDistanceAt(offset, queries[q]);
+        if (distance < best[q]) {
+          best[q] = distance;
+          outSlots[q] = slot;
+        }
+      }
+    }
+  }
+
+  private boolean isParallel() {
+    return parallelScan != null && size >= parallelThreshold;
+  }
+
+  /** Squared distance between the query and the given slot, without bounds or length checks. */
+  float distanceTo(final int slot, final float[] query) {
+    return squaredDistanceAt(slot * dim, query);
+  }
+
+  /** Offers slots [from, to) to out. The query length must already be checked. */
+  void scan(final float[] query, final int from, final int to, final NearestNeighbors out) {
+    for (int slot = from, offset = from * dim; slot < to; slot++, offset += dim) {
+      final float distance = squaredDistanceAt(offset, query);
+      if (distance < out.worstDistance()) {
+        out.offer(slot, distance);
+      }
+    }
+  }
+
+  private float squaredDistanceAt(final int offset, final float[] query) {
+    final float[] v = vectors;
+    float distance = 0;
+    for (int i = 0; i < dim; i++) {
+      final float diff = query[i] - v[offset + i];
+      distance += diff * diff;
+    }
+    return distance;
+  }
+
+  private void ensureCapacity(final int required) {
+    if (required <= labels.length) {
+      return;
+    }
+    final int capacity = Math.max(required, labels.length * 2);
+    vectors = Arrays.copyOf(vectors, capacity * dim);
+    labels = Arrays.copyOf(labels, capacity);
+  }
+
+  private void checkSlot(final int slot) {
+    if (slot < 0 || slot >= size) {
+      throw new IndexOutOfBoundsException("Slot " + slot + " out of range [0, " + size + ")");
+    }
+  }
+
+  void checkLength(final float[] embedding) {
+    if (embedding.length < dim) {
+      throw new IllegalArgumentException(
+          "Embedding has " + embedding.length + " values, expected " + dim);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Searchable set of enrolled embeddings, addressed by label.
+ *
+ * Entries live in slots [0, size()); slots may move when entries are removed. Distances are
+ * squared L2. Implementations are not thread-safe.
+ *
+ * @see EmbeddingGallery for the exact, brute-force index.
+ * @see IvfIndex for an approximate index over large galleries.
+ */
+public interface EmbeddingIndex {
+
+  int getDimension();
+
+  int size();
+
+  String getLabel(int slot);
+
+  /** Returns the slot holding the given label, or -1 if it is not enrolled. */
+  int indexOf(String label);
+
+  /** Copies the embedding stored in the given slot into out, in its original scale. */
+  void getVector(int slot, float[] out);
+
+  /**
+   * Enrolls an embedding under the given label, replacing the previous one if the label is already
+   * enrolled. Entries are added incrementally, without rebuilding the index.
+   *
+   * @return the slot the embedding was written to.
+   */
+  int put(String label, float[] embedding);
+
+  /** Removes the given label. Returns false if it was not enrolled. */
+  boolean remove(String label);
+
+  void clear();
+
+  /**
+   * Finds the closest embedding to the query.
+   *
+   * @param outDistance receives the squared distance of the winner in element 0.
+   * @return the winning slot, or -1 if the index is empty.
+   */
+  int findNearest(float[] query, float[] outDistance);
+
+  /**
+   * Finds the k closest embeddings, where k is set by out.reset(k). On return out is ordered from
+   * closest to farthest.
+   */
+  void findNearest(float[] query, NearestNeighbors out);
+
+  /**
+   * Finds the closest embedding to each of queries[0, count), like calling
+   * {@link #findNearest(float[], float[])} once per query. Implementations may answer all queries
+   * in a single pass over the index.
+   *
+   * @param outSlots receives the winning slot of each query, or -1 if the index is empty.
+   * @param outDistances receives the squared distance of each winner.
+   */
+  default void findNearest(
+      float[][] queries, int count, int[] outSlots, float[] outDistances) {
+    final float[] distance = new float[1];
+    for (int q = 0; q < count; q++) {
+      outSlots[q] = findNearest(queries[q], distance);
+      outDistances[q] = distance[0];
+    }
+  }
+
+  /** Releases background resources (worker threads); the index itself stays usable. */
+  void close();
+}
@@ -0,0 +1,118 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Measures recall and latency of an approximate {@link EmbeddingIndex} against an exact one
+ * holding the same entries, e.g. to tune {@link IvfIndex#setNumProbes(int)} on a real gallery.
+ */
+public final class IndexEvaluator {
+
+  /** Outcome of {@link #evaluate}. */
+  public static final class Result {
+    /** Fraction of the exact top-k labels that the approximate index also returned. */
+    public final double recall;
+    /** Fraction of queries whose exact nearest label was also ranked first by the approximation. */
+    public final double top1Agreement;
+    public final double exactMicrosPerQuery;
+    public final double approximateMicrosPerQuery;
+
+    Result(
+        final double recall,
+        final double top1Agreement,
+        final double exactMicrosPerQuery,
+        final double approximateMicrosPerQuery) {
+      this.recall = recall;
+      this.top1Agreement = top1Agreement;
+      this.exactMicrosPerQuery = exactMicrosPerQuery;
+      this.approximateMicrosPerQuery = approximateMicrosPerQuery;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "recall=%.4f top1=%.4f exact=%.1fus approximate=%.1fus",
+          recall,
+          top1Agreement,
+          exactMicrosPerQuery,
+          approximateMicrosPerQuery);
+    }
+  }
+
+  private IndexEvaluator() {}
+
+  /**
+   * Runs every query against both indexes and compares their top-k labels.
+   *
+   * @param exact reference index, usually an {@link EmbeddingGallery}.
+   * @param approximate index under test, holding the same labels.
+   */
+  public static Result evaluate(
+      final EmbeddingIndex exact,
+      final EmbeddingIndex approximate,
+      final float[][] queries,
+      final int k) {
+    final NearestNeighbors exactResults = new NearestNeighbors(k);
+    final NearestNeighbors approximateResults = new NearestNeighbors(k);
+    final Set<String> expected = new HashSet<>();
+    long exactNanos = 0;
+    long approximateNanos = 0;
+    long hits = 0;
+    long total = 0;
+    long top1 = 0;
+
+    for (final float[] query : queries) {
+      exactResults.reset(k);
+      long start = System.nanoTime();
+      exact.findNearest(query, exactResults);
+      exactNanos += System.nanoTime() - start;
+
+      approximateResults.reset(k);
+      start = System.nanoTime();
+      approximate.findNearest(query, approximateResults);
+      approximateNanos += System.nanoTime() - start;
+
+      expected.clear();
+      for (int i = 0; i < exactResults.size(); i++) {
+        expected.add(exact.getLabel(exactResults.getSlot(i)));
+      }
+      total += expected.size();
+      for (int i = 0; i < approximateResults.size(); i++) {
+        if (expected.contains(approximate.getLabel(approximateResults.getSlot(i)))) {
+          hits++;
+        }
+      }
+      if (exactResults.size() > 0
+          && approximateResults.size() > 0
+          && exact.getLabel(exactResults.getSlot(0))
+              .equals(approximate.getLabel(approximateResults.getSlot(0)))) {
+        top1++;
+      }
+    }
+
+    final int n = Math.max(1, queries.length);
+    return new Result(
+        total == 0 ? 1.0 : (double) hits / total,
+        (double) top1 / n,
+        exactNanos / 1000.0 / n,
+        approximateNanos / 1000.0 / n);
+  }
+}
@@ -0,0 +1,358 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate {@link EmbeddingIndex} based on an inverted file (IVF).
+ *
+ * The embeddings are partitioned into numLists clusters by k-means. A query is compared against
+ * the cluster centroids first and only the members of the numProbes closest clusters are scanned,
+ * so a search costs about (numLists + size * numProbes / numLists) distance computations instead of
+ * size. Raising numProbes trades latency for recall; numProbes == numLists is an exact search.
+ *
+ * Until {@link #train()} is called the index has no centroids and searches fall back to a full
+ * scan. Training is never started implicitly: k-means over a large gallery takes seconds, so the
+ * owner calls train() where such a pause is acceptable, e.g. once the gallery has been loaded, and
+ * again after most of it has been replaced. Entries added after training are assigned to their
+ * nearest centroid as they are added, so register() never triggers a rebuild.
+ */
+public class IvfIndex implements EmbeddingIndex {
+
+  private static final int DEFAULT_KMEANS_ITERATIONS = 10;
+  // Upper bound on the vectors k-means looks at, per list.
+  private static final int MAX_TRAINING_POINTS_PER_LIST = 64;
+
+  private final EmbeddingGallery gallery;
+  private final int dim;
+  private final int numLists;
+  private final Random random;
+  private int numProbes;
+  private int kmeansIterations = DEFAULT_KMEANS_ITERATIONS;
+
+  // numLists * dim centroid matrix, null until trained.
+  private float[] centroids;
+  // Members (gallery slots) of each list, and the list/position of each slot.
+  private int[][] lists;
+  private int[] listSizes;
+  private int[] listOfSlot = new int[0];
+  private int[] positionOfSlot = new int[0];
+
+  private final NearestNeighbors probes;
+  private final float[] scratch;
+
+  /**
+   * @param dim dimension of the embeddings.
+   * @param numLists number of clusters.
+   * @param numProbes number of clusters scanned per query, in [1, numLists].
+   */
+  public IvfIndex(final int dim, final int numLists, final int numProbes) {
+    if (numLists <= 0) {
+      throw new IllegalArgumentException("numLists must be positive: " + numLists);
+    }
+    this.gallery = new EmbeddingGallery(dim);
+    this.dim = dim;
+    this.numLists = numLists;
+    this.random = new Random(0x1f5);
+    this.probes = new NearestNeighbors(numLists);
+    this.scratch = new float[dim];
+    setNumProbes(numProbes);
+  }
+
+  public int getNumLists() {
+    return numLists;
+  }
+
+  public int getNumProbes() {
+    return numProbes;
+  }
+
+  /** Sets how many clusters are scanned per query. Can be changed at any time. */
+  public void setNumProbes(final int numProbes) {
+    if (numProbes <= 0 || numProbes > numLists) {
+      throw new IllegalArgumentException(
+          "numProbes must be in [1, " + numLists + "]: " + numProbes);
+    }
+    this.numProbes = numProbes;
+  }
+
+  public void setKMeansIterations(final int iterations) {
+    this.kmeansIterations = Math.max(1, iterations);
+  }
+
+  public boolean isTrained() {
+    return centroids != null;
+  }
+
+  @Override
+  public int getDimension() {
+    return dim;
+  }
+
+  @Override
+  public int size() {
+    return gallery.size();
+  }
+
+  @Override
+  public String getLabel(final int slot) {
+    return gallery.getLabel(slot);
+  }
+
+  @Override
+  public int indexOf(final String label) {
+    return gallery.indexOf(label);
+  }
+
+  @Override
+  public void getVector(final int slot, final float[] out) {
+    gallery.getVector(slot, out);
+  }
+
+  @Override
+  public int put(final String label, final float[] embedding) {
+    final int existing = gallery.indexOf(label);
+    if (existing >= 0 && centroids != null) {
+      unlink(existing);
+    }
+    final int slot = gallery.put(label, embedding);
+    if (centroids != null) {
+      link(slot);
+    }
+    return slot;
+  }
+
+  @Override
+  public boolean remove(final String label) {
+    final int slot = gallery.indexOf(label);
+    if (slot < 0) {
+      return false;
+    }
+    final int last = gallery.size() - 1;
+    if (centroids != null) {
+      unlink(slot);
+    }
+    gallery.remove(label);
+    if (centroids != null && slot != last) {
+      // The gallery moved its last slot into the hole; follow it.
+      final int list = listOfSlot[last];
+      final int position = positionOfSlot[last];
+      lists[list][position] = slot;
+      listOfSlot[slot] = list;
+      positionOfSlot[slot] = position;
+    }
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    gallery.clear();
+    centroids = null;
+    lists = null;
+    listSizes = null;
+  }
+
+  /**
+   * (Re)trains the centroids with k-means over (a sample of) the current embeddings and reassigns
+   * every entry. Does nothing while the index holds fewer than numLists embeddings.
+   *
+   * Costs about kmeansIterations * min(size, 64 * numLists) * numLists * dim multiply-adds on the
+   * calling thread, plus one centroid scan per entry: seconds for large galleries.
+   */
+  public void train() {
+    final int n = gallery.size();
+    if (n < numLists) {
+      return;
+    }
+    final int sampleSize = Math.min(n, numLists * MAX_TRAINING_POINTS_PER_LIST);
+    final float[] sample = new float[sampleSize * dim];
+    final int[] picked = sampleSlots(random, n, sampleSize);
+    for (int i = 0; i < sampleSize; i++) {
+      gallery.getVector(picked[i], scratch);
+      System.arraycopy(scratch, 0, sample, i * dim, dim);
+    }
+
+    // Initialize with distinct sampled points, then run Lloyd iterations.
+    final float[] c = new float[numLists * dim];
+    System.arraycopy(sample, 0, c, 0, numLists * dim);
+    final int[] assignment = new int[sampleSize];
+    final int[] counts = new int[numLists];
+    for (int iteration = 0; iteration < kmeansIterations; iteration++) {
+      for (int i = 0; i < sampleSize; i++) {
+        assignment[i] = nearestCentroid(c, sample, i * dim);
+      }
+      Arrays.fill(c, 0);
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < sampleSize; i++) {
+        final int list = assignment[i];
+        counts[list]++;
+        for (int d = 0; d < dim; d++) {
+          c[list * dim + d] += sample[i * dim + d];
+        }
+      }
+      for (int list = 0; list < numLists; list++) {
+        if (counts[list] == 0) {
+          // Re-seed empty clusters with a random sample point.
+          System.arraycopy(sample, random.nextInt(sampleSize) * dim, c, list * dim, dim);
+          continue;
+        }
+        final float inv = 1.0f / counts[list];
+        for (int d = 0; d < dim; d++) {
+          c[list * dim + d] *= inv;
+        }
+      }
+    }
+
+    centroids = c;
+    lists = new int[numLists][];
+    listSizes = new int[numLists];
+    for (int list = 0; list < numLists; list++) {
+      lists[list] = new int[Math.max(4, 2 * n / numLists)];
+    }
+    for (int slot = 0; slot < n; slot++) {
+      link(slot);
+    }
+  }
+
+  @Override
+  public int findNearest(final float[] query, final float[] outDistance) {
+    if (centroids == null) {
+      return gallery.findNearest(query, outDistance);
+    }
+    selectProbes(query);
+    int best = -1;
+    float bestDistance = Float.MAX_VALUE;
+    for (int p = 0; p < probes.size(); p++) {
+      final int list = probes.getSlot(p);
+      final int[] members = lists[list];
+      for (int i = 0, count = listSizes[list]; i < count; i++) {
+        final float distance = gallery.distanceTo(members[i], query);
+        if (distance < bestDistance) {
+          bestDistance = distance;
+          best = members[i];
+        }
+      }
+    }
+    outDistance[0] = bestDistance;
+    return best;
+  }
+
+  @Override
+  public void findNearest(final float[] query, final NearestNeighbors out) {
+    if (centroids == null) {
+      gallery.findNearest(query, out);
+      return;
+    }
+    selectProbes(query);
+    for (int p = 0; p < probes.size(); p++) {
+      final int list = probes.getSlot(p);
+      final int[] members = lists[list];
+      for (int i = 0, count = listSizes[list]; i < count; i++) {
+        final float distance = gallery.distanceTo(members[i], query);
+        if (distance < out.worstDistance()) {
+          out.offer(members[i], distance);
+        }
+      }
+    }
+    out.sort();
+  }
+
+  @Override
+  public void close() {
+    gallery.close();
+  }
+
+  // Fills probes with the numProbes closest centroids.
+  private void selectProbes(final float[] query) {
+    gallery.checkLength(query);
+    probes.reset(numProbes);
+    for (int list = 0; list < numLists; list++) {
+      final float distance = squaredDistance(centroids, list * dim, query, 0);
+      if (distance < probes.worstDistance()) {
+        probes.offer(list, distance);
+      }
+    }
+  }
+
+  private void link(final int slot) {
+    gallery.getVector(slot, scratch);
+    final int list = nearestCentroid(centroids, scratch, 0);
+    if (listSizes[list] == lists[list].length) {
+      lists[list] = Arrays.copyOf(lists[list], lists[list].length * 2);
+    }
+    if (slot >= listOfSlot.length) {
+      final int capacity = Math.max(slot + 1, listOfSlot.length * 2);
+      listOfSlot = Arrays.copyOf(listOfSlot, capacity);
+      positionOfSlot = Arrays.copyOf(positionOfSlot, capacity);
+    }
+    final int position = listSizes[list]++;
+    lists[list][position] = slot;
+    listOfSlot[slot] = list;
+    positionOfSlot[slot] = position;
+  }
+
+  private void unlink(final int slot) {
+    final int list = listOfSlot[slot];
+    final int position = positionOfSlot[slot];
+    final int last = --listSizes[list];
+    if (position != last) {
+      final int moved = lists[list][last];
+      lists[list][position] = moved;
+      positionOfSlot[moved] = position;
+    }
+  }
+
+  private int nearestCentroid(final float[] c, final float[] v, final int offset) {
+    int best = 0;
+    float bestDistance = Float.MAX_VALUE;
+    for (int list = 0; list < numLists; list++) {
+      final float distance = squaredDistance(c, list * dim, v, offset);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = list;
+      }
+    }
+    return best;
+  }
+
+  private float squaredDistance(
+      final float[] a, final int aOffset, final float[] b, final int bOffset) {
+    float distance = 0;
+    for (int d = 0; d < dim; d++) {
+      final float diff = a[aOffset + d] - b[bOffset + d];
+      distance += diff * diff;
+    }
+    return distance;
+  }
+
+  // Partial Fisher-Yates shuffle of [0, n), returning the first count slots: count distinct slots
+  // drawn uniformly without replacement.
+  static int[] sampleSlots(final Random random, final int n, final int count) {
+    final int[] slots = new int[n];
+    for (int i = 0; i < n; i++) {
+      slots[i] = i;
+    }
+    for (int i = 0; i < count; i++) {
+      final int j = i + random.nextInt(n - i);
+      final int tmp = slots[i];
+      slots[i] = slots[j];
+      slots[j] = tmp;
+    }
+    return Arrays.copyOf(slots, count);
+  }
+}
@@ -0,0 +1,160 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Bounded collector for the k closest gallery slots, backed by a primitive max-heap.
+ *
+ * While fewer than k candidates are held every offer is accepted; after that an offer only costs a
+ * comparison against the current worst distance unless it displaces it (O(log k)). Nothing is
+ * allocated after construction, so one instance can be reused for every query.
+ */
+public class NearestNeighbors {
+
+  private final int[] slots;
+  private final float[] distances;
+  private int k;
+  private int size;
+  private boolean sorted;
+
+  public NearestNeighbors(final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    this.slots = new int[capacity];
+    this.distances = new float[capacity];
+    this.k = capacity;
+  }
+
+  public int capacity() {
+    return slots.length;
+  }
+
+  /** Clears the collector and sets how many neighbours to keep (at most capacity()). */
+  public void reset(final int k) {
+    if (k <= 0 || k > slots.length) {
+      throw new IllegalArgumentException("k must be in [1, " + slots.length + "]: " + k);
+    }
+    this.k = k;
+    this.size = 0;
+    this.sorted = false;
+  }
+
+  public int getK() {
+    return k;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Largest distance still accepted: the current worst candidate once k are held, otherwise
+   * Float.MAX_VALUE.
+   */
+  public float worstDistance() {
+    return size < k ? Float.MAX_VALUE : distances[0];
+  }
+
+  /** Offers a candidate. Returns true if it is kept. */
+  public boolean offer(final int slot, final float distance) {
+    if (size < k) {
+      int i = size++;
+      // Sift up.
+      while (i > 0) {
+        final int parent = (i - 1) >>> 1;
+        if (distances[parent] >= distance) {
+          break;
+        }
+        slots[i] = slots[parent];
+        distances[i] = distances[parent];
+        i = parent;
+      }
+      slots[i] = slot;
+      distances[i] = distance;
+      return true;
+    }
+    if (distance >= distances[0]) {
+      return false;
+    }
+    siftDown(0, slot, distance, size);
+    return true;
+  }
+
+  /**
+   * Orders the held candidates from closest to farthest, in place. Call once after the scan and
+   * before reading the results; further offers are not allowed until the next reset().
+   */
+  public void sort() {
+    if (sorted) {
+      return;
+    }
+    // Heap sort: repeatedly move the current maximum behind the shrinking heap.
+    for (int end = size - 1; end > 0; end--) {
+      final int slot = slots[end];
+      final float distance = distances[end];
+      slots[end] = slots[0];
+      distances[end] = distances[0];
+      siftDown(0, slot, distance, end);
+    }
+    sorted = true;
+  }
+
+  /** Gallery slot of the i-th result; results are ordered only after sort(). */
+  public int getSlot(final int i) {
+    checkIndex(i);
+    return slots[i];
+  }
+
+  /** Distance of the i-th result, as reported by the gallery (squared L2). */
+  public float getDistance(final int i) {
+    checkIndex(i);
+    return distances[i];
+  }
+
+  /** Copies the candidates held by another collector into this one. */
+  public void offerAll(final NearestNeighbors other) {
+    for (int i = 0; i < other.size; i++) {
+      offer(other.slots[i], other.distances[i]);
+    }
+  }
+
+  private void siftDown(int i, final int slot, final float distance, final int heapSize) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && distances[child + 1] > distances[child]) {
+        child++;
+      }
+      if (distances[child] <= distance) {
+        break;
+      }
+      slots[i] = slots[child];
+      distances[i] = distances[child];
+      i = child;
+    }
+    slots[i] = slot;
+    distances[i] = distance;
+  }
+
+  private void checkIndex(final int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Index " + i + " out of range [0, " + size + ")");
+    }
+  }
+}
@@ -0,0 +1,595 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Exact-scan {@link EmbeddingIndex} over compressed embeddings.
+ *
+ * Distances are asymmetric: the float query is compared against the decoded entries without
+ * quantizing the query, which keeps the error to the storage side only. Encodings:
+ *
+ * <ul>
+ *   <li>INT8: one signed byte per value plus a per-vector scale (about 4x smaller than float).
+ *   <li>FP16: IEEE half precision (2x smaller, practically lossless for distance thresholds).
+ *   <li>PRODUCT: product quantization with one byte per sub-vector (dim / numSubVectors floats),
+ *       i.e. 16x smaller for 192-d embeddings with 48 sub-vectors. Until {@link #train()} is
+ *       called entries are kept as floats and scanned exactly. Training is never started
+ *       implicitly: k-means over every codebook takes seconds, so the owner calls train() where
+ *       such a pause is acceptable, e.g. once the gallery has been loaded.
+ * </ul>
+ */
+public class QuantizedIndex implements EmbeddingIndex {
+
+  /** Storage format of the embeddings. */
+  public enum Encoding {
+    INT8,
+    FP16,
+    PRODUCT
+  }
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final int CENTROIDS_PER_SUBSPACE = 256;
+  private static final int KMEANS_ITERATIONS = 12;
+  private static final int MAX_TRAINING_POINTS = 16 * CENTROIDS_PER_SUBSPACE;
+
+  private final int dim;
+  private final Encoding encoding;
+
+  private String[] labels = new String[INITIAL_CAPACITY];
+  private final HashMap<String, Integer> slots = new HashMap<>();
+  private int size;
+
+  // INT8: codes and per-vector scale, plus the squared norm of each decoded vector.
+  private byte[] int8Codes;
+  private float[] scales;
+  private float[] squaredNorms;
+  // FP16: half precision bits.
+  private short[] halfCodes;
+  // PRODUCT: one centroid index per sub-vector, and the codebooks (numSubVectors x 256 x subDim).
+  private final int numSubVectors;
+  private final int subDim;
+  private byte[] pqCodes;
+  private float[] codebooks;
+  // PRODUCT, before training: the raw vectors.
+  private float[] pending;
+
+  // Copy of the current query and its squared norm.
+  private final float[] preparedQuery;
+  private float queryNorm;
+  private final float[] scratch;
+  private float[] distanceTable;
+
+  /** INT8 or FP16 index. */
+  public QuantizedIndex(final int dim, final Encoding encoding) {
+    this(dim, encoding, 1);
+    if (encoding == Encoding.PRODUCT) {
+      throw new IllegalArgumentException("Use the product quantization constructor");
+    }
+  }
+
+  /**
+   * Product quantization index.
+   *
+   * @param numSubVectors number of sub-vectors (bytes per embedding); must divide dim.
+   */
+  public QuantizedIndex(final int dim, final int numSubVectors) {
+    this(dim, Encoding.PRODUCT, numSubVectors);
+  }
+
+  private QuantizedIndex(final int dim, final Encoding encoding, final int numSubVectors) {
+    if (dim <= 0) {
+      throw new IllegalArgumentException("Invalid embedding dimension: " + dim);
+    }
+    if (numSubVectors <= 0 || dim % numSubVectors != 0) {
+      throw new IllegalArgumentException(numSubVectors + " sub-vectors do not divide " + dim);
+    }
+    this.dim = dim;
+    this.encoding = encoding;
+    this.numSubVectors = numSubVectors;
+    this.subDim = dim / numSubVectors;
+    this.preparedQuery = new float[dim];
+    this.scratch = new float[dim];
+    switch (encoding) {
+      case INT8:
+        int8Codes = new byte[INITIAL_CAPACITY * dim];
+        scales = new float[INITIAL_CAPACITY];
+        squaredNorms = new float[INITIAL_CAPACITY];
+        break;
+      case FP16:
+        halfCodes = new short[INITIAL_CAPACITY * dim];
+        break;
+      case PRODUCT:
+        pending = new float[INITIAL_CAPACITY * dim];
+        break;
+    }
+  }
+
+  public Encoding getEncoding() {
+    return encoding;
+  }
+
+  /** True once the product quantizer is trained; always true for INT8 and FP16. */
+  public boolean isTrained() {
+    return encoding != Encoding.PRODUCT || codebooks != null;
+  }
+
+  /** Storage per enrolled embedding, excluding the label. */
+  public int getBytesPerEmbedding() {
+    switch (encoding) {
+      case INT8:
+        return dim + 8;
+      case FP16:
+        return dim * 2;
+      default:
+        return codebooks == null ? dim * 4 : numSubVectors;
+    }
+  }
+
+  @Override
+  public int getDimension() {
+    return dim;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String getLabel(final int slot) {
+    checkSlot(slot);
+    return labels[slot];
+  }
+
+  @Override
+  public int indexOf(final String label) {
+    final Integer slot = slots.get(label);
+    return slot == null ? -1 : slot;
+  }
+
+  /** Copies the decoded (lossy) embedding stored in the given slot into out. */
+  @Override
+  public void getVector(final int slot, final float[] out) {
+    checkSlot(slot);
+    decode(slot, out);
+  }
+
+  @Override
+  public int put(final String label, final float[] embedding) {
+    if (embedding.length < dim) {
+      throw new IllegalArgumentException(
+          "Embedding has " + embedding.length + " values, expected " + dim);
+    }
+    final Integer existing = slots.get(label);
+    final int slot;
+    if (existing != null) {
+      slot = existing;
+    } else {
+      ensureCapacity(size + 1);
+      slot = size++;
+      labels[slot] = label;
+      slots.put(label, slot);
+    }
+    System.arraycopy(embedding, 0, scratch, 0, dim);
+    encode(slot, scratch);
+    return slot;
+  }
+
+  @Override
+  public boolean remove(final String label) {
+    final Integer slot = slots.remove(label);
+    if (slot == null) {
+      return false;
+    }
+    final int last = --size;
+    if (slot != last) {
+      move(last, slot);
+      labels[slot] = labels[last];
+      slots.put(labels[slot], slot);
+    }
+    labels[last] = null;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(labels, 0, size, null);
+    slots.clear();
+    size = 0;
+  }
+
+  @Override
+  public void close() {}
+
+  @Override
+  public int findNearest(final float[] query, final float[] outDistance) {
+    final float[] q = prepare(query);
+    int best = -1;
+    float bestDistance = Float.MAX_VALUE;
+    for (int slot = 0; slot < size; slot++) {
+      final float distance = distance(slot, q);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = slot;
+      }
+    }
+    outDistance[0] = bestDistance;
+    return best;
+  }
+
+  @Override
+  public void findNearest(final float[] query, final NearestNeighbors out) {
+    final float[] q = prepare(query);
+    for (int slot = 0; slot < size; slot++) {
+      final float distance = distance(slot, q);
+      if (distance < out.worstDistance()) {
+        out.offer(slot, distance);
+      }
+    }
+    out.sort();
+  }
+
+  /**
+   * Trains the product quantizer on the current entries and re-encodes them. Does nothing for INT8
+   * and FP16, and while fewer than 256 entries are enrolled, so that every codebook entry can be
+   * seeded from a distinct vector.
+   *
+   * Costs about 12 k-means iterations * min(size, 4096) * 256 * dim multiply-adds on the calling
+   * thread: seconds on a phone.
+   */
+  public void train() {
+    if (encoding != Encoding.PRODUCT || size < CENTROIDS_PER_SUBSPACE) {
+      return;
+    }
+    final Random random = new Random(0x9d);
+    final float[] vectors = codebooks == null ? pending : decodeAll();
+    final int n = Math.min(size, MAX_TRAINING_POINTS);
+    // Distinct entries in random order, so the first 256 make distinct seeds.
+    final int[] sample = IvfIndex.sampleSlots(random, size, n);
+
+    final float[] books = new float[numSubVectors * CENTROIDS_PER_SUBSPACE * subDim];
+    final int[] assignment = new int[n];
+    final int[] counts = new int[CENTROIDS_PER_SUBSPACE];
+    final float[] sums = new float[CENTROIDS_PER_SUBSPACE * subDim];
+    for (int m = 0; m < numSubVectors; m++) {
+      final int bookOffset = m * CENTROIDS_PER_SUBSPACE * subDim;
+      // Seed with the first 256 sampled sub-vectors; empty clusters take the following ones.
+      int nextSeed = CENTROIDS_PER_SUBSPACE % n;
+      for (int c = 0; c < CENTROIDS_PER_SUBSPACE; c++) {
+        System.arraycopy(
+            vectors, sample[c] * dim + m * subDim, books, bookOffset + c * subDim, subDim);
+      }
+      for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+        Arrays.fill(counts, 0);
+        Arrays.fill(sums, 0);
+        for (int i = 0; i < n; i++) {
+          final int offset = sample[i] * dim + m * subDim;
+          final int c = nearestCode(books, bookOffset, vectors, offset);
+          assignment[i] = c;
+          counts[c]++;
+          for (int d = 0; d < subDim; d++) {
+            sums[c * subDim + d] += vectors[offset + d];
+          }
+        }
+        for (int c = 0; c < CENTROIDS_PER_SUBSPACE; c++) {
+          if (counts[c] == 0) {
+            final int offset = sample[nextSeed] * dim + m * subDim;
+            nextSeed = nextSeed + 1 < n ? nextSeed + 1 : 0;
+            System.arraycopy(vectors, offset, books, bookOffset + c * subDim, subDim);
+            continue;
+          }
+          for (int d = 0; d < subDim; d++) {
+            books[bookOffset + c * subDim + d] = sums[c * subDim + d] / counts[c];
+          }
+        }
+      }
+    }
+
+    codebooks = books;
+    pqCodes = new byte[labels.length * numSubVectors];
+    distanceTable = new float[numSubVectors * CENTROIDS_PER_SUBSPACE];
+    for (int slot = 0; slot < size; slot++) {
+      System.arraycopy(vectors, slot * dim, scratch, 0, dim);
+      encode(slot, scratch);
+    }
+    pending = null;
+  }
+
+  private float[] prepare(final float[] query) {
+    if (query.length < dim) {
+      throw new IllegalArgumentException(
+          "Embedding has " + query.length + " values, expected " + dim);
+    }
+    System.arraycopy(query, 0, preparedQuery, 0, dim);
+    queryNorm = 0;
+    for (int d = 0; d < dim; d++) {
+      queryNorm += preparedQuery[d] * preparedQuery[d];
+    }
+    if (encoding == Encoding.PRODUCT && codebooks != null) {
+      // Asymmetric distance table: query sub-vector to every centroid of its codebook.
+      for (int m = 0; m < numSubVectors; m++) {
+        final int bookOffset = m * CENTROIDS_PER_SUBSPACE * subDim;
+        for (int c = 0; c < CENTROIDS_PER_SUBSPACE; c++) {
+          float distance = 0;
+          for (int d = 0; d < subDim; d++) {
+            final float diff =
+                preparedQuery[m * subDim + d] - codebooks[bookOffset + c * subDim + d];
+            distance += diff * diff;
+          }
+          distanceTable[m * CENTROIDS_PER_SUBSPACE + c] = distance;
+        }
+      }
+    }
+    return preparedQuery;
+  }
+
+  private float distance(final int slot, final float[] q) {
+    final int offset = slot * dim;
+    switch (encoding) {
+      case INT8:
+        {
+          // |q - s c|^2 = |q|^2 - 2 s (q . c) + |s c|^2, leaving one dot product per slot.
+          float dot = 0;
+          for (int d = 0; d < dim; d++) {
+            dot += q[d] * int8Codes[offset + d];
+          }
+          return Math.max(0.0f, queryNorm - 2.0f * scales[slot] * dot + squaredNorms[slot]);
+        }
+      case FP16:
+        {
+          float distance = 0;
+          for (int d = 0; d < dim; d++) {
+            final float diff = q[d] - HALF_TO_FLOAT[halfCodes[offset + d] & 0xffff];
+            distance += diff * diff;
+          }
+          return distance;
+        }
+      default:
+        {
+          if (codebooks == null) {
+            float distance = 0;
+            for (int d = 0; d < dim; d++) {
+              final float diff = q[d] - pending[offset + d];
+              distance += diff * diff;
+            }
+            return distance;
+          }
+          final int codeOffset = slot * numSubVectors;
+          float distance = 0;
+          for (int m = 0; m < numSubVectors; m++) {
+            final int code = pqCodes[codeOffset + m] & 0xff;
+            distance += distanceTable[m * CENTROIDS_PER_SUBSPACE + code];
+          }
+          return distance;
+        }
+    }
+  }
+
+  private void encode(final int slot, final float[] v) {
+    final int offset = slot * dim;
+    switch (encoding) {
+      case INT8:
+        {
+          float maxAbs = 0;
+          for (int d = 0; d < dim; d++) {
+            maxAbs = Math.max(maxAbs, Math.abs(v[d]));
+          }
+          final float scale = maxAbs > 0 ? maxAbs / 127.0f : 1.0f;
+          float norm = 0;
+          for (int d = 0; d < dim; d++) {
+            final int code = Math.round(v[d] / scale);
+            int8Codes[offset + d] = (byte) Math.max(-127, Math.min(127, code));
+            final float decoded = int8Codes[offset + d] * scale;
+            norm += decoded * decoded;
+          }
+          scales[slot] = scale;
+          squaredNorms[slot] = norm;
+          break;
+        }
+      case FP16:
+        for (int d = 0; d < dim; d++) {
+          halfCodes[offset + d] = toHalf(v[d]);
+        }
+        break;
+      default:
+        if (codebooks == null) {
+          System.arraycopy(v, 0, pending, offset, dim);
+        } else {
+          for (int m = 0; m < numSubVectors; m++) {
+            final int bookOffset = m * CENTROIDS_PER_SUBSPACE * subDim;
+            pqCodes[slot * numSubVectors + m] =
+                (byte) nearestCode(codebooks, bookOffset, v, m * subDim);
+          }
+        }
+        break;
+    }
+  }
+
+  private void decode(final int slot, final float[] out) {
+    final int offset = slot * dim;
+    switch (encoding) {
+      case INT8:
+        for (int d = 0; d < dim; d++) {
+          out[d] = int8Codes[offset + d] * scales[slot];
+        }
+        break;
+      case FP16:
+        for (int d = 0; d < dim; d++) {
+          out[d] = HALF_TO_FLOAT[halfCodes[offset + d] & 0xffff];
+        }
+        break;
+      default:
+        if (codebooks == null) {
+          System.arraycopy(pending, offset, out, 0, dim);
+        } else {
+          for (int m = 0; m < numSubVectors; m++) {
+            final int code = pqCodes[slot * numSubVectors + m] & 0xff;
+            System.arraycopy(
+                codebooks,
+                (m * CENTROIDS_PER_SUBSPACE + code) * subDim,
+                out,
+                m * subDim,
+                subDim);
+          }
+        }
+        break;
+    }
+  }
+
+  private float[] decodeAll() {
+    final float[] all = new float[size * dim];
+    for (int slot = 0; slot < size; slot++) {
+      decode(slot, scratch);
+      System.arraycopy(scratch, 0, all, slot * dim, dim);
+    }
+    return all;
+  }
+
+  private int nearestCode(
+      final float[] books, final int bookOffset, final float[] v, final int offset) {
+    int best = 0;
+    float bestDistance = Float.MAX_VALUE;
+    for (int c = 0; c < CENTROIDS_PER_SUBSPACE; c++) {
+      float distance = 0;
+      for (int d = 0; d < subDim; d++) {
+        final float diff = v[offset + d] - books[bookOffset + c * subDim + d];
+        distance += diff * diff;
+      }
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  private void move(final int from, final int to) {
+    switch (encoding) {
+      case INT8:
+        System.arraycopy(int8Codes, from * dim, int8Codes, to * dim, dim);
+        scales[to] = scales[from];
+        squaredNorms[to] = squaredNorms[from];
+        break;
+      case FP16:
+        System.arraycopy(halfCodes, from * dim, halfCodes, to * dim, dim);
+        break;
+      default:
+        if (codebooks == null) {
+          System.arraycopy(pending, from * dim, pending, to * dim, dim);
+        } else {
+          System.arraycopy(
+              pqCodes, from * numSubVectors, pqCodes, to * numSubVectors, numSubVectors);
+        }
+        break;
+    }
+  }
+
+  private void ensureCapacity(final int required) {
+    if (required <= labels.length) {
+      return;
+    }
+    final int capacity = Math.max(required, labels.length * 2);
+    labels = Arrays.copyOf(labels, capacity);
+    switch (encoding) {
+      case INT8:
+        int8Codes = Arrays.copyOf(int8Codes, capacity * dim);
+        scales = Arrays.copyOf(scales, capacity);
+        squaredNorms = Arrays.copyOf(squaredNorms, capacity);
+        break;
+      case FP16:
+        halfCodes = Arrays.copyOf(halfCodes, capacity * dim);
+        break;
+      default:
+        if (codebooks == null) {
+          pending = Arrays.copyOf(pending, capacity * dim);
+        } else {
+          pqCodes = Arrays.copyOf(pqCodes, capacity * numSubVectors);
+        }
+        break;
+    }
+  }
+
+  private void checkSlot(final int slot) {
+    if (slot < 0 || slot >= size) {
+      throw new IndexOutOfBoundsException("Slot " + slot + " out of range [0, " + size + ")");
+    }
+  }
+
+  // Half precision decoding table, indexed by the raw 16 bits.
+  private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+  static {
+    for (int h = 0; h < HALF_TO_FLOAT.length; h++) {
+      HALF_TO_FLOAT[h] = halfToFloat(h);
+    }
+  }
+
+  private static float halfToFloat(final int h) {
+    final int sign = (h & 0x8000) << 16;
+    final int exponent = (h >>> 10) & 0x1f;
+    final int mantissa = h & 0x3ff;
+    if (exponent == 0) {
+      // Zero or subnormal.
+      final float value = mantissa * (1.0f / (1 << 24));
+      return sign == 0 ? value : -value;
+    }
+    if (exponent == 0x1f) {
+      return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+    }
+    return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+  }
+
+  // Rounds to the nearest half precision value (ties to even).
+  static short toHalf(final float value) {
+    final int bits = Float.floatToIntBits(value);
+    final int sign = (bits >>> 16) & 0x8000;
+    final int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+    int mantissa = bits & 0x7fffff;
+    if (((bits >>> 23) & 0xff) == 0xff) {
+      // Infinity or NaN.
+      return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+    }
+    if (exponent >= 0x1f) {
+      return (short) (sign | 0x7c00);
+    }
+    if (exponent <= 0) {
+      if (exponent < -10) {
+        return (short) sign;
+      }
+      // Subnormal: shift in the implicit leading one.
+      mantissa |= 0x800000;
+      final int shift = 14 - exponent;
+      int half = mantissa >> shift;
+      final int remainder = mantissa & ((1 << shift) - 1);
+      final int midpoint = 1 << (shift - 1);
+      if (remainder > midpoint || (remainder == midpoint && (half & 1) != 0)) {
+        half++;
+      }
+      return (short) (sign | half);
+    }
+    int half = (exponent << 10) | (mantissa >> 13);
+    final int remainder = mantissa & 0x1fff;
+    if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+      // May carry into the exponent, which is the correct rounding.
+      half++;
+    }
+    return (short) (sign | half);
+  }
+}
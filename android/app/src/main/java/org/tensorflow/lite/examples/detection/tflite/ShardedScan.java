@@ -0,0 +1,129 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits a gallery scan into contiguous shards that run on a fixed worker pool.
+ *
+ * Each shard collects its own top-k, and the caller merges them. The calling thread scans the
+ * first shard itself, so numShards threads work on a query but only numShards - 1 pool threads
+ * exist.
+ */
+final class ShardedScan {
+
+  private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+  private final EmbeddingGallery gallery;
+  private final ExecutorService executor;
+  private final Shard[] shards;
+  private final Future<?>[] futures;
+
+  ShardedScan(final EmbeddingGallery gallery, final int numShards) {
+    if (numShards < 2) {
+      throw new IllegalArgumentException("A sharded scan needs at least 2 shards: " + numShards);
+    }
+    this.gallery = gallery;
+    this.shards = new Shard[numShards];
+    for (int i = 0; i < numShards; i++) {
+      shards[i] = new Shard();
+    }
+    this.futures = new Future<?>[numShards];
+    final int pool = POOL_COUNT.incrementAndGet();
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ThreadFactory factory =
+        r -> {
+          final String name = "gallery-scan-" + pool + "-" + threadCount.incrementAndGet();
+          final Thread t = new Thread(r, name);
+          t.setDaemon(true);
+          return t;
+        };
+    this.executor = Executors.newFixedThreadPool(numShards - 1, factory);
+  }
+
+  int getNumShards() {
+    return shards.length;
+  }
+
+  /**
+   * Offers the k closest of slots [0, size) to out, k being out.getK(). The gallery has already
+   * checked the query length. out is not sorted.
+   */
+  void scan(final float[] query, final int size, final NearestNeighbors out) {
+    final int k = out.getK();
+    final int chunk = (size + shards.length - 1) / shards.length;
+    for (int i = 0; i < shards.length; i++) {
+      final Shard shard = shards[i];
+      shard.query = query;
+      shard.from = Math.min(size, i * chunk);
+      shard.to = Math.min(size, shard.from + chunk);
+      if (shard.results == null || shard.results.capacity() < k) {
+        shard.results = new NearestNeighbors(k);
+      }
+      shard.results.reset(k);
+    }
+
+    try {
+      for (int i = 1; i < shards.length; i++) {
+        futures[i] = executor.submit(shards[i]);
+      }
+      shards[0].call();
+      for (int i = 1; i < shards.length; i++) {
+        futures[i].get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (final ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      for (int i = 1; i < shards.length; i++) {
+        if (futures[i] != null) {
+          futures[i].cancel(false);
+          futures[i] = null;
+        }
+      }
+    }
+
+    for (final Shard shard : shards) {
+      out.offerAll(shard.results);
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private final class Shard implements Callable<Void> {
+    float[] query;
+    int from;
+    int to;
+    NearestNeighbors results;
+
+    @Override
+    public Void call() {
+      gallery.scan(query, from, to, results);
+      return null;
+    }
+  }
+}
@@ -22,16 +22,56 @@ import android.text.TextUtils;
 import java.io.ByteArrayOutputStream;
 import java.util.Collections;
 import java.util.List;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
 
 /** Generic interface for interacting with different recognition engines. */
 public interface SimilarityClassifier {
 
   void register(String name, Recognition recognition);
 
+  /** The index holding the registered faces, e.g. to persist or bulk-load them. */
+  EmbeddingIndex getEmbeddingIndex();
+
+  /**
+   * Matches the face in bitmap against the registered ones.
+   *
+   * The returned list and its Recognitions may be recycled by the classifier and are only valid
+   * until the next recognizeImage call. With getExtra, each result carries a copy of the
+   * embedding (float[1][dim]) that belongs to the caller.
+   */
   List<Recognition> recognizeImage(Bitmap bitmap, boolean getExtra);
 
+  /**
+   * Like {@link #recognizeImage(Bitmap, boolean)}, but returns up to maxResults registered faces
+   * ordered from closest to farthest, e.g. to check the margin between the best and the second
+   * best candidate. With nothing registered the single unknown ("?") result is returned.
+   */
+  List<Recognition> recognizeImage(Bitmap bitmap, boolean getExtra, int maxResults);
+
+  /**
+   * Matches several faces at once, e.g. all faces of a frame, returning the closest registered face
+   * for each bitmap in order. Implementations may embed the faces with a single batched inference.
+   * Results are recycled like those of {@link #recognizeImage(Bitmap, boolean)}.
+   */
+  List<Recognition> recognizeImages(List<Bitmap> bitmaps, boolean getExtra);
+
+  /**
+   * Like {@link #recognizeImages(List, boolean)}, for faces given as inputSize * inputSize ARGB
+   * pixels (row by row) instead of bitmaps, e.g. sampled straight from the camera frame.
+   */
+  List<Recognition> recognizePixels(List<int[]> faces, boolean getExtra);
+
+  /**
+   * Records the latencies of preprocessing, inference and gallery search into metrics, e.g. a
+   * registry shared with the rest of the camera pipeline. Until then the classifier records into
+   * a registry of its own.
+   */
+  void setMetrics(PipelineMetrics metrics);
+
+  /** Whether to log {@link #getStatString()} now and then while recognizing. */
   void enableStatLogging(final boolean debug);
 
+  /** Summary of the metrics recorded so far, as {@link PipelineMetrics#toString()}. */
   String getStatString();
 
   void close();
@@ -40,7 +80,10 @@ public interface SimilarityClassifier {
 
   void setUseNNAPI(boolean isChecked);
 
-  /** An immutable result returned by a Classifier describing what was recognized. */
+  /**
+   * A result returned by a Classifier describing what was recognized. Results returned by
+   * recognizeImage are only valid until the next call; copy what must be kept.
+   */
   public class Recognition {
     /**
      * A unique identifier for what has been recognized. Specific to the class, not the instance of
@@ -49,12 +92,13 @@ public interface SimilarityClassifier {
     private final String id;
 
     /** Display name for the recognition. */
-    private final String title;
+    private String title;
 
     /**
      * A sortable score for how good the recognition is relative to others. Lower should be better.
+     * NaN when unknown.
      */
-    private final Float distance;
+    private float distance;
     private Object extra;
 
     /** Optional location within the source image for the location of the recognized object. */
@@ -66,7 +110,7 @@ public interface SimilarityClassifier {
             final String id, final String title, final Float distance, final RectF location) {
       this.id = id;
       this.title = title;
-      this.distance = distance;
+      this.distance = distance != null ? distance : Float.NaN;
       this.location = location;
       this.color = null;
       this.extra = null;
@@ -132,7 +176,16 @@ public interface SimilarityClassifier {
     }
 
     public Float getDistance() {
-      return distance;
+      return Float.isNaN(distance) ? null : distance;
+    }
+
+    /**
+     * Reuses this result for a new match, so that classifiers can recycle their results instead
+     * of allocating one per recognized face.
+     */
+    void set(final String title, final float distance) {
+      this.title = title;
+      this.distance = distance;
     }
 
     public RectF getLocation() {
@@ -154,7 +207,7 @@ public interface SimilarityClassifier {
         resultString += "title: " + title + "; ";
       }
 
-      if (distance != null) {
+      if (!Float.isNaN(distance)) {
         resultString += "distance: " + String.format("(%.1f%%) ", distance * 100.0f) + "; ";
         resultString += "distanceRaw: " + distance + "; ";
       }
@@ -15,29 +15,24 @@ limitations under the License.
 
 package org.tensorflow.lite.examples.detection.tflite;
 
-import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.os.Trace;
-import android.util.Pair;
+import android.util.Log;
 
 import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Vector;
-import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.embedding.EmbeddingEngine;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics.Stage;
 
 /**
  * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
@@ -56,59 +51,71 @@ public class TFLiteObjectDetectionAPIModel
   //private static final int OUTPUT_SIZE = 512;
   private static final int OUTPUT_SIZE = 192;
 
-  // Only return this many results.
-  private static final int NUM_DETECTIONS = 1;
-
-  // Float model
-  private static final float IMAGE_MEAN = 128.0f;
-  private static final float IMAGE_STD = 128.0f;
-
   // Number of threads in the java app
   private static final int NUM_THREADS = 4;
-  private boolean isModelQuantized;
-  // Config values.
-  private int inputSize;
-  // Pre-allocated buffers.
+  // Largest number of faces embedded by one batched inference; more faces take several runs.
+  private static final int MAX_BATCH = EmbeddingEngine.DEFAULT_MAX_BATCH_SIZE;
+  // Recognition calls between two logs of the stat string, when enabled.
+  private static final int STAT_LOG_INTERVAL = 100;
   private Vector<String> labels = new Vector<String>();
-  private int[] intValues;
-  // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
-  // contains the location of detected boxes
-  private float[][][] outputLocations;
-  // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
-  // contains the classes of detected boxes
-  private float[][] outputClasses;
-  // outputScores: array of shape [Batchsize, NUM_DETECTIONS]
-  // contains the scores of detected boxes
-  private float[][] outputScores;
-  // numDetections: array of shape [Batchsize]
-  // contains the number of detected boxes
-  private float[] numDetections;
-
-  private float[][] embeedings;
-
-  private ByteBuffer imgData;
-
-  private Interpreter tfLite;
-
-// Face Mask Detector Output
-  private float[][] output;
-
-  private HashMap<String, Recognition> registered = new HashMap<>();
+
+  // Runs the model; shared with VerifyMFN so that both compute the same embeddings.
+  private EmbeddingEngine engine;
+
+  // Enrolled embeddings. Exact, contiguous brute-force scan unless replaced with
+  // setEmbeddingIndex().
+  private EmbeddingIndex registered = newGallery();
+  // Receives the squared distance of the winner from the gallery scan.
+  private final float[] nearestDistance = new float[1];
+  // Reused top-k collector, grown on demand.
+  private NearestNeighbors neighbors;
+  // Results handed out by recognizeImage, recycled by the next call. Grown on demand.
+  private final ArrayList<Recognition> results = new ArrayList<>();
+  private Recognition[] recycled = new Recognition[0];
+
+  private final int[] batchSlots = new int[MAX_BATCH];
+  private final float[] batchDistances = new float[MAX_BATCH];
+
+  private PipelineMetrics metrics = new PipelineMetrics();
+  private boolean logStats = false;
+  private long recognitionCalls;
+
   public void register(String name, Recognition rec) {
-      registered.put(name, rec);
+      registered.put(name, ((float[][]) rec.getExtra())[0]);
   }
 
-  private TFLiteObjectDetectionAPIModel() {}
+  @Override
+  public EmbeddingIndex getEmbeddingIndex() {
+      return registered;
+  }
 
-  /** Memory-map the model file in Assets. */
-  private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
-      throws IOException {
-    AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
-    FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-    FileChannel fileChannel = inputStream.getChannel();
-    long startOffset = fileDescriptor.getStartOffset();
-    long declaredLength = fileDescriptor.getDeclaredLength();
-    return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+  /**
+   * Replaces the index used to match faces, e.g. with an {@link IvfIndex} for large galleries.
+   * Faces registered so far are copied into the new index. Training it ({@link IvfIndex#train()},
+   * {@link QuantizedIndex#train()}) is left to the caller.
+   */
+  public void setEmbeddingIndex(EmbeddingIndex index) {
+      if (index.getDimension() != OUTPUT_SIZE) {
+          throw new IllegalArgumentException(
+                  "Index dimension " + index.getDimension() + " != " + OUTPUT_SIZE);
+      }
+      final float[] vector = new float[OUTPUT_SIZE];
+      for (int slot = 0; slot < registered.size(); slot++) {
+          registered.getVector(slot, vector);
+          index.put(registered.getLabel(slot), vector);
+      }
+      registered.close();
+      registered = index;
+  }
+
+  // Use create(); package-private so that tests can drive recognize() without a model.
+  TFLiteObjectDetectionAPIModel() {}
+
+  // Exact gallery whose scan is sharded over NUM_THREADS threads once it gets large.
+  private static EmbeddingGallery newGallery() {
+    final EmbeddingGallery gallery = new EmbeddingGallery(OUTPUT_SIZE);
+    gallery.setParallelism(NUM_THREADS);
+    return gallery;
   }
 
   /**
@@ -140,171 +147,191 @@ public class TFLiteObjectDetectionAPIModel
     }
     br.close();
 
-    d.inputSize = inputSize;
-
-    try {
-      d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
-
-    d.isModelQuantized = isQuantized;
-    // Pre-allocate buffers.
-    int numBytesPerChannel;
-    if (isQuantized) {
-      numBytesPerChannel = 1; // Quantized
-    } else {
-      numBytesPerChannel = 4; // Floating point
-    }
-    d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-    d.imgData.order(ByteOrder.nativeOrder());
-    d.intValues = new int[d.inputSize * d.inputSize];
-
-    d.tfLite.setNumThreads(NUM_THREADS);
-    d.outputLocations = new float[1][NUM_DETECTIONS][4];
-    d.outputClasses = new float[1][NUM_DETECTIONS];
-    d.outputScores = new float[1][NUM_DETECTIONS];
-    d.numDetections = new float[1];
+    d.engine = EmbeddingEngine.create(
+        assetManager,
+        modelFilename,
+        inputSize,
+        OUTPUT_SIZE,
+        new EmbeddingEngine.Options()
+            .setQuantized(isQuantized)
+            .setNumThreads(NUM_THREADS)
+            .setMaxBatchSize(MAX_BATCH));
     return d;
   }
 
-  // looks for the nearest embeeding in the dataset (using L2 norm)
-  // and retrurns the pair <id, distance>
-  private Pair<String, Float> findNearest(float[] emb) {
-
-    Pair<String, Float> ret = null;
-    for (Map.Entry<String, Recognition> entry : registered.entrySet()) {
-        final String name = entry.getKey();
-        final float[] knownEmb = ((float[][]) entry.getValue().getExtra())[0];
-
-        float distance = 0;
-        for (int i = 0; i < emb.length; i++) {
-              float diff = emb[i] - knownEmb[i];
-              distance += diff*diff;
-        }
-        distance = (float) Math.sqrt(distance);
-        if (ret == null || distance < ret.second) {
-            ret = new Pair<>(name, distance);
-        }
-    }
-
-    return ret;
-
-  }
-
-
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap, boolean storeExtra) {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
-    Trace.beginSection("preprocessBitmap");
-    // Preprocess the image data from 0-255 int to normalized float based
-    // on the provided parameters.
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-    imgData.rewind();
-    for (int i = 0; i < inputSize; ++i) {
-      for (int j = 0; j < inputSize; ++j) {
-        int pixelValue = intValues[i * inputSize + j];
-        if (isModelQuantized) {
-          // Quantized model
-          imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-          imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-          imgData.put((byte) (pixelValue & 0xFF));
-        } else { // Float model
-          imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-        }
-      }
-    }
-    Trace.endSection(); // preprocessBitmap
-
-    // Copy the input data into TensorFlow.
-    Trace.beginSection("feed");
-
-
-    Object[] inputArray = {imgData};
+    final float[] embedding = engine.embed(bitmap);
+    recordEmbedding();
+    final List<Recognition> recognitions = recognize(embedding, storeExtra, 1);
+    maybeLogStats();
 
     Trace.endSection();
+    return recognitions;
+  }
 
-// Here outputMap is changed to fit the Face Mask detector
-    Map<Integer, Object> outputMap = new HashMap<>();
-
-    embeedings = new float[1][OUTPUT_SIZE];
-    outputMap.put(0, embeedings);
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap, boolean storeExtra, int maxResults) {
+    if (maxResults <= 0) {
+      throw new IllegalArgumentException("maxResults must be positive: " + maxResults);
+    }
+    Trace.beginSection("recognizeImageTopK");
 
+    final float[] embedding = engine.embed(bitmap);
+    recordEmbedding();
+    final List<Recognition> recognitions = recognize(embedding, storeExtra, maxResults);
+    maybeLogStats();
 
-    // Run the inference call.
-    Trace.beginSection("run");
-    //tfLite.runForMultipleInputsOutputs(inputArray, outputMapBack);
-    tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
     Trace.endSection();
+    return recognitions;
+  }
 
-//    String res = "[";
-//    for (int i = 0; i < embeedings[0].length; i++) {
-//      res += embeedings[0][i];
-//      if (i < embeedings[0].length - 1) res += ", ";
-//    }
-//    res += "]";
-
-
-    float distance = Float.MAX_VALUE;
-    String id = "0";
-    String label = "?";
-
-    if (registered.size() > 0) {
-        //LOGGER.i("dataset SIZE: " + registered.size());
-        final Pair<String, Float> nearest = findNearest(embeedings[0]);
-        if (nearest != null) {
+  /**
+   * Matches an embedding against the registered faces and returns up to maxResults recycled
+   * results, closest first, or the single unknown ("?") result when nothing is registered. Does
+   * not allocate once the recycled results have grown, unless storeExtra asks for a copy of the
+   * embedding.
+   */
+  List<Recognition> recognize(final float[] embedding, boolean storeExtra, int maxResults) {
+    final long searchStart = System.nanoTime();
+    results.clear();
+    if (maxResults == 1 || registered.size() == 0) {
+      // looks for the nearest embeeding in the dataset (using L2 norm)
+      final int slot = registered.findNearest(embedding, nearestDistance);
+      if (slot >= 0) {
+        // Only the winner needs the square root.
+        final float distance = (float) Math.sqrt(nearestDistance[0]);
+        addResult(registered.getLabel(slot), distance);
+        if (LOGGER.isLoggable(Log.VERBOSE)) {
+          LOGGER.v("nearest: " + registered.getLabel(slot) + " - distance: " + distance);
+        }
+      } else {
+        addResult("?", Float.MAX_VALUE);
+      }
+    } else {
+      // the k nearest embeedings, closest first
+      if (neighbors == null || neighbors.capacity() < maxResults) {
+        neighbors = new NearestNeighbors(maxResults);
+      }
+      neighbors.reset(maxResults);
+      registered.findNearest(embedding, neighbors);
+      for (int i = 0; i < neighbors.size(); i++) {
+        final float distance = (float) Math.sqrt(neighbors.getDistance(i));
+        addResult(registered.getLabel(neighbors.getSlot(i)), distance);
+      }
+    }
 
-            final String name = nearest.first;
-            label = name;
-            distance = nearest.second;
+    metrics.record(Stage.SEARCH, System.nanoTime() - searchStart);
 
-            LOGGER.i("nearest: " + name + " - distance: " + distance);
+    // The output buffer is overwritten by the next run, so callers get their own copy.
+    final Object extra = storeExtra ? new float[][] {embedding.clone()} : null;
+    for (int i = 0; i < results.size(); i++) {
+      results.get(i).setExtra(extra);
+    }
+    return results;
+  }
 
+  @Override
+  public List<Recognition> recognizeImages(final List<Bitmap> bitmaps, boolean storeExtra) {
+    Trace.beginSection("recognizeImages");
+    results.clear();
+    for (int start = 0; start < bitmaps.size(); start += MAX_BATCH) {
+      final int count = Math.min(MAX_BATCH, bitmaps.size() - start);
+      final float[][] embeddings = engine.embed(bitmaps, start, count);
+      recordEmbedding();
+      matchBatch(embeddings, count, storeExtra);
+    }
+    maybeLogStats();
+    Trace.endSection();
+    return results;
+  }
 
-        }
+  @Override
+  public List<Recognition> recognizePixels(final List<int[]> faces, boolean storeExtra) {
+    Trace.beginSection("recognizePixels");
+    results.clear();
+    for (int start = 0; start < faces.size(); start += MAX_BATCH) {
+      final int count = Math.min(MAX_BATCH, faces.size() - start);
+      final float[][] embeddings = engine.embedPixels(faces, start, count);
+      recordEmbedding();
+      matchBatch(embeddings, count, storeExtra);
     }
+    maybeLogStats();
+    Trace.endSection();
+    return results;
+  }
 
+  // Adds the closest registered face of each of embeddings[0, count) to results.
+  private void matchBatch(final float[][] embeddings, final int count, boolean storeExtra) {
+    // All faces of the batch are matched in one pass over the gallery.
+    final long searchStart = System.nanoTime();
+    registered.findNearest(embeddings, count, batchSlots, batchDistances);
+    metrics.record(Stage.SEARCH, System.nanoTime() - searchStart);
+    for (int i = 0; i < count; i++) {
+      final int slot = batchSlots[i];
+      final Recognition rec = slot >= 0
+          ? addResult(registered.getLabel(slot), (float) Math.sqrt(batchDistances[i]))
+          : addResult("?", Float.MAX_VALUE);
+      rec.setExtra(storeExtra ? new float[][] {embeddings[i].clone()} : null);
+    }
+  }
 
-    final int numDetectionsOutput = 1;
-    final ArrayList<Recognition> recognitions = new ArrayList<>(numDetectionsOutput);
-    Recognition rec = new Recognition(
-            id,
-            label,
-            distance,
-            new RectF());
+  private Recognition addResult(final String label, final float distance) {
+    final int i = results.size();
+    if (i == recycled.length) {
+      recycled = Arrays.copyOf(recycled, i + 1);
+      recycled[i] = new Recognition("0", label, distance, new RectF());
+    } else {
+      recycled[i].set(label, distance);
+    }
+    results.add(recycled[i]);
+    return recycled[i];
+  }
 
-    recognitions.add( rec );
+  // Records the latencies of the engine's last run.
+  private void recordEmbedding() {
+    metrics.record(Stage.PREPROCESS, engine.getLastPreprocessNanos());
+    metrics.record(Stage.INFERENCE, engine.getLastRunNanos());
+  }
 
-    if (storeExtra) {
-        rec.setExtra(embeedings);
+  private void maybeLogStats() {
+    if (logStats && ++recognitionCalls % STAT_LOG_INTERVAL == 0) {
+      LOGGER.i("Stats:\n%s", getStatString());
     }
+  }
 
-    Trace.endSection();
-    return recognitions;
+  @Override
+  public void setMetrics(final PipelineMetrics metrics) {
+    this.metrics = metrics;
   }
 
   @Override
-  public void enableStatLogging(final boolean logStats) {}
+  public void enableStatLogging(final boolean logStats) {
+    this.logStats = logStats;
+  }
 
   @Override
   public String getStatString() {
-    return "";
+    return metrics.toString();
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    registered.close();
+    if (engine != null) {
+      engine.close();
+    }
+  }
 
   public void setNumThreads(int num_threads) {
-    if (tfLite != null) tfLite.setNumThreads(num_threads);
+    if (engine != null) engine.setNumThreads(num_threads);
   }
 
   @Override
   public void setUseNNAPI(boolean isChecked) {
-    if (tfLite != null) tfLite.setUseNNAPI(isChecked);
+    if (engine != null) engine.setUseNNAPI(isChecked);
   }
 }
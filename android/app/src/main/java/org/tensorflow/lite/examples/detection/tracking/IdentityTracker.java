@@ -0,0 +1,304 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Follows face boxes from frame to frame and caches the identity recognized for each, so that a
+ * face does not have to be embedded again on every frame.
+ *
+ * Each frame's boxes are matched to the tracks of the previous frames by overlap (IoU), or, for
+ * faces that moved too fast to overlap, by the distance of their centers. A matched box keeps its
+ * track and the track's cached identity; a box without a match starts a new track. A track
+ * {@link Track#needsEmbedding() needs embedding} when it has no identity yet, every
+ * refreshInterval frames, when its box moved or changed size noticeably since it was last embedded,
+ * or when its distance was too close to the recognition threshold to be trusted.
+ *
+ * Boxes are {left, top, right, bottom} arrays. Not thread-safe.
+ *
+ * @param <T> the cached identity.
+ */
+public final class IdentityTracker<T> {
+
+  public static final float DEFAULT_MIN_IOU = 0.3f;
+  public static final float DEFAULT_MAX_CENTER_SHIFT = 0.5f;
+  public static final int DEFAULT_REFRESH_INTERVAL = 10;
+  public static final float DEFAULT_MAX_MOVEMENT = 0.15f;
+  public static final float DEFAULT_MAX_SCALE_CHANGE = 0.2f;
+  public static final int DEFAULT_MAX_MISSED_FRAMES = 2;
+
+  /** A face followed across frames. */
+  public static final class Track<T> {
+    private final int id;
+    private final float[] box = new float[4];
+    // Box at the last embedding.
+    private final float[] embeddedBox = new float[4];
+    private T identity;
+    private float distance = Float.NaN;
+    private int framesSinceEmbedding;
+    private int missedFrames;
+    private boolean stale = true;
+
+    private Track(final int id, final float[] box) {
+      this.id = id;
+      System.arraycopy(box, 0, this.box, 0, 4);
+    }
+
+    /** Identifies the track for as long as it lives; ids are not reused. */
+    public int getId() {
+      return id;
+    }
+
+    /** Box in the latest frame. */
+    public float[] getBox() {
+      return box;
+    }
+
+    /** Identity set at the last embedding, or null if the face was never embedded. */
+    public T getIdentity() {
+      return identity;
+    }
+
+    /** Distance set at the last embedding, NaN if none. */
+    public float getDistance() {
+      return distance;
+    }
+
+    /** Frames since the last embedding. */
+    public int getFramesSinceEmbedding() {
+      return framesSinceEmbedding;
+    }
+
+    /** Whether the face should be embedded on this frame instead of reusing the identity. */
+    public boolean needsEmbedding() {
+      return stale;
+    }
+
+    /** Records the result of embedding the face on the current frame. */
+    public void setIdentity(final T identity, final float distance) {
+      this.identity = identity;
+      this.distance = distance;
+      System.arraycopy(box, 0, embeddedBox, 0, 4);
+      framesSinceEmbedding = 0;
+      stale = false;
+    }
+  }
+
+  private float minIou = DEFAULT_MIN_IOU;
+  private float maxCenterShift = DEFAULT_MAX_CENTER_SHIFT;
+  private int refreshInterval = DEFAULT_REFRESH_INTERVAL;
+  private float maxMovement = DEFAULT_MAX_MOVEMENT;
+  private float maxScaleChange = DEFAULT_MAX_SCALE_CHANGE;
+  private float threshold = Float.NaN;
+  private float margin;
+  private int maxMissedFrames = DEFAULT_MAX_MISSED_FRAMES;
+
+  private final List<Track<T>> tracks = new ArrayList<>();
+  private int nextId = 1;
+  private long embeddings;
+  private long reuses;
+
+  /**
+   * Boxes overlapping a track's by at least minIou match it. Boxes that overlap less match if
+   * their center is within maxCenterShift times the track's box size from the track's center.
+   */
+  public IdentityTracker<T> setMatching(final float minIou, final float maxCenterShift) {
+    this.minIou = minIou;
+    this.maxCenterShift = maxCenterShift;
+    return this;
+  }
+
+  /** Re-embeds every face at least once every refreshInterval frames. */
+  public IdentityTracker<T> setRefreshInterval(final int refreshInterval) {
+    this.refreshInterval = Math.max(1, refreshInterval);
+    return this;
+  }
+
+  /**
+   * Re-embeds a face when its center moved by more than maxMovement times its size, or its size
+   * changed by more than maxScaleChange (as a fraction), since it was last embedded.
+   */
+  public IdentityTracker<T> setMaxChange(final float maxMovement, final float maxScaleChange) {
+    this.maxMovement = maxMovement;
+    this.maxScaleChange = maxScaleChange;
+    return this;
+  }
+
+  /** Re-embeds on every frame a face whose distance was within margin of threshold. */
+  public IdentityTracker<T> setMarginalDistance(final float threshold, final float margin) {
+    this.threshold = threshold;
+    this.margin = margin;
+    return this;
+  }
+
+  /** Forgets a track once its face was missing from more than maxMissedFrames frames in a row. */
+  public IdentityTracker<T> setMaxMissedFrames(final int maxMissedFrames) {
+    this.maxMissedFrames = maxMissedFrames;
+    return this;
+  }
+
+  /**
+   * Matches the boxes of a new frame to the tracks.
+   *
+   * @return the track of each box, in the order of boxes. A box matches at most one track.
+   */
+  public List<Track<T>> update(final List<float[]> boxes) {
+    final int numBoxes = boxes.size();
+    final int numTracks = tracks.size();
+    final List<Track<T>> assigned = new ArrayList<>(numBoxes);
+    for (int b = 0; b < numBoxes; b++) {
+      assigned.add(null);
+    }
+
+    // Candidate pairs, best first: greedy matching is enough for the handful of faces in view.
+    // Center matches rank below any overlap match.
+    final List<float[]> pairs = new ArrayList<>();
+    for (int t = 0; t < numTracks; t++) {
+      final float[] trackBox = tracks.get(t).box;
+      for (int b = 0; b < numBoxes; b++) {
+        final float[] box = boxes.get(b);
+        final float iou = iou(trackBox, box);
+        if (iou >= minIou) {
+          pairs.add(new float[] {1 + iou, t, b});
+        } else {
+          final float shift = centerShift(trackBox, box);
+          if (shift <= maxCenterShift) {
+            pairs.add(new float[] {1 - shift / (maxCenterShift + 1), t, b});
+          }
+        }
+      }
+    }
+    // Collections.sort, not List.sort: the latter needs API 24 and minSdkVersion is 21.
+    Collections.sort(pairs, (p, q) -> Float.compare(q[0], p[0]));
+
+    final boolean[] matched = new boolean[numTracks];
+    for (final float[] pair : pairs) {
+      final int t = (int) pair[1];
+      final int b = (int) pair[2];
+      if (matched[t] || assigned.get(b) != null) {
+        continue;
+      }
+      matched[t] = true;
+      final Track<T> track = tracks.get(t);
+      System.arraycopy(boxes.get(b), 0, track.box, 0, 4);
+      track.missedFrames = 0;
+      track.framesSinceEmbedding++;
+      track.stale |= isStale(track);
+      assigned.set(b, track);
+    }
+
+    final Iterator<Track<T>> it = tracks.iterator();
+    for (int t = 0; t < numTracks; t++) {
+      final Track<T> track = it.next();
+      if (!matched[t] && ++track.missedFrames > maxMissedFrames) {
+        it.remove();
+      }
+    }
+
+    for (int b = 0; b < numBoxes; b++) {
+      if (assigned.get(b) == null) {
+        final Track<T> track = new Track<>(nextId++, boxes.get(b));
+        tracks.add(track);
+        assigned.set(b, track);
+      }
+    }
+
+    for (final Track<T> track : assigned) {
+      if (track.stale) {
+        embeddings++;
+      } else {
+        reuses++;
+      }
+    }
+    return assigned;
+  }
+
+  /**
+   * Makes every track re-embed its face on the next frame, e.g. because the gallery changed and
+   * cached identities may be outdated. The identities are kept until then.
+   */
+  public void invalidate() {
+    for (final Track<T> track : tracks) {
+      track.stale = true;
+    }
+  }
+
+  /** Forgets all tracks. */
+  public void clear() {
+    tracks.clear();
+  }
+
+  public int getTrackCount() {
+    return tracks.size();
+  }
+
+  /** Faces returned by update() that needed embedding. */
+  public long getEmbeddingCount() {
+    return embeddings;
+  }
+
+  /** Faces returned by update() that reused their cached identity. */
+  public long getReuseCount() {
+    return reuses;
+  }
+
+  private boolean isStale(final Track<T> track) {
+    if (track.identity == null || track.framesSinceEmbedding >= refreshInterval) {
+      return true;
+    }
+    if (Math.abs(track.distance - threshold) < margin) {
+      return true;
+    }
+    final float[] then = track.embeddedBox;
+    final float[] now = track.box;
+    if (centerShift(then, now) > maxMovement) {
+      return true;
+    }
+    final float scale = (width(now) + height(now)) / Math.max(1e-6f, width(then) + height(then));
+    return Math.abs(scale - 1) > maxScaleChange;
+  }
+
+  static float iou(final float[] a, final float[] b) {
+    final float w = Math.min(a[2], b[2]) - Math.max(a[0], b[0]);
+    final float h = Math.min(a[3], b[3]) - Math.max(a[1], b[1]);
+    if (w <= 0 || h <= 0) {
+      return 0;
+    }
+    final float intersection = w * h;
+    return intersection / (width(a) * height(a) + width(b) * height(b) - intersection);
+  }
+
+  // Distance between the centers of a and b, relative to the size of a.
+  static float centerShift(final float[] a, final float[] b) {
+    final float dx = (b[0] + b[2] - a[0] - a[2]) / 2;
+    final float dy = (b[1] + b[3] - a[1] - a[3]) / 2;
+    final float size = Math.max(1e-6f, Math.max(width(a), height(a)));
+    return (float) Math.sqrt(dx * dx + dy * dy) / size;
+  }
+
+  private static float width(final float[] box) {
+    return box[2] - box[0];
+  }
+
+  private static float height(final float[] box) {
+    return box[3] - box[1];
+  }
+
+}
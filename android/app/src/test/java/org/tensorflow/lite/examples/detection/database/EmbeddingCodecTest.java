@@ -0,0 +1,40 @@
+package org.tensorflow.lite.examples.detection.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class EmbeddingCodecTest {
+
+  @Test
+  public void blobRoundTrips() {
+    final float[] embedding = {0f, -1.5f, 3.25e-7f, Float.MAX_VALUE, Float.MIN_VALUE};
+    final byte[] blob = EmbeddingCodec.encode(embedding);
+    assertEquals(embedding.length * 4, blob.length);
+    assertArrayEquals(embedding, EmbeddingCodec.decode(blob), 0f);
+  }
+
+  @Test
+  public void blobIsLittleEndian() {
+    final byte[] blob = EmbeddingCodec.encode(new float[] {1f});
+    // 1.0f == 0x3f800000
+    assertArrayEquals(new byte[] {0, 0, (byte) 0x80, 0x3f}, blob);
+  }
+
+  @Test
+  public void parsesVersion1Rows() {
+    final String face =
+        "id: 0; title: ?; distance: (0.0%) ; distanceRaw: 0.0; "
+            + "location: RectF(0.0, 0.0, 112.0, 112.0); extra: 0.5,-0.25,1.0E-4,; ";
+    assertArrayEquals(
+        new float[] {0.5f, -0.25f, 1.0e-4f}, EmbeddingCodec.parseLegacy(face), 0f);
+  }
+
+  @Test
+  public void version1RowWithoutEmbeddingIsNull() {
+    assertNull(EmbeddingCodec.parseLegacy("id: 0; title: ?; "));
+    assertNull(EmbeddingCodec.parseLegacy(null));
+  }
+}
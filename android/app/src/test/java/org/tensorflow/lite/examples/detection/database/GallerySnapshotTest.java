@@ -0,0 +1,107 @@
+package org.tensorflow.lite.examples.detection.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.tflite.EmbeddingGallery;
+
+public class GallerySnapshotTest {
+
+  private static final int DIM = 192;
+  private static final String MODEL = "MFN.01";
+
+  private File file;
+  private EmbeddingGallery gallery;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("gallery", ".snapshot");
+    file.deleteOnExit();
+    final Random random = new Random(3);
+    gallery = new EmbeddingGallery(DIM);
+    for (int i = 0; i < 500; i++) {
+      final float[] v = new float[DIM];
+      for (int d = 0; d < DIM; d++) {
+        v[d] = (float) random.nextGaussian();
+      }
+      gallery.put(i % 7 == 0 ? "pers\u00f6n " + i : "face" + i, v);
+    }
+    GallerySnapshot.save(file, MODEL, 520, 611, gallery);
+  }
+
+  @Test
+  public void roundTrips() {
+    final EmbeddingGallery loaded = new EmbeddingGallery(DIM);
+    assertTrue(GallerySnapshot.load(file, MODEL, 520, 611, loaded));
+    assertEquals(gallery.size(), loaded.size());
+    final float[] expected = new float[DIM];
+    final float[] actual = new float[DIM];
+    for (int slot = 0; slot < gallery.size(); slot++) {
+      assertEquals(gallery.getLabel(slot), loaded.getLabel(slot));
+      gallery.getVector(slot, expected);
+      loaded.getVector(slot, actual);
+      assertArrayEquals(expected, actual, 0f);
+    }
+  }
+
+  @Test
+  public void roundTripsLabelsLongerThanTheWriteBuffer() throws IOException {
+    final StringBuilder name = new StringBuilder();
+    while (name.length() < 100 * 1024) {
+      name.append("long name ");
+    }
+    final EmbeddingGallery saved = new EmbeddingGallery(DIM);
+    saved.put("a", new float[DIM]);
+    saved.put(name.toString(), new float[DIM]);
+    saved.put("b\u00e9", new float[DIM]);
+    GallerySnapshot.save(file, MODEL, 3, 3, saved);
+
+    final EmbeddingGallery loaded = new EmbeddingGallery(DIM);
+    assertTrue(GallerySnapshot.load(file, MODEL, 3, 3, loaded));
+    assertEquals(name.toString(), loaded.getLabel(1));
+    assertEquals("b\u00e9", loaded.getLabel(2));
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+  }
+
+  @Test
+  public void rejectsOtherModel() {
+    final EmbeddingGallery loaded = new EmbeddingGallery(DIM);
+    assertFalse(GallerySnapshot.load(file, "MFN.02", 520, 611, loaded));
+    assertEquals(0, loaded.size());
+  }
+
+  @Test
+  public void rejectsChangedTable() {
+    final EmbeddingGallery loaded = new EmbeddingGallery(DIM);
+    assertFalse(GallerySnapshot.load(file, MODEL, 521, 612, loaded));
+    assertFalse(GallerySnapshot.load(file, MODEL, 520, 612, loaded));
+    assertEquals(0, loaded.size());
+  }
+
+  @Test
+  public void rejectsCorruptedFile() throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(raf.length() / 2);
+      final int b = raf.read();
+      raf.seek(raf.length() / 2);
+      raf.write(b ^ 0x10);
+    }
+    final EmbeddingGallery loaded = new EmbeddingGallery(DIM);
+    assertFalse(GallerySnapshot.load(file, MODEL, 520, 611, loaded));
+    assertEquals(0, loaded.size());
+  }
+
+  @Test
+  public void missingFileIsNotLoaded() {
+    assertFalse(GallerySnapshot.load(
+        new File(file.getPath() + ".missing"), MODEL, 520, 611, new EmbeddingGallery(DIM)));
+  }
+}
@@ -0,0 +1,148 @@
+package org.tensorflow.lite.examples.detection.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class LegacyFaceMigrationTest {
+
+  // Rows per cursor window. A real 2 MB window holds on the order of a thousand version 1 rows.
+  private static final int WINDOW = 64;
+  private static final int ROWS = 10 * WINDOW + 7;
+  private static final String[] MALFORMED = {
+    null, "id: 0; title: ?; ", "id: 0; extra: ,; ", "id: 0; extra: 0.5,oops,; "
+  };
+
+  @Test
+  public void migratesEveryRowPastTheFirstWindow() {
+    final FakeTable table = new FakeTable();
+    final Map<Long, float[]> expected = new TreeMap<>();
+    for (long id = 1; id <= ROWS; id++) {
+      if (id % 5 == 0) {
+        table.text.put(id, MALFORMED[(int) (id / 5) % MALFORMED.length]);
+      } else {
+        final float[] embedding = {id, -0.5f, 1.0e-4f * id};
+        expected.put(id, embedding);
+        table.text.put(id, "id: 0; title: ?; distance: (0.0%) ; extra: " + join(embedding));
+      }
+    }
+
+    final int[] counts = LegacyFaceMigration.run(table);
+
+    assertEquals(expected.size(), counts[0]);
+    assertEquals(ROWS - expected.size(), counts[1]);
+    assertEquals(expected.keySet(), table.blobs.keySet());
+    for (final Map.Entry<Long, float[]> entry : expected.entrySet()) {
+      assertNull(table.text.get(entry.getKey()));
+      assertArrayEquals(
+          entry.getValue(), EmbeddingCodec.decode(table.blobs.get(entry.getKey())), 0f);
+    }
+    // Malformed rows are gone, and so is every text that was migrated.
+    assertEquals(expected.keySet(), table.text.keySet());
+  }
+
+  @Test
+  public void emptyTableMigratesNothing() {
+    final FakeTable table = new FakeTable();
+    assertArrayEquals(new int[] {0, 0}, LegacyFaceMigration.run(table));
+    assertTrue(table.closed);
+  }
+
+  // Guards the fake: changing rows under its cursor loses rows, like a SQLite cursor does.
+  @Test
+  public void fakeCursorSkipsRowsDeletedUnderIt() {
+    final FakeTable table = new FakeTable();
+    for (long id = 1; id <= 3 * WINDOW; id++) {
+      table.text.put(id, "");
+    }
+    int seen = 0;
+    try (LegacyFaceMigration.Rows rows = table.query()) {
+      while (rows.moveToNext()) {
+        table.delete(rows.getId());
+        seen++;
+      }
+    }
+    assertTrue(seen < 3 * WINDOW);
+    assertFalse(table.text.isEmpty());
+  }
+
+  private static String join(final float[] values) {
+    final StringBuilder sb = new StringBuilder();
+    for (final float value : values) {
+      sb.append(value).append(',');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Faces table whose cursor holds WINDOW rows at a time and refills its window by re-running the
+   * query from its current position, as SQLiteCursor does.
+   */
+  private static final class FakeTable implements LegacyFaceMigration.Table {
+    // The face column of each row; null for a migrated row.
+    final TreeMap<Long, String> text = new TreeMap<>();
+    final TreeMap<Long, byte[]> blobs = new TreeMap<>();
+    boolean closed;
+
+    @Override
+    public LegacyFaceMigration.Rows query() {
+      return new LegacyFaceMigration.Rows() {
+        private final List<Map.Entry<Long, String>> window = new ArrayList<>();
+        private int windowStart;
+        private int position = -1;
+
+        @Override
+        public boolean moveToNext() {
+          position++;
+          if (position >= windowStart + window.size()) {
+            window.clear();
+            windowStart = position;
+            final List<Map.Entry<Long, String>> all = new ArrayList<>(text.entrySet());
+            for (int i = position; i < Math.min(all.size(), position + WINDOW); i++) {
+              window.add(new AbstractMap.SimpleImmutableEntry<>(all.get(i)));
+            }
+          }
+          return position < windowStart + window.size();
+        }
+
+        @Override
+        public long getId() {
+          return window.get(position - windowStart).getKey();
+        }
+
+        @Override
+        public String getFace() {
+          return window.get(position - windowStart).getValue();
+        }
+
+        @Override
+        public void close() {
+          closed = true;
+        }
+      };
+    }
+
+    @Override
+    public void update(final long id, final byte[] embedding) {
+      assertNotNull(embedding);
+      blobs.put(id, embedding);
+      text.put(id, null);
+    }
+
+    @Override
+    public void delete(final long id) {
+      text.remove(id);
+      blobs.remove(id);
+    }
+  }
+}
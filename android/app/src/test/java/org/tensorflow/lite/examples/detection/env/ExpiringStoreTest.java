@@ -0,0 +1,64 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ExpiringStoreTest {
+
+  @Test
+  public void evictsLeastRecentlyAccessed() {
+    final ExpiringStore<String, Integer> store = new ExpiringStore<>(2, 1000);
+    store.put("a", 1, 0);
+    store.put("b", 2, 1);
+    assertEquals(Integer.valueOf(1), store.get("a", 2));
+    store.put("c", 3, 3);
+    assertNull(store.get("b", 4));
+    assertEquals(Integer.valueOf(1), store.get("a", 4));
+    assertEquals(Integer.valueOf(3), store.get("c", 4));
+    assertEquals(2, store.size());
+    assertEquals(1, store.getEvictedCount());
+  }
+
+  @Test
+  public void replacingKeepsSize() {
+    final ExpiringStore<String, Integer> store = new ExpiringStore<>(2, 1000);
+    store.put("a", 1, 0);
+    assertEquals(Integer.valueOf(1), store.put("a", 2, 1));
+    store.put("b", 3, 2);
+    assertEquals(2, store.size());
+    assertEquals(0, store.getEvictedCount());
+    assertEquals(Integer.valueOf(2), store.remove("a"));
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  public void expiresIdleEntries() {
+    final ExpiringStore<String, Integer> store = new ExpiringStore<>(10, 100);
+    store.put("a", 1, 0);
+    store.put("b", 2, 50);
+    // Accessing a keeps it alive.
+    assertEquals(Integer.valueOf(1), store.get("a", 100));
+    assertEquals(0, store.expire(150));
+    assertEquals(1, store.expire(151));
+    assertNull(store.get("b", 151));
+    assertEquals(1, store.size());
+    assertNull(store.get("a", 201));
+    assertEquals(0, store.size());
+    assertEquals(2, store.getExpiredCount());
+    assertEquals(0, store.getEvictedCount());
+  }
+
+  @Test
+  public void sizeStaysBoundedUnderChurn() {
+    final ExpiringStore<Integer, Integer> store = new ExpiringStore<>(16, 500);
+    for (int i = 0; i < 100_000; i++) {
+      store.put(i, i, i * 10L);
+      store.get(i / 2, i * 10L);
+      assertTrue(store.size() <= 16);
+    }
+    assertEquals(100_000, store.size() + store.getEvictedCount() + store.getExpiredCount());
+  }
+}
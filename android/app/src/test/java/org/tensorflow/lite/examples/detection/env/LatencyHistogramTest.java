@@ -0,0 +1,82 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  private static final long SECOND = 1000000000L;
+
+  @Test
+  public void bucketsCoverEveryValueOnce() {
+    long previousHighest = -1;
+    for (int index = 0; index < LatencyHistogram.indexOf(SECOND); index++) {
+      final long highest = LatencyHistogram.highestValueOf(index);
+      assertEquals(index, LatencyHistogram.indexOf(previousHighest + 1));
+      assertEquals(index, LatencyHistogram.indexOf(highest));
+      previousHighest = highest;
+    }
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    final LatencyHistogram histogram = new LatencyHistogram(SECOND);
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(50, histogram.getValueAtPercentile(50));
+    assertEquals(99, histogram.getValueAtPercentile(99));
+    assertEquals(100, histogram.getValueAtPercentile(100));
+    assertEquals(1, histogram.getValueAtPercentile(0));
+    assertEquals(50.5, histogram.getMean(), 1e-9);
+  }
+
+  @Test
+  public void percentilesStayWithinTheRelativePrecision() {
+    final Random random = new Random(11);
+    final long[] values = new long[10000];
+    final LatencyHistogram histogram = new LatencyHistogram(SECOND);
+    for (int i = 0; i < values.length; i++) {
+      // Log-normal around 5 ms, like inference latencies.
+      values[i] = (long) (5e6 * Math.exp(0.5 * random.nextGaussian()));
+      histogram.record(values[i]);
+    }
+    Arrays.sort(values);
+    for (final double percentile : new double[] {50, 95, 99, 99.9}) {
+      final long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+      final long reported = histogram.getValueAtPercentile(percentile);
+      assertTrue(percentile + ": " + reported + " < " + exact, reported >= exact);
+      assertTrue(percentile + ": " + reported + " vs " + exact, reported <= exact * 1.016);
+    }
+    assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    assertEquals(values[0], histogram.getMin());
+  }
+
+  @Test
+  public void clampsOutOfRangeValues() {
+    final LatencyHistogram histogram = new LatencyHistogram(1000);
+    histogram.record(-5);
+    histogram.record(5000);
+    assertEquals(2, histogram.getCount());
+    assertEquals(0, histogram.getMin());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(1000, histogram.getValueAtPercentile(99));
+  }
+
+  @Test
+  public void emptyAndResetReportZero() {
+    final LatencyHistogram histogram = new LatencyHistogram(SECOND);
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    histogram.record(12345);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMin());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getMean(), 0);
+    assertEquals(0, histogram.getValueAtPercentile(99));
+  }
+}
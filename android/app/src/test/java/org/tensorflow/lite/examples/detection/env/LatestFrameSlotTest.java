@@ -0,0 +1,73 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class LatestFrameSlotTest {
+
+  @Test
+  public void latestItemWins() {
+    final LatestFrameSlot<String> slot = new LatestFrameSlot<>();
+    assertNull(slot.poll());
+    assertNull(slot.offer("frame 1"));
+    assertEquals("frame 1", slot.offer("frame 2"));
+    assertEquals("frame 2", slot.poll());
+    assertNull(slot.poll());
+    assertEquals(2, slot.getOfferedCount());
+    assertEquals(1, slot.getDroppedCount());
+  }
+
+  @Test
+  public void everyItemIsEitherTakenOrReturnedOnce() throws InterruptedException {
+    final int items = 200_000;
+    final LatestFrameSlot<Integer> slot = new LatestFrameSlot<>();
+    final boolean[] seen = new boolean[items];
+    final AtomicBoolean producing = new AtomicBoolean(true);
+    final int[] taken = new int[1];
+
+    final Thread consumer =
+        new Thread(
+            () -> {
+              int last = -1;
+              while (true) {
+                final boolean more = producing.get();
+                final Integer item = slot.poll();
+                if (item == null) {
+                  if (!more) {
+                    return;
+                  }
+                  continue;
+                }
+                // items reach the consumer in order
+                assertTrue(item > last);
+                last = item;
+                synchronized (seen) {
+                  seen[item] = true;
+                }
+                taken[0]++;
+              }
+            });
+    consumer.start();
+    for (int i = 0; i < items; i++) {
+      final Integer replaced = slot.offer(i);
+      if (replaced != null) {
+        synchronized (seen) {
+          assertTrue(!seen[replaced]);
+          seen[replaced] = true;
+        }
+      }
+    }
+    producing.set(false);
+    consumer.join();
+
+    for (int i = 0; i < items; i++) {
+      assertTrue("item " + i, seen[i]);
+    }
+    assertEquals(items, slot.getOfferedCount());
+    assertEquals(items, taken[0] + slot.getDroppedCount());
+  }
+}
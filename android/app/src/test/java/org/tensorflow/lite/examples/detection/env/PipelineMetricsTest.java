@@ -0,0 +1,71 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PipelineMetricsTest {
+
+  @Test
+  public void summarizesRecordedStagesAndDrops() {
+    final PipelineMetrics metrics = new PipelineMetrics();
+    for (int i = 0; i < 10; i++) {
+      metrics.countFrame();
+    }
+    metrics.countDrop(PipelineMetrics.Drop.DETECTOR_BUSY);
+    metrics.countDrop(PipelineMetrics.Drop.DETECTOR_BUSY);
+    metrics.countDrop(PipelineMetrics.Drop.EMBEDDING_BEHIND);
+    for (int i = 1; i <= 100; i++) {
+      metrics.record(PipelineMetrics.Stage.INFERENCE, i * 100000L);
+    }
+
+    assertEquals(10, metrics.getFrameCount());
+    assertEquals(0, metrics.getDropCount(PipelineMetrics.Drop.CAMERA_BUSY));
+    assertEquals(2, metrics.getDropCount(PipelineMetrics.Drop.DETECTOR_BUSY));
+    assertEquals(100, metrics.getHistogram(PipelineMetrics.Stage.INFERENCE).getCount());
+
+    final String summary = metrics.toString();
+    assertTrue(summary, summary.startsWith(
+        "frames 10, dropped: camera_busy 0 detector_busy 2 embedding_behind 1"));
+    assertTrue(summary, summary.contains("inference n=100 p50=5.0"));
+    assertTrue(summary, summary.contains("max=10.00 ms"));
+    // stages nothing was recorded for are left out
+    assertFalse(summary, summary.contains("liveness"));
+  }
+
+  @Test
+  public void resetForgetsEverything() {
+    final PipelineMetrics metrics = new PipelineMetrics();
+    metrics.countFrame();
+    metrics.countDrop(PipelineMetrics.Drop.CAMERA_BUSY);
+    metrics.record(PipelineMetrics.Stage.SEARCH, 1000);
+    metrics.reset();
+    assertEquals(0, metrics.getFrameCount());
+    assertEquals(0, metrics.getDropCount(PipelineMetrics.Drop.CAMERA_BUSY));
+    assertEquals(0, metrics.getHistogram(PipelineMetrics.Stage.SEARCH).getCount());
+  }
+
+  @Test
+  public void recordsFromSeveralThreads() throws InterruptedException {
+    final PipelineMetrics metrics = new PipelineMetrics();
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 10000; i++) {
+                  metrics.record(PipelineMetrics.Stage.DETECTION, i);
+                  metrics.countFrame();
+                }
+              });
+      threads[t].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40000, metrics.getFrameCount());
+    assertEquals(40000, metrics.getHistogram(PipelineMetrics.Stage.DETECTION).getCount());
+  }
+}
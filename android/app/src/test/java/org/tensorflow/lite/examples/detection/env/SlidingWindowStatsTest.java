@@ -0,0 +1,103 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class SlidingWindowStatsTest {
+
+  @Test
+  public void emptyWindow() {
+    final SlidingWindowStats stats = new SlidingWindowStats(4);
+    assertEquals(0, stats.size());
+    assertEquals(0, stats.getMean(), 0);
+    assertEquals(0, stats.getStandardDeviation(), 0);
+    assertTrue(Double.isNaN(stats.getMin()));
+    assertTrue(Double.isNaN(stats.getMax()));
+  }
+
+  @Test
+  public void matchesRescanOfTheWindow() {
+    final Random random = new Random(21);
+    for (int capacity : new int[] {1, 2, 7, 30}) {
+      final SlidingWindowStats stats = new SlidingWindowStats(capacity);
+      // Past the first exact recomputation, with runs of equal and monotonic values.
+      final int n = 1100 * capacity;
+      final double[] stream = new double[n];
+      for (int i = 0; i < n; i++) {
+        switch (i / 50 % 4) {
+          case 0:
+            stream[i] = random.nextGaussian() * 10 + 100;
+            break;
+          case 1:
+            stream[i] = 0.5;
+            break;
+          case 2:
+            stream[i] = i;
+            break;
+          default:
+            stream[i] = -i;
+        }
+        stats.add(stream[i]);
+        assertWindow(stream, Math.max(0, i + 1 - capacity), i + 1, stats);
+      }
+      stats.clear();
+      assertEquals(0, stats.size());
+      stats.add(3);
+      assertWindow(new double[] {3}, 0, 1, stats);
+    }
+  }
+
+  @Test
+  public void removesValuesOlderThanTime() {
+    final SlidingWindowStats stats = new SlidingWindowStats(8);
+    final Random random = new Random(3);
+    final double[] stream = new double[400];
+    final long[] times = new long[stream.length];
+    long time = 0;
+    int from = 0;
+    for (int i = 0; i < stream.length; i++) {
+      time += random.nextInt(40);
+      times[i] = time;
+      stream[i] = random.nextDouble();
+      stats.removeOlderThan(time - 100);
+      while (from < i && times[from] < time - 100) {
+        from++;
+      }
+      stats.add(time, stream[i]);
+      // The capacity bounds the window as well.
+      assertWindow(stream, Math.max(from, i + 1 - 8), i + 1, stats);
+    }
+    stats.removeOlderThan(time + 1);
+    assertEquals(0, stats.size());
+    assertTrue(Double.isNaN(stats.getMin()));
+    stats.add(time, 2);
+    assertWindow(new double[] {2}, 0, 1, stats);
+  }
+
+  private static void assertWindow(
+      final double[] stream, final int from, final int to, final SlidingWindowStats stats) {
+    double sum = 0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      sum += stream[i];
+      min = Math.min(min, stream[i]);
+      max = Math.max(max, stream[i]);
+    }
+    final double mean = sum / (to - from);
+    double squares = 0;
+    for (int i = from; i < to; i++) {
+      squares += (stream[i] - mean) * (stream[i] - mean);
+    }
+    final double sd = Math.sqrt(squares / (to - from));
+    final double tolerance = 1e-6 * Math.max(1, Math.abs(max) + Math.abs(min));
+    assertEquals(to - from, stats.size());
+    assertEquals(min, stats.getMin(), 0);
+    assertEquals(max, stats.getMax(), 0);
+    assertEquals(mean, stats.getMean(), tolerance);
+    assertEquals(sd, stats.getStandardDeviation(), tolerance);
+  }
+}
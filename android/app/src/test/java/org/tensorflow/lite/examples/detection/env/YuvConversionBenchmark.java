@@ -0,0 +1,93 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.Locale;
+import org.junit.Test;
+
+/**
+ * Times the YUV conversions on common preview sizes and prints the results. Not part of the unit
+ * tests: run with ./gradlew :app:benchmark. {@link YuvToRgbConverterTest} and {@link
+ * YuvFrameTest} check that the conversions compared here give the same pixels.
+ */
+public class YuvConversionBenchmark {
+
+  private static final int[][] PREVIEW_SIZES = {{320, 240}, {640, 480}, {1280, 720}, {1920, 1080}};
+
+  @Test
+  public void convertPreviewSizes() {
+    final int iterations = 30;
+    final int cores = Math.min(4, Runtime.getRuntime().availableProcessors());
+    final YuvToRgbConverter parallel = new YuvToRgbConverter(cores);
+    try {
+      for (int[] size : PREVIEW_SIZES) {
+        final int width = size[0];
+        final int height = size[1];
+        final byte[] nv21 =
+            YuvToRgbConverterTest.randomBytes(ImageUtils.getYUVByteSize(width, height), 5);
+        final int[] out = new int[width * height];
+
+        for (int i = 0; i < iterations; i++) {
+          YuvToRgbConverterTest.perPixelNv21(nv21, width, height, out);
+          ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, out);
+          parallel.convertYUV420SPToARGB8888(nv21, width, height, out);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          YuvToRgbConverterTest.perPixelNv21(nv21, width, height, out);
+        }
+        final double perPixelMicros = (System.nanoTime() - start) / 1e3 / iterations;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, out);
+        }
+        final double tableMicros = (System.nanoTime() - start) / 1e3 / iterations;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          parallel.convertYUV420SPToARGB8888(nv21, width, height, out);
+        }
+        final double bandedMicros = (System.nanoTime() - start) / 1e3 / iterations;
+        System.out.println(
+            String.format(
+                Locale.ROOT,
+                "%dx%d NV21: per pixel %.0f us, tables %.0f us, %d bands %.0f us",
+                width, height, perPixelMicros, tableMicros, cores, bandedMicros));
+      }
+    } finally {
+      parallel.close();
+    }
+  }
+
+  @Test
+  public void sampleFaceFromYuv() {
+    final int iterations = 200;
+    final int width = YuvFrameTest.WIDTH;
+    final int height = YuvFrameTest.HEIGHT;
+    final int faceSize = YuvFrameTest.FACE_SIZE;
+    final byte[] nv21 =
+        YuvToRgbConverterTest.randomBytes(ImageUtils.getYUVByteSize(width, height), 6);
+    final int[] argb = new int[width * height];
+    final int[] face = new int[faceSize * faceSize];
+    final YuvFrame frame = new YuvFrame();
+
+    for (int i = 0; i < iterations; i++) {
+      ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, argb);
+      frame.setNv21(nv21, width, height);
+      frame.sample(YuvFrameTest.FACE_TO_FRAME, faceSize, faceSize, face);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, argb);
+    }
+    final double fullFrameMicros = (System.nanoTime() - start) / 1e3 / iterations;
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      frame.setNv21(nv21, width, height);
+      frame.sample(YuvFrameTest.FACE_TO_FRAME, faceSize, faceSize, face);
+    }
+    final double sampledMicros = (System.nanoTime() - start) / 1e3 / iterations;
+    System.out.println(
+        String.format(
+            Locale.ROOT,
+            "%dx%d frame: full ARGB conversion %.0f us, frame copy + %dx%d face sample %.0f us",
+            width, height, fullFrameMicros, faceSize, faceSize, sampledMicros));
+  }
+}
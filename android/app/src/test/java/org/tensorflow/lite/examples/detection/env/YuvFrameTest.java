@@ -0,0 +1,93 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that sampling a face from the YUV planes gives the same pixels as converting the whole
+ * frame to ARGB and sampling that. {@link YuvConversionBenchmark} compares the cost of both.
+ */
+public class YuvFrameTest {
+
+  static final int WIDTH = 640;
+  static final int HEIGHT = 480;
+  static final int FACE_SIZE = 112;
+
+  // Face input of a 150x150 face at (300, 200) of the portrait (90 degrees rotated) frame.
+  static final float[] FACE_TO_FRAME = faceToFrame(300, 200, 150);
+
+  @Test
+  public void nv21MatchesFullFrameConversion() {
+    final byte[] nv21 = randomBytes(ImageUtils.getYUVByteSize(WIDTH, HEIGHT), 1);
+    final int[] argb = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420SPToARGB8888(nv21, WIDTH, HEIGHT, argb);
+
+    final YuvFrame frame = new YuvFrame();
+    frame.setNv21(nv21, WIDTH, HEIGHT);
+    final int[] actual = new int[FACE_SIZE * FACE_SIZE];
+    frame.sample(FACE_TO_FRAME, FACE_SIZE, FACE_SIZE, actual);
+
+    assertArrayEquals(sample(argb, FACE_TO_FRAME, FACE_SIZE, FACE_SIZE), actual);
+  }
+
+  @Test
+  public void planesMatchFullFrameConversion() {
+    // Padded rows and interleaved chroma, as Camera2 delivers them on many devices.
+    final int rowStride = WIDTH + 32;
+    final byte[] y = randomBytes(rowStride * HEIGHT, 2);
+    final byte[] u = randomBytes(rowStride * (HEIGHT / 2), 3);
+    final byte[] v = randomBytes(rowStride * (HEIGHT / 2), 4);
+    final int[] argb = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420ToARGB8888(y, u, v, WIDTH, HEIGHT, rowStride, rowStride, 2, argb);
+
+    final YuvFrame frame = new YuvFrame();
+    frame.setPlanes(y, u, v, WIDTH, HEIGHT, rowStride, rowStride, 2);
+    final int[] actual = new int[FACE_SIZE * FACE_SIZE];
+    frame.sample(FACE_TO_FRAME, FACE_SIZE, FACE_SIZE, actual);
+
+    assertArrayEquals(sample(argb, FACE_TO_FRAME, FACE_SIZE, FACE_SIZE), actual);
+  }
+
+  @Test
+  public void pixelsOutsideTheFrameAreBlack() {
+    final YuvFrame frame = new YuvFrame();
+    frame.setNv21(randomBytes(ImageUtils.getYUVByteSize(WIDTH, HEIGHT), 5), WIDTH, HEIGHT);
+    final int[] out = new int[4];
+    // A 2x2 image starting one pixel left of and above the frame.
+    frame.sample(new float[] {1, 0, -1, 0, 1, -1}, 2, 2, out);
+    assertEquals(0xff000000, out[0]);
+    assertEquals(0xff000000, out[1]);
+    assertEquals(0xff000000, out[2]);
+  }
+
+  // Maps face input pixels to the landscape frame: scale the face to size x size, move it to
+  // (left, top) of the portrait frame, then undo the 90 degree rotation to portrait.
+  private static float[] faceToFrame(final float left, final float top, final float size) {
+    final float scale = size / FACE_SIZE;
+    // portrait (px, py) = (scale * x + left, scale * y + top); frame = (py, HEIGHT - px)
+    return new float[] {0, scale, top, -scale, 0, HEIGHT - left};
+  }
+
+  // Nearest-neighbor sampling of an ARGB frame, the way YuvFrame.sample maps pixels.
+  private static int[] sample(
+      final int[] argb, final float[] dstToFrame, final int dstWidth, final int dstHeight) {
+    final int[] out = new int[dstWidth * dstHeight];
+    for (int y = 0; y < dstHeight; y++) {
+      for (int x = 0; x < dstWidth; x++) {
+        final float fx = dstToFrame[0] * (x + 0.5f) + (dstToFrame[1] * (y + 0.5f) + dstToFrame[2]);
+        final float fy = dstToFrame[3] * (x + 0.5f) + (dstToFrame[4] * (y + 0.5f) + dstToFrame[5]);
+        out[y * dstWidth + x] = argb[(int) fy * WIDTH + (int) fx];
+      }
+    }
+    return out;
+  }
+
+  private static byte[] randomBytes(final int length, final long seed) {
+    final byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
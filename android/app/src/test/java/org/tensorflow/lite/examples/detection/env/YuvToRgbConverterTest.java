@@ -0,0 +1,119 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Compares the output of the table-driven and banded YUV converters with the per-pixel YUV2RGB
+ * loops they replace. {@link YuvConversionBenchmark} compares their speed.
+ */
+public class YuvToRgbConverterTest {
+
+  @Test
+  public void nv21MatchesPerPixelConversion() {
+    final YuvToRgbConverter parallel = new YuvToRgbConverter(3);
+    try {
+      for (int[] size : new int[][] {{640, 480}, {33, 17}, {7, 1}, {2, 5}}) {
+        final int width = size[0];
+        final int height = size[1];
+        final byte[] nv21 = randomBytes(ImageUtils.getYUVByteSize(width, height) + width, 1);
+        final int[] expected = new int[width * height];
+        perPixelNv21(nv21, width, height, expected);
+
+        final int[] actual = new int[width * height];
+        ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, actual);
+        assertArrayEquals(expected, actual);
+
+        final int[] banded = new int[width * height];
+        parallel.convertYUV420SPToARGB8888(nv21, width, height, banded);
+        assertArrayEquals(expected, banded);
+      }
+    } finally {
+      parallel.close();
+    }
+  }
+
+  @Test
+  public void planesMatchPerPixelConversion() {
+    final YuvToRgbConverter parallel = new YuvToRgbConverter(4);
+    try {
+      for (int[] size : new int[][] {{640, 480}, {33, 17}, {7, 1}}) {
+        final int width = size[0];
+        final int height = size[1];
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+          final int yRowStride = width + 8;
+          final int uvRowStride = (width + 1) / 2 * pixelStride + 8;
+          final byte[] y = randomBytes(yRowStride * height, 2);
+          final byte[] u = randomBytes(uvRowStride * ((height + 1) / 2), 3);
+          final byte[] v = randomBytes(uvRowStride * ((height + 1) / 2), 4);
+          final int[] expected = new int[width * height];
+          perPixelPlanes(y, u, v, width, height, yRowStride, uvRowStride, pixelStride, expected);
+
+          final int[] actual = new int[width * height];
+          ImageUtils.convertYUV420ToARGB8888(
+              y, u, v, width, height, yRowStride, uvRowStride, pixelStride, actual);
+          assertArrayEquals(expected, actual);
+
+          final int[] banded = new int[width * height];
+          parallel.convertYUV420ToARGB8888(
+              y, u, v, width, height, yRowStride, uvRowStride, pixelStride, banded);
+          assertArrayEquals(expected, banded);
+        }
+      }
+    } finally {
+      parallel.close();
+    }
+  }
+
+  // The conversion loops as they were in ImageUtils.
+  static void perPixelNv21(byte[] input, int width, int height, int[] output) {
+    final int frameSize = width * height;
+    for (int j = 0, yp = 0; j < height; j++) {
+      int uvp = frameSize + (j >> 1) * width;
+      int u = 0;
+      int v = 0;
+
+      for (int i = 0; i < width; i++, yp++) {
+        int y = 0xff & input[yp];
+        if ((i & 1) == 0) {
+          v = 0xff & input[uvp++];
+          u = 0xff & input[uvp++];
+        }
+
+        output[yp] = ImageUtils.YUV2RGB(y, u, v);
+      }
+    }
+  }
+
+  private static void perPixelPlanes(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    int yp = 0;
+    for (int j = 0; j < height; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+
+      for (int i = 0; i < width; i++) {
+        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+
+        out[yp++] =
+            ImageUtils.YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
+      }
+    }
+  }
+
+  static byte[] randomBytes(final int length, final long seed) {
+    final byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
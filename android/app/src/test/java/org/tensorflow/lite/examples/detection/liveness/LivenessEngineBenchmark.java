@@ -0,0 +1,39 @@
+package org.tensorflow.lite.examples.detection.liveness;
+
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Times {@link LivenessEngine#update} over a long session of four still faces and prints the cost
+ * per face. Not part of the unit tests: run with ./gradlew :app:benchmark.
+ */
+public class LivenessEngineBenchmark {
+
+  private static final long FRAME_MS = 33;
+
+  @Test
+  public void updateFourTracks() {
+    final int tracks = 4;
+    final int frames = 50_000;
+    final Random random = new Random(22);
+    final LivenessEngine engine = new LivenessEngine();
+    final long start = System.nanoTime();
+    for (int frame = 0; frame < frames; frame++) {
+      final long time = frame * FRAME_MS;
+      for (int track = 0; track < tracks; track++) {
+        engine.update(
+            track,
+            time,
+            2 + random.nextGaussian() * 0.1,
+            -1 + random.nextGaussian() * 0.1,
+            0.95 + random.nextGaussian() * 0.01,
+            0.95 + random.nextGaussian() * 0.01);
+      }
+      engine.evictStale(time);
+    }
+    final double nsPerUpdate = (System.nanoTime() - start) / (double) (frames * tracks);
+    System.out.println(
+        String.format(Locale.ROOT, "LivenessEngine: %.0f ns per face update", nsPerUpdate));
+  }
+}
@@ -0,0 +1,166 @@
+package org.tensorflow.lite.examples.detection.liveness;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.liveness.LivenessEngine.Score;
+import org.tensorflow.lite.examples.detection.liveness.LivenessEngine.Weighting;
+
+/**
+ * Replays synthetic detector traces at 30 frames per second: head Euler angles in degrees and
+ * eye-open probabilities, as ML Kit reports them.
+ */
+public class LivenessEngineTest {
+
+  private static final long FRAME_MS = 33;
+
+  private final Random random = new Random(22);
+
+  // A face looking at the camera with its eyes open, with detector noise.
+  private Score still(final LivenessEngine engine, final int trackId, final long timeMs) {
+    return engine.update(
+        trackId,
+        timeMs,
+        2 + random.nextGaussian() * 0.1,
+        -1 + random.nextGaussian() * 0.1,
+        0.95 + random.nextGaussian() * 0.01,
+        0.95 + random.nextGaussian() * 0.01);
+  }
+
+  @Test
+  public void stillFaceIsNotLive() {
+    final LivenessEngine engine = new LivenessEngine();
+    Score score = null;
+    for (int frame = 0; frame < 300; frame++) {
+      score = still(engine, 1, frame * FRAME_MS);
+    }
+    assertFalse(score.isMoving());
+    assertFalse(score.isBlinking());
+    assertTrue(score.getProbability(Weighting.EQUAL) < 0.2);
+  }
+
+  @Test
+  public void blinkCountsForTheWindowOnly() {
+    final LivenessEngine engine = new LivenessEngine().setWindow(1000, 64);
+    long time = 0;
+    for (int frame = 0; frame < 30; frame++, time += FRAME_MS) {
+      still(engine, 1, time);
+    }
+    Score score = null;
+    for (int frame = 0; frame < 3; frame++, time += FRAME_MS) {
+      score = engine.update(1, time, 2, -1, 0.02, 0.03);
+    }
+    assertTrue(score.isBlinking());
+    assertEquals(1.0, score.getBlinking(), 1e-9);
+
+    // Still blinking until the closed-eye frames leave the 1 s window.
+    final long blinkEnd = time - FRAME_MS;
+    while (time - blinkEnd <= 1000) {
+      assertTrue(still(engine, 1, time).isBlinking());
+      time += FRAME_MS;
+    }
+    assertFalse(still(engine, 1, time).isBlinking());
+  }
+
+  @Test
+  public void headTurnIsMovement() {
+    final LivenessEngine engine = new LivenessEngine();
+    Score score = null;
+    for (int frame = 0; frame < 60; frame++) {
+      final double yaw = 15 * Math.sin(frame * 2 * Math.PI / 30);
+      score = engine.update(1, frame * FRAME_MS, 2, yaw, 0.95, 0.95);
+    }
+    assertTrue(score.isMoving());
+    assertEquals(1.0, score.getMovementY(), 1e-9);
+    assertFalse(score.isBlinking());
+    assertEquals(0.7, score.getProbability(Weighting.MOSTLY_MOVEMENT), 1e-9);
+    assertEquals(0.0, score.getProbability(Weighting.BLINKING_ONLY), 1e-9);
+    assertEquals(0.6, score.getProbability(new Weighting(0.6, 0.4)), 1e-9);
+  }
+
+  @Test
+  public void tracksHaveTheirOwnHistory() {
+    final LivenessEngine engine = new LivenessEngine();
+    long time = 0;
+    for (int frame = 0; frame < 20; frame++, time += FRAME_MS) {
+      still(engine, 1, time);
+      still(engine, 2, time);
+    }
+    assertTrue(engine.update(1, time, 2, -1, 0.01, 0.01).isBlinking());
+    assertFalse(still(engine, 2, time).isBlinking());
+  }
+
+  @Test
+  public void unknownEyesDoNotBlink() {
+    final LivenessEngine engine = new LivenessEngine();
+    Score score = null;
+    for (int frame = 0; frame < 10; frame++) {
+      score = engine.update(1, frame * FRAME_MS, 2, -1, Double.NaN, Double.NaN);
+    }
+    assertEquals(0.0, score.getBlinking(), 0);
+  }
+
+  @Test
+  public void staleTracksAreEvicted() {
+    final LivenessEngine engine = new LivenessEngine().setTrackLimits(8, 500);
+    still(engine, 1, 0);
+    still(engine, 2, 400);
+    engine.evictStale(500);
+    assertEquals(2, engine.getTrackCount());
+    engine.evictStale(501);
+    assertEquals(1, engine.getTrackCount());
+    engine.evictStale(1000);
+    assertEquals(0, engine.getTrackCount());
+    assertEquals(2, engine.getExpiredTrackCount());
+    assertEquals(0, engine.getEvictedTrackCount());
+  }
+
+  @Test
+  public void passingCrowdKeepsMemoryBounded() {
+    final LivenessEngine engine = new LivenessEngine().setTrackLimits(4, 2000);
+    // A new face every frame, each in view for 3 frames.
+    for (int frame = 0; frame < 1000; frame++) {
+      for (int face = Math.max(0, frame - 2); face <= frame; face++) {
+        still(engine, face, frame * FRAME_MS);
+      }
+      assertTrue(engine.getTrackCount() <= 4);
+    }
+    assertEquals(4, engine.getTrackCount());
+    assertEquals(1000 - 4, engine.getEvictedTrackCount());
+    assertEquals(0, engine.getExpiredTrackCount());
+
+    engine.evictStale(999 * FRAME_MS + 2001);
+    assertEquals(0, engine.getTrackCount());
+    assertEquals(4, engine.getExpiredTrackCount());
+  }
+
+  @Test
+  public void movingProbabilityMatchesOriginalCurve() {
+    assertEquals(0.0, LivenessEngine.movingProbability(0), 0);
+    assertEquals(0.6, LivenessEngine.movingProbability(0.7), 1e-9);
+    assertEquals(0.8, LivenessEngine.movingProbability(0.9), 1e-9);
+    assertEquals(0.8, LivenessEngine.movingProbability(1.1), 1e-9);
+    assertEquals(1.0, LivenessEngine.movingProbability(2), 1e-9);
+    assertEquals(1.0, LivenessEngine.movingProbability(5), 0);
+  }
+
+  // LivenessEngineBenchmark times this loop.
+  @Test
+  public void longSessionsKeepOneStatePerTrack() {
+    final int tracks = 4;
+    final LivenessEngine engine = new LivenessEngine();
+    for (int frame = 0; frame < 50_000; frame++) {
+      final long time = frame * FRAME_MS;
+      for (int track = 0; track < tracks; track++) {
+        still(engine, track, time);
+      }
+      engine.evictStale(time);
+    }
+    assertEquals(tracks, engine.getTrackCount());
+    assertEquals(0, engine.getEvictedTrackCount());
+    assertEquals(0, engine.getExpiredTrackCount());
+  }
+}
@@ -0,0 +1,117 @@
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+import org.tensorflow.lite.examples.detection.liveness.LivenessEngine;
+import org.tensorflow.lite.examples.detection.tflite.SimilarityClassifier.Recognition;
+import org.tensorflow.lite.examples.detection.tracking.IdentityTracker;
+
+public class FacePipelineTest {
+
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  private static final int INPUT_SIZE = 16;
+
+  private MeanColorClassifier classifier;
+  private FacePipeline pipeline;
+  private YuvFrame frame;
+
+  @Before
+  public void setUp() {
+    classifier = new MeanColorClassifier(INPUT_SIZE);
+    pipeline =
+        new FacePipeline(
+            classifier, INPUT_SIZE, new IdentityTracker<Recognition>(), new LivenessEngine());
+    // A red face on the left and a blue one on the right of a gray frame.
+    final int[] argb = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        final boolean face = y >= 8 && y < 40;
+        argb[y * WIDTH + x] =
+            face && x < 24 ? 0xffe02020 : face && x >= 40 ? 0xff2020e0 : 0xff808080;
+      }
+    }
+    frame = new YuvFrame();
+    frame.setNv21(ReplayHarness.toNv21(argb, WIDTH, HEIGHT), WIDTH, HEIGHT);
+  }
+
+  @Test
+  public void mapRectBoundsTheRotatedCorners() {
+    // 90 degrees clockwise in a 48 pixels high frame: (x, y) -> (48 - y, x).
+    final float[] rotate = {0, -1, 48, 1, 0, 0, 0, 0, 1};
+    final float[] out = new float[4];
+    FacePipeline.mapRect(rotate, new float[] {10, 5, 30, 25}, out);
+    assertArrayEquals(new float[] {23, 10, 43, 30}, out, 0f);
+  }
+
+  @Test
+  public void recognizesFacesSampledFromTheFrame() {
+    final List<FacePipeline.FaceResult> added = pipeline.process(frame, faces(), 0, true);
+    classifier.register("red", added.get(0).getRecognition());
+    classifier.register("blue", added.get(1).getRecognition());
+    pipeline.invalidateIdentities();
+
+    final List<FacePipeline.FaceResult> results = pipeline.process(frame, faces(), 33, false);
+    assertEquals(2, results.size());
+    assertEquals("red", results.get(0).getRecognition().getTitle());
+    assertEquals("blue", results.get(1).getRecognition().getTitle());
+    assertEquals(0f, results.get(0).getRecognition().getDistance(), 1e-3f);
+  }
+
+  @Test
+  public void steadyFacesReuseTheirIdentity() {
+    classifier.register("red", pipeline.process(frame, faces(), 0, true).get(0).getRecognition());
+    pipeline.invalidateIdentities();
+
+    assertTrue(pipeline.process(frame, faces(), 33, false).get(0).isEmbedded());
+    final FacePipeline.FaceResult steady = pipeline.process(frame, faces(), 66, false).get(0);
+    assertFalse(steady.isEmbedded());
+    assertEquals("red", steady.getRecognition().getTitle());
+    assertNull(steady.getCropPixels());
+    assertEquals(6, pipeline.getFaceCount());
+    assertEquals(4, pipeline.getEmbeddedFaceCount());
+  }
+
+  @Test
+  public void addingCropsEveryFace() {
+    final List<FacePipeline.FaceResult> results = pipeline.process(frame, faces(), 0, true);
+    for (final FacePipeline.FaceResult result : results) {
+      assertTrue(result.isEmbedded());
+      assertNotNull(result.getRecognition().getExtra());
+      assertEquals(24, result.getCropWidth());
+      assertEquals(32, result.getCropHeight());
+      assertEquals(24 * 32, result.getCropPixels().length);
+    }
+    assertEquals(0xe0, (results.get(0).getCropPixels()[0] >> 16) & 0xff, 8);
+    assertEquals(0xe0, results.get(1).getCropPixels()[0] & 0xff, 8);
+  }
+
+  @Test
+  public void mapsBoxesToTheFrameAndScoresLiveness() {
+    final float[] scaleByTwo = {2, 0, 0, 0, 2, 0, 0, 0, 1};
+    pipeline.setTransforms(scaleByTwo, scaleByTwo, new float[] {1, 0, 0, 0, 1, 0, 0, 0, 1});
+    final List<DetectedFace> half =
+        Collections.singletonList(new DetectedFace(0, 4, 12, 20, 0, 0, 1, 1));
+    final FacePipeline.FaceResult result = pipeline.process(frame, half, 0, false).get(0);
+    assertArrayEquals(new float[] {0, 8, 24, 40}, result.getFrameBox(), 0f);
+    assertEquals("?", result.getRecognition().getTitle());
+    assertNotNull(result.getLiveness());
+    assertEquals(1, pipeline.getLivenessEngine().getTrackCount());
+  }
+
+  private static List<DetectedFace> faces() {
+    return Arrays.asList(
+        new DetectedFace(0, 8, 24, 40, 0, 0, 1, 1), new DetectedFace(40, 8, 64, 40, 0, 0, 1, 1));
+  }
+}
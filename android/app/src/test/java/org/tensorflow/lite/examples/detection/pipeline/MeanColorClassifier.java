@@ -0,0 +1,119 @@
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.List;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.tflite.EmbeddingGallery;
+import org.tensorflow.lite.examples.detection.tflite.EmbeddingIndex;
+import org.tensorflow.lite.examples.detection.tflite.SimilarityClassifier;
+
+/**
+ * Stand-in for the TFLite classifier, which cannot run off-device: embeds a face input as the mean
+ * color of each cell of a GRID x GRID grid, and matches it against an {@link EmbeddingGallery}
+ * like the real model does. Its cost grows with the input size and the gallery, so replays still
+ * show how often and how many faces get embedded. Bitmaps are not supported.
+ */
+final class MeanColorClassifier implements SimilarityClassifier {
+
+  static final int GRID = 8;
+  static final int DIM = GRID * GRID * 3;
+
+  private final int inputSize;
+  private final EmbeddingGallery gallery = new EmbeddingGallery(DIM);
+  private final float[] distance = new float[1];
+
+  MeanColorClassifier(final int inputSize) {
+    this.inputSize = inputSize;
+  }
+
+  /** Embeds inputSize * inputSize ARGB pixels. */
+  float[] embed(final int[] pixels) {
+    final float[] embedding = new float[DIM];
+    final int[] counts = new int[GRID * GRID];
+    for (int y = 0; y < inputSize; y++) {
+      final int row = y * GRID / inputSize * GRID;
+      for (int x = 0; x < inputSize; x++) {
+        final int cell = row + x * GRID / inputSize;
+        final int argb = pixels[y * inputSize + x];
+        embedding[cell * 3] += (argb >> 16) & 0xff;
+        embedding[cell * 3 + 1] += (argb >> 8) & 0xff;
+        embedding[cell * 3 + 2] += argb & 0xff;
+        counts[cell]++;
+      }
+    }
+    for (int cell = 0; cell < counts.length; cell++) {
+      for (int c = 0; c < 3; c++) {
+        embedding[cell * 3 + c] /= 255f * Math.max(1, counts[cell]);
+      }
+    }
+    return embedding;
+  }
+
+  @Override
+  public void register(final String name, final Recognition recognition) {
+    gallery.put(name, ((float[][]) recognition.getExtra())[0]);
+  }
+
+  @Override
+  public EmbeddingIndex getEmbeddingIndex() {
+    return gallery;
+  }
+
+  @Override
+  public List<Recognition> recognizePixels(final List<int[]> faces, final boolean getExtra) {
+    final List<Recognition> results = new ArrayList<>(faces.size());
+    for (final int[] face : faces) {
+      final float[] embedding = embed(face);
+      final int slot = gallery.findNearest(embedding, distance);
+      final Recognition result =
+          slot < 0
+              ? new Recognition("0", "?", Float.MAX_VALUE, null)
+              : new Recognition(
+                  "0", gallery.getLabel(slot), (float) Math.sqrt(distance[0]), null);
+      if (getExtra) {
+        result.setExtra(new float[][] {embedding});
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap, final boolean getExtra) {
+    throw new UnsupportedOperationException("bitmaps need Android");
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(
+      final Bitmap bitmap, final boolean getExtra, final int maxResults) {
+    throw new UnsupportedOperationException("bitmaps need Android");
+  }
+
+  @Override
+  public List<Recognition> recognizeImages(final List<Bitmap> bitmaps, final boolean getExtra) {
+    throw new UnsupportedOperationException("bitmaps need Android");
+  }
+
+  @Override
+  public void setMetrics(final PipelineMetrics metrics) {}
+
+  @Override
+  public void enableStatLogging(final boolean debug) {}
+
+  @Override
+  public String getStatString() {
+    return "";
+  }
+
+  @Override
+  public void close() {
+    gallery.close();
+  }
+
+  @Override
+  public void setNumThreads(final int numThreads) {}
+
+  @Override
+  public void setUseNNAPI(final boolean isChecked) {}
+}
@@ -0,0 +1,23 @@
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+
+/**
+ * Replays the recording in the directory given by -Dreplay.dir and prints the report. Not part of
+ * the unit tests: run with ./gradlew :app:benchmark -Dreplay.dir=/path/to/recording.
+ */
+public class ReplayBenchmark {
+
+  @Test
+  public void replayRecording() throws IOException {
+    final String replayDir = System.getProperty("replay.dir");
+    assumeTrue(replayDir != null);
+    final ReplayHarness.Report report =
+        ReplayHarness.load(new File(replayDir)).replay(ReplayHarnessTest.newPipeline());
+    System.out.println(report);
+  }
+}
@@ -0,0 +1,305 @@
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import javax.imageio.ImageIO;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.YuvFrame;
+
+/**
+ * Feeds a recorded session through a {@link FacePipeline} on the JVM and reports the latency of
+ * each stage and the throughput, so that changes to the pipeline can be benchmarked off-device.
+ *
+ * A recording is a directory holding:
+ *
+ * <ul>
+ *   <li>faces.csv: one line per frame, "file,timeMs" followed by eight values per detected face:
+ *       left, top, right, bottom, head Euler X and Y, left and right eye-open probability (NaN
+ *       if unknown). It stands in for the face detector. Blank lines and lines starting with #
+ *       are skipped.
+ *   <li>the frames: PNG files, as ImageUtils.saveBitmap() writes them, or raw NV21 files
+ *       (.nv21 or .yuv) whose size is given by the width and height of recording.properties.
+ * </ul>
+ *
+ * Frames are decoded outside of the timed stages. Boxes are in the coordinates the pipeline's
+ * transforms map from, frame coordinates with the default identity transforms.
+ */
+final class ReplayHarness {
+
+  static final String FACES_FILE = "faces.csv";
+  static final String PROPERTIES_FILE = "recording.properties";
+
+  private static final int VALUES_PER_FACE = 8;
+
+  /** One line of faces.csv. */
+  static final class RecordedFrame {
+    final String file;
+    final long timeMs;
+    final List<DetectedFace> faces;
+
+    RecordedFrame(final String file, final long timeMs, final List<DetectedFace> faces) {
+      this.file = file;
+      this.timeMs = timeMs;
+      this.faces = faces;
+    }
+  }
+
+  /** Latencies of a replay, per stage and frame. */
+  static final class Report {
+    private final long[][] stageNanos;
+    private final long[] frameNanos;
+    private final long faces;
+    private final long embeddedFaces;
+
+    Report(
+        final long[][] stageNanos,
+        final long[] frameNanos,
+        final long faces,
+        final long embeddedFaces) {
+      this.stageNanos = stageNanos;
+      this.frameNanos = frameNanos;
+      this.faces = faces;
+      this.embeddedFaces = embeddedFaces;
+    }
+
+    int getFrameCount() {
+      return frameNanos.length;
+    }
+
+    long getFaceCount() {
+      return faces;
+    }
+
+    long getEmbeddedFaceCount() {
+      return embeddedFaces;
+    }
+
+    /** Time spent in stage on each frame, in replay order. */
+    long[] getStageNanos(final FacePipeline.Stage stage) {
+      return stageNanos[stage.ordinal()];
+    }
+
+    /** Time spent in the pipeline over all frames. */
+    long getTotalNanos() {
+      long total = 0;
+      for (final long nanos : frameNanos) {
+        total += nanos;
+      }
+      return total;
+    }
+
+    /** Frames processed per second of pipeline time. */
+    double getFramesPerSecond() {
+      final long total = getTotalNanos();
+      return total > 0 ? frameNanos.length * 1e9 / total : 0;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder();
+      sb.append(
+          String.format(
+              Locale.ROOT,
+              "%d frames, %d faces, %d embedded, %.1f frames/s, %.1f faces/s%n",
+              frameNanos.length,
+              faces,
+              embeddedFaces,
+              getFramesPerSecond(),
+              getTotalNanos() > 0 ? faces * 1e9 / getTotalNanos() : 0));
+      sb.append(String.format(Locale.ROOT, "%-10s %9s %9s %9s %9s%n",
+          "stage (ms)", "mean", "p50", "p95", "max"));
+      for (final FacePipeline.Stage stage : FacePipeline.Stage.values()) {
+        appendRow(sb, stage.name(), getStageNanos(stage));
+      }
+      appendRow(sb, "TOTAL", frameNanos);
+      return sb.toString();
+    }
+
+    private static void appendRow(final StringBuilder sb, final String name, final long[] nanos) {
+      final long[] sorted = nanos.clone();
+      Arrays.sort(sorted);
+      double mean = 0;
+      for (final long n : sorted) {
+        mean += n;
+      }
+      mean = sorted.length > 0 ? mean / sorted.length : 0;
+      sb.append(
+          String.format(
+              Locale.ROOT,
+              "%-10s %9.3f %9.3f %9.3f %9.3f%n",
+              name,
+              mean / 1e6,
+              percentile(sorted, 0.5) / 1e6,
+              percentile(sorted, 0.95) / 1e6,
+              percentile(sorted, 1) / 1e6));
+    }
+
+    // Nearest-rank percentile of sorted values, 0 if there are none.
+    static long percentile(final long[] sorted, final double p) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      final int rank = (int) Math.ceil(p * sorted.length);
+      return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+  }
+
+  private final File dir;
+  private final List<RecordedFrame> frames;
+  private final int rawWidth;
+  private final int rawHeight;
+
+  private ReplayHarness(
+      final File dir, final List<RecordedFrame> frames, final int rawWidth, final int rawHeight) {
+    this.dir = dir;
+    this.frames = frames;
+    this.rawWidth = rawWidth;
+    this.rawHeight = rawHeight;
+  }
+
+  /** Reads the faces.csv and recording.properties of the recording in dir. */
+  static ReplayHarness load(final File dir) throws IOException {
+    int width = 0;
+    int height = 0;
+    final File propertiesFile = new File(dir, PROPERTIES_FILE);
+    if (propertiesFile.exists()) {
+      final Properties properties = new Properties();
+      try (InputStream in = new FileInputStream(propertiesFile)) {
+        properties.load(in);
+      }
+      width = Integer.parseInt(properties.getProperty("width", "0").trim());
+      height = Integer.parseInt(properties.getProperty("height", "0").trim());
+    }
+
+    final List<RecordedFrame> frames = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(new File(dir, FACES_FILE)))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        frames.add(parseFrame(line, lineNumber));
+      }
+    }
+    return new ReplayHarness(dir, Collections.unmodifiableList(frames), width, height);
+  }
+
+  List<RecordedFrame> getFrames() {
+    return frames;
+  }
+
+  /** Runs every recorded frame through pipeline once, in order. */
+  Report replay(final FacePipeline pipeline) throws IOException {
+    final FacePipeline.Stage[] stages = FacePipeline.Stage.values();
+    final long[][] stageNanos = new long[stages.length][frames.size()];
+    final long[] frameNanos = new long[frames.size()];
+    final long faces = pipeline.getFaceCount();
+    final long embeddedFaces = pipeline.getEmbeddedFaceCount();
+
+    final YuvFrame frame = new YuvFrame();
+    for (int i = 0; i < frames.size(); i++) {
+      final RecordedFrame recorded = frames.get(i);
+      readFrame(new File(dir, recorded.file), frame);
+
+      final long start = System.nanoTime();
+      pipeline.process(frame, recorded.faces, recorded.timeMs, false);
+      frameNanos[i] = System.nanoTime() - start;
+      for (final FacePipeline.Stage stage : stages) {
+        stageNanos[stage.ordinal()][i] = pipeline.getLastStageNanos(stage);
+      }
+    }
+    return new Report(
+        stageNanos,
+        frameNanos,
+        pipeline.getFaceCount() - faces,
+        pipeline.getEmbeddedFaceCount() - embeddedFaces);
+  }
+
+  private void readFrame(final File file, final YuvFrame frame) throws IOException {
+    final String name = file.getName().toLowerCase(Locale.ROOT);
+    if (name.endsWith(".nv21") || name.endsWith(".yuv")) {
+      if (rawWidth <= 0 || rawHeight <= 0) {
+        throw new IOException("width and height of raw frames missing from " + PROPERTIES_FILE);
+      }
+      final byte[] nv21 = Files.readAllBytes(file.toPath());
+      if (nv21.length < ImageUtils.getYUVByteSize(rawWidth, rawHeight)) {
+        throw new IOException(file + " is smaller than a " + rawWidth + "x" + rawHeight + " frame");
+      }
+      frame.setNv21(nv21, rawWidth, rawHeight);
+      return;
+    }
+    final BufferedImage image = ImageIO.read(file);
+    if (image == null) {
+      throw new IOException("cannot decode " + file);
+    }
+    final int width = image.getWidth() & ~1;
+    final int height = image.getHeight() & ~1;
+    final int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+    frame.setNv21(toNv21(argb, width, height), width, height);
+  }
+
+  /**
+   * Converts ARGB pixels to NV21 with the BT.601 video-range coefficients the camera uses, the
+   * inverse of ImageUtils.YUV2RGB(). Chroma is taken from the top-left pixel of each 2x2 block.
+   */
+  static byte[] toNv21(final int[] argb, final int width, final int height) {
+    final byte[] nv21 = new byte[ImageUtils.getYUVByteSize(width, height)];
+    int uv = width * height;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int pixel = argb[y * width + x];
+        final int r = (pixel >> 16) & 0xff;
+        final int g = (pixel >> 8) & 0xff;
+        final int b = pixel & 0xff;
+        nv21[y * width + x] = (byte) clamp(((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+        if ((y & 1) == 0 && (x & 1) == 0) {
+          nv21[uv++] = (byte) clamp(((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+          nv21[uv++] = (byte) clamp(((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+        }
+      }
+    }
+    return nv21;
+  }
+
+  private static int clamp(final int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+  private static RecordedFrame parseFrame(final String line, final int lineNumber)
+      throws IOException {
+    final String[] fields = line.split(",");
+    if (fields.length < 2 || (fields.length - 2) % VALUES_PER_FACE != 0) {
+      throw new IOException(
+          FACES_FILE + ":" + lineNumber + ": expected file, time and " + VALUES_PER_FACE
+              + " values per face");
+    }
+    try {
+      final List<DetectedFace> faces = new ArrayList<>();
+      for (int i = 2; i < fields.length; i += VALUES_PER_FACE) {
+        final float[] v = new float[VALUES_PER_FACE];
+        for (int j = 0; j < VALUES_PER_FACE; j++) {
+          v[j] = Float.parseFloat(fields[i + j].trim());
+        }
+        faces.add(new DetectedFace(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7]));
+      }
+      return new RecordedFrame(fields[0].trim(), Long.parseLong(fields[1].trim()), faces);
+    } catch (final NumberFormatException e) {
+      throw new IOException(FACES_FILE + ":" + lineNumber + ": " + e.getMessage(), e);
+    }
+  }
+}
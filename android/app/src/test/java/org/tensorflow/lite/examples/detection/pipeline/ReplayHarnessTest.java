@@ -0,0 +1,108 @@
+package org.tensorflow.lite.examples.detection.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import org.junit.Before;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.liveness.LivenessEngine;
+import org.tensorflow.lite.examples.detection.tflite.SimilarityClassifier.Recognition;
+import org.tensorflow.lite.examples.detection.tracking.IdentityTracker;
+
+/** Replays a small synthetic recording. {@link ReplayBenchmark} replays a real one. */
+public class ReplayHarnessTest {
+
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  private static final int INPUT_SIZE = 112;
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("recording").toFile();
+    dir.deleteOnExit();
+
+    final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        image.setRGB(x, y, x < 32 ? 0xe02020 : 0x808080);
+      }
+    }
+    ImageIO.write(image, "png", tempFile("preview.png"));
+    final byte[] nv21 = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+    Arrays.fill(nv21, (byte) 128);
+    Files.write(tempFile("frame1.nv21").toPath(), nv21);
+    write(ReplayHarness.PROPERTIES_FILE, "width=" + WIDTH + "\nheight=" + HEIGHT + "\n");
+  }
+
+  @Test
+  public void replaysPngAndRawFrames() throws IOException {
+    write(
+        ReplayHarness.FACES_FILE,
+        "# file,timeMs,left,top,right,bottom,headX,headY,leftEye,rightEye\n"
+            + "preview.png,0,0,8,32,40,0,0,1,1\n"
+            + "\n"
+            + "preview.png,33,0,8,32,40,0.5,0,NaN,NaN\n"
+            + "frame1.nv21,66,0,8,32,40,1,0,0.2,0.2,40,8,60,40,0,0,1,1\n");
+    final ReplayHarness harness = ReplayHarness.load(dir);
+    assertEquals(3, harness.getFrames().size());
+    assertEquals(2, harness.getFrames().get(2).faces.size());
+
+    final ReplayHarness.Report report = harness.replay(newPipeline());
+    assertEquals(3, report.getFrameCount());
+    assertEquals(4, report.getFaceCount());
+    // The first face is embedded once and then tracked, the second is new on the last frame.
+    assertEquals(2, report.getEmbeddedFaceCount());
+    assertEquals(3, report.getStageNanos(FacePipeline.Stage.RECOGNIZE).length);
+    assertTrue(report.getTotalNanos() > 0);
+    assertTrue(report.toString(), report.toString().contains("TOTAL"));
+  }
+
+  @Test
+  public void rejectsIncompleteFaces() throws IOException {
+    write(ReplayHarness.FACES_FILE, "preview.png,0,0,8,32,40\n");
+    try {
+      ReplayHarness.load(dir);
+      fail();
+    } catch (final IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(":1:"));
+    }
+  }
+
+  @Test
+  public void percentilesUseTheNearestRank() {
+    final long[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+    assertEquals(5, ReplayHarness.Report.percentile(sorted, 0.5));
+    assertEquals(10, ReplayHarness.Report.percentile(sorted, 0.95));
+    assertEquals(10, ReplayHarness.Report.percentile(sorted, 1));
+    assertEquals(0, ReplayHarness.Report.percentile(new long[0], 0.5));
+  }
+
+  static FacePipeline newPipeline() {
+    return new FacePipeline(
+        new MeanColorClassifier(INPUT_SIZE),
+        INPUT_SIZE,
+        new IdentityTracker<Recognition>(),
+        new LivenessEngine());
+  }
+
+  private File tempFile(final String name) {
+    final File file = new File(dir, name);
+    file.deleteOnExit();
+    return file;
+  }
+
+  private void write(final String name, final String text) throws IOException {
+    Files.write(tempFile(name).toPath(), text.getBytes(StandardCharsets.UTF_8));
+  }
+}
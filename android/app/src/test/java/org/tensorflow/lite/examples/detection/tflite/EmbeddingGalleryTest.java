@@ -0,0 +1,167 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class EmbeddingGalleryTest {
+
+  private static final int DIM = 192;
+  private static final int SHARDS = 4;
+
+  @Test
+  public void batchedSearchMatchesSingleQueries() {
+    final Random random = new Random(17);
+    final EmbeddingGallery gallery = new EmbeddingGallery(DIM);
+    for (int i = 0; i < 300; i++) {
+      gallery.put("face" + i, gaussian(random));
+    }
+    final float[][] queries = new float[5][];
+    for (int q = 0; q < queries.length; q++) {
+      queries[q] = gaussian(random);
+    }
+
+    final int[] slots = new int[queries.length];
+    final float[] distances = new float[queries.length];
+    gallery.findNearest(queries, queries.length, slots, distances);
+
+    final float[] distance = new float[1];
+    for (int q = 0; q < queries.length; q++) {
+      assertEquals(gallery.findNearest(queries[q], distance), slots[q]);
+      assertEquals(distance[0], distances[q], 0f);
+    }
+  }
+
+  @Test
+  public void shardedScanMatchesSerialScan() {
+    final Random random = new Random(29);
+    final EmbeddingGallery serial = new EmbeddingGallery(DIM);
+    final EmbeddingGallery sharded = shardedGallery();
+    // Not a multiple of the shard count, so the last shard is shorter.
+    for (int i = 0; i < 1003; i++) {
+      final float[] v = gaussian(random);
+      serial.put("face" + i, v);
+      sharded.put("face" + i, v);
+    }
+    for (int q = 0; q < 20; q++) {
+      assertSameResults(serial, sharded, gaussian(random));
+    }
+    sharded.close();
+  }
+
+  @Test
+  public void shardedScanKeepsTheLowestSlotsAmongTies() {
+    final float[] v = gaussian(new Random(31));
+    final EmbeddingGallery serial = new EmbeddingGallery(DIM);
+    final EmbeddingGallery sharded = shardedGallery();
+    // 4 shards of 3 slots: every shard boundary falls between equally distant entries.
+    for (int i = 0; i < 12; i++) {
+      serial.put("face" + i, v);
+      sharded.put("face" + i, v);
+    }
+    assertSameResults(serial, sharded, v);
+    final float[] distance = new float[1];
+    assertEquals(0, sharded.findNearest(v, distance));
+    final NearestNeighbors out = new NearestNeighbors(SHARDS + 1);
+    sharded.findNearest(v, out);
+    assertArrayEquals(new int[] {0, 1, 2, 3, 4}, sortedSlots(out));
+    sharded.close();
+  }
+
+  @Test
+  public void shardedScanHandlesFewerEntriesThanShards() {
+    final Random random = new Random(37);
+    final EmbeddingGallery serial = new EmbeddingGallery(DIM);
+    final EmbeddingGallery sharded = shardedGallery();
+    for (int i = 0; i < SHARDS - 1; i++) {
+      final float[] v = gaussian(random);
+      serial.put("face" + i, v);
+      sharded.put("face" + i, v);
+      for (int q = 0; q < 5; q++) {
+        assertSameResults(serial, sharded, gaussian(random));
+      }
+    }
+    sharded.close();
+  }
+
+  @Test
+  public void shardedScanFollowsRemovals() {
+    final Random random = new Random(41);
+    final EmbeddingGallery serial = new EmbeddingGallery(DIM);
+    final EmbeddingGallery sharded = shardedGallery();
+    for (int i = 0; i < 200; i++) {
+      final float[] v = gaussian(random);
+      serial.put("face" + i, v);
+      sharded.put("face" + i, v);
+    }
+    // Removing moves the last slot into the hole, across shards.
+    for (int i = 0; i < 200; i += 3) {
+      assertEquals(serial.remove("face" + i), sharded.remove("face" + i));
+      assertEquals(serial.size(), sharded.size());
+      assertSameResults(serial, sharded, gaussian(random));
+    }
+    sharded.close();
+  }
+
+  private static EmbeddingGallery shardedGallery() {
+    final EmbeddingGallery gallery = new EmbeddingGallery(DIM);
+    gallery.setParallelism(SHARDS);
+    gallery.setParallelThreshold(1);
+    return gallery;
+  }
+
+  // Top-1 and top-k of both galleries must agree exactly, labels and distances included.
+  private static void assertSameResults(
+      final EmbeddingGallery serial, final EmbeddingGallery sharded, final float[] query) {
+    final float[] expectedDistance = new float[1];
+    final float[] actualDistance = new float[1];
+    final int expected = serial.findNearest(query, expectedDistance);
+    final int actual = sharded.findNearest(query, actualDistance);
+    assertEquals(expected, actual);
+    assertEquals(expectedDistance[0], actualDistance[0], 0f);
+
+    final int k = 10;
+    final NearestNeighbors expectedTop = new NearestNeighbors(k);
+    final NearestNeighbors actualTop = new NearestNeighbors(k);
+    serial.findNearest(query, expectedTop);
+    sharded.findNearest(query, actualTop);
+    assertEquals(Math.min(k, serial.size()), actualTop.size());
+    final int[] expectedSlots = sortedSlots(expectedTop);
+    final int[] actualSlots = sortedSlots(actualTop);
+    assertArrayEquals(expectedSlots, actualSlots);
+    for (int i = 0; i < actualSlots.length; i++) {
+      assertEquals(serial.getLabel(expectedSlots[i]), sharded.getLabel(actualSlots[i]));
+      assertEquals(expectedTop.getDistance(i), actualTop.getDistance(i), 0f);
+    }
+  }
+
+  // Result slots ordered by distance, then slot: the order among ties is not specified.
+  private static int[] sortedSlots(final NearestNeighbors out) {
+    final Integer[] order = new Integer[out.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(
+        order,
+        (a, b) ->
+            out.getDistance(a) != out.getDistance(b)
+                ? Float.compare(out.getDistance(a), out.getDistance(b))
+                : Integer.compare(out.getSlot(a), out.getSlot(b)));
+    final int[] slots = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      slots[i] = out.getSlot(order[i]);
+    }
+    return slots;
+  }
+
+  private static float[] gaussian(final Random random) {
+    final float[] v = new float[DIM];
+    for (int d = 0; d < DIM; d++) {
+      v[d] = (float) random.nextGaussian();
+    }
+    return v;
+  }
+}
@@ -0,0 +1,138 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** Recall of {@link IvfIndex} against the exact {@link EmbeddingGallery}. */
+public class IvfIndexTest {
+
+  private static final int DIM = 192;
+  private static final int IDENTITIES = 400;
+  private static final int SAMPLES_PER_IDENTITY = 5;
+
+  @Test
+  public void approximateSearchKeepsHighRecall() {
+    final Random random = new Random(42);
+    final float[][] centers = randomVectors(random, IDENTITIES, 1.0f);
+    final EmbeddingGallery exact = new EmbeddingGallery(DIM);
+    final IvfIndex approximate = new IvfIndex(DIM, 32, 4);
+    fill(random, centers, exact, approximate);
+    // put() never trains; until train() the index answers with a full scan.
+    assertFalse(approximate.isTrained());
+    final IndexEvaluator.Result untrained =
+        IndexEvaluator.evaluate(exact, approximate, queriesNear(random, centers, 20), 5);
+    assertEquals(1.0, untrained.recall, 1e-9);
+    approximate.train();
+    assertTrue(approximate.isTrained());
+
+    final float[][] queries = queriesNear(random, centers, 300);
+    final IndexEvaluator.Result result = IndexEvaluator.evaluate(exact, approximate, queries, 5);
+    assertTrue("recall " + result.recall, result.recall > 0.9);
+    assertTrue("top1 " + result.top1Agreement, result.top1Agreement > 0.95);
+  }
+
+  @Test
+  public void probingEveryListIsExact() {
+    final Random random = new Random(7);
+    final float[][] centers = randomVectors(random, IDENTITIES, 1.0f);
+    final EmbeddingGallery exact = new EmbeddingGallery(DIM);
+    final IvfIndex approximate = new IvfIndex(DIM, 16, 16);
+    fill(random, centers, exact, approximate);
+    approximate.train();
+
+    final IndexEvaluator.Result result =
+        IndexEvaluator.evaluate(exact, approximate, queriesNear(random, centers, 100), 3);
+    assertEquals(1.0, result.recall, 1e-9);
+  }
+
+  @Test
+  public void incrementalUpdatesStayConsistent() {
+    final Random random = new Random(3);
+    final float[][] centers = randomVectors(random, IDENTITIES, 1.0f);
+    final EmbeddingGallery exact = new EmbeddingGallery(DIM);
+    final IvfIndex approximate = new IvfIndex(DIM, 16, 16);
+    fill(random, centers, exact, approximate);
+    approximate.train();
+
+    // Remove and replace entries after training; the lists must follow the moved slots.
+    for (int i = 0; i < IDENTITIES; i += 3) {
+      final String label = i + "/0";
+      assertTrue(exact.remove(label));
+      assertTrue(approximate.remove(label));
+    }
+    assertFalse(approximate.remove("missing"));
+    for (int i = 1; i < IDENTITIES; i += 3) {
+      final float[] replacement = randomVectors(random, 1, 1.0f)[0];
+      exact.put(i + "/1", replacement);
+      approximate.put(i + "/1", replacement);
+    }
+    assertEquals(exact.size(), approximate.size());
+
+    final float[] distance = new float[1];
+    for (final float[] query : queriesNear(random, centers, 100)) {
+      final String expected = exact.getLabel(exact.findNearest(query, distance));
+      final float expectedDistance = distance[0];
+      final String actual = approximate.getLabel(approximate.findNearest(query, distance));
+      assertEquals(expected, actual);
+      assertEquals(expectedDistance, distance[0], 1e-3f);
+    }
+  }
+
+  @Test
+  public void sampledSlotsAreDistinct() {
+    final Random random = new Random(5);
+    for (final int count : new int[] {0, 1, 50, 100}) {
+      final int[] slots = IvfIndex.sampleSlots(random, 100, count);
+      assertEquals(count, slots.length);
+      final boolean[] seen = new boolean[100];
+      for (final int slot : slots) {
+        assertFalse("slot " + slot + " drawn twice", seen[slot]);
+        seen[slot] = true;
+      }
+    }
+  }
+
+  private static void fill(
+      final Random random,
+      final float[][] centers,
+      final EmbeddingIndex exact,
+      final EmbeddingIndex approximate) {
+    for (int i = 0; i < centers.length; i++) {
+      for (int s = 0; s < SAMPLES_PER_IDENTITY; s++) {
+        final float[] v = jitter(random, centers[i], 0.3f);
+        exact.put(i + "/" + s, v);
+        approximate.put(i + "/" + s, v);
+      }
+    }
+  }
+
+  private static float[][] queriesNear(final Random random, final float[][] centers, final int n) {
+    final float[][] queries = new float[n][];
+    for (int q = 0; q < n; q++) {
+      queries[q] = jitter(random, centers[random.nextInt(centers.length)], 0.3f);
+    }
+    return queries;
+  }
+
+  private static float[] jitter(final Random random, final float[] center, final float sigma) {
+    final float[] v = new float[DIM];
+    for (int d = 0; d < DIM; d++) {
+      v[d] = center[d] + (float) random.nextGaussian() * sigma;
+    }
+    return v;
+  }
+
+  private static float[][] randomVectors(final Random random, final int n, final float sigma) {
+    final float[][] vectors = new float[n][DIM];
+    for (int i = 0; i < n; i++) {
+      for (int d = 0; d < DIM; d++) {
+        vectors[i][d] = (float) random.nextGaussian() * sigma;
+      }
+    }
+    return vectors;
+  }
+}
@@ -0,0 +1,128 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Accept/reject agreement of {@link QuantizedIndex} with the float {@link EmbeddingGallery} at
+ * the recognition threshold used by DetectorActivity.
+ */
+public class QuantizedIndexTest {
+
+  private static final int DIM = 192;
+  private static final int IDENTITIES = 600;
+  private static final int QUERIES = 2000;
+  // DetectorActivity.MAX_RECOGNITION_DISTANCE
+  private static final float THRESHOLD = 1.0f;
+  // Per-component spreads giving impostor distances around 1.4 and genuine ones around the
+  // threshold, so that many decisions are close calls.
+  private static final float IDENTITY_SIGMA = 1.0f / (float) Math.sqrt(2 * DIM);
+  private static final float SAMPLE_SIGMA = 0.95f / (float) Math.sqrt(2 * DIM);
+
+  @Test
+  public void int8AgreesWithFloat() {
+    final QuantizedIndex index = new QuantizedIndex(DIM, QuantizedIndex.Encoding.INT8);
+    final double agreement = agreement(index);
+    assertTrue("agreement " + agreement, agreement >= 0.99);
+    assertTrue(4 * DIM / index.getBytesPerEmbedding() >= 3);
+  }
+
+  @Test
+  public void fp16AgreesWithFloat() {
+    final QuantizedIndex index = new QuantizedIndex(DIM, QuantizedIndex.Encoding.FP16);
+    final double agreement = agreement(index);
+    assertTrue("agreement " + agreement, agreement >= 0.999);
+    assertEquals(2, 4 * DIM / index.getBytesPerEmbedding());
+  }
+
+  @Test
+  public void productQuantizationAgreesWithFloat() {
+    final QuantizedIndex index = new QuantizedIndex(DIM, 48);
+    final double agreement = agreement(index);
+    assertTrue(index.isTrained());
+    assertTrue("agreement " + agreement, agreement >= 0.95);
+    assertEquals(16, 4 * DIM / index.getBytesPerEmbedding());
+  }
+
+  @Test
+  public void productQuantizerSeedsEveryCentroidFromADistinctEntry() {
+    // With exactly 256 entries every entry seeds its own centroid, and stays alone in it.
+    final QuantizedIndex index = new QuantizedIndex(DIM, 48);
+    final Random random = new Random(13);
+    final float[][] vectors = new float[256][];
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] = gaussian(random, null, 1.0f);
+      index.put("id" + i, vectors[i]);
+    }
+    // put() never trains.
+    assertFalse(index.isTrained());
+    index.train();
+    assertTrue(index.isTrained());
+    final float[] decoded = new float[DIM];
+    for (int i = 0; i < vectors.length; i++) {
+      index.getVector(i, decoded);
+      assertArrayEquals(vectors[i], decoded, 0f);
+    }
+  }
+
+  @Test
+  public void halfPrecisionRoundTrips() {
+    final float[] values = {0f, 1f, -2.5f, 0.1f, 65504f, 6.1035156e-5f, 5.9604645e-8f};
+    for (final float value : values) {
+      final QuantizedIndex index = new QuantizedIndex(1, QuantizedIndex.Encoding.FP16);
+      index.put("v", new float[] {value});
+      final float[] decoded = new float[1];
+      index.getVector(0, decoded);
+      assertEquals(value, decoded[0], Math.abs(value) / 1024f);
+    }
+  }
+
+  // Fraction of queries for which both indexes make the same decision: the same label below the
+  // threshold, or "unknown" for both.
+  private static double agreement(final QuantizedIndex quantized) {
+    final Random random = new Random(11);
+    final EmbeddingGallery exact = new EmbeddingGallery(DIM);
+    final float[][] centers = new float[IDENTITIES * 2][];
+    for (int i = 0; i < centers.length; i++) {
+      centers[i] = gaussian(random, null, IDENTITY_SIGMA);
+    }
+    // Enroll the first half of the identities; the rest only show up as impostors.
+    for (int i = 0; i < IDENTITIES; i++) {
+      final float[] v = gaussian(random, centers[i], SAMPLE_SIGMA);
+      exact.put("id" + i, v);
+      quantized.put("id" + i, v);
+    }
+    quantized.train();
+
+    final float[] distance = new float[1];
+    int agree = 0;
+    for (int q = 0; q < QUERIES; q++) {
+      final float[] query = gaussian(random, centers[random.nextInt(centers.length)], SAMPLE_SIGMA);
+      final String expected = decide(exact, query, distance);
+      final String actual = decide(quantized, query, distance);
+      if (expected.equals(actual)) {
+        agree++;
+      }
+    }
+    return (double) agree / QUERIES;
+  }
+
+  private static String decide(
+      final EmbeddingIndex index, final float[] query, final float[] distance) {
+    final int slot = index.findNearest(query, distance);
+    return Math.sqrt(distance[0]) < THRESHOLD ? index.getLabel(slot) : "?";
+  }
+
+  private static float[] gaussian(final Random random, final float[] mean, final float sigma) {
+    final float[] v = new float[DIM];
+    for (int d = 0; d < DIM; d++) {
+      v[d] = (mean == null ? 0 : mean[d]) + (float) random.nextGaussian() * sigma;
+    }
+    return v;
+  }
+}
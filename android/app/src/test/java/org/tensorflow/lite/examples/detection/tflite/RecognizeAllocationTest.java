@@ -0,0 +1,84 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that matching an embedding in recognizeImage does not allocate once warmed up. The
+ * interpreter run itself is not covered: the model cannot be loaded in a local test.
+ */
+public class RecognizeAllocationTest {
+
+  private static final int DIM = 192;
+  private static final int CALLS = 10000;
+
+  private TFLiteObjectDetectionAPIModel model;
+  private float[][] queries;
+
+  @Before
+  public void setUp() {
+    final Random random = new Random(5);
+    model = new TFLiteObjectDetectionAPIModel();
+    for (int i = 0; i < 500; i++) {
+      model.getEmbeddingIndex().put("face" + i, gaussian(random));
+    }
+    queries = new float[16][];
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = gaussian(random);
+    }
+  }
+
+  @Test
+  public void nearestMatchDoesNotAllocate() {
+    assertEquals(0, allocatedBytes(1));
+  }
+
+  @Test
+  public void topKMatchDoesNotAllocate() {
+    assertEquals(0, allocatedBytes(5));
+  }
+
+  @Test
+  public void extraIsCopiedForTheCaller() {
+    final float[] query = queries[0];
+    final List<SimilarityClassifier.Recognition> first = model.recognize(query, true, 1);
+    final float[][] extra = (float[][]) first.get(0).getExtra();
+    assertNotSame(query, extra[0]);
+    assertEquals(query[7], extra[0][7], 0f);
+    model.recognize(queries[1], false, 1);
+    assertEquals(query[7], extra[0][7], 0f);
+  }
+
+  // Bytes allocated by the calling thread over CALLS warmed-up recognize() calls.
+  private long allocatedBytes(final int maxResults) {
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    final long thread = Thread.currentThread().getId();
+
+    for (int i = 0; i < CALLS; i++) {
+      model.recognize(queries[i % queries.length], false, maxResults);
+    }
+    final long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < CALLS; i++) {
+      model.recognize(queries[i % queries.length], false, maxResults);
+    }
+    return threads.getThreadAllocatedBytes(thread) - before;
+  }
+
+  private static float[] gaussian(final Random random) {
+    final float[] v = new float[DIM];
+    for (int d = 0; d < DIM; d++) {
+      v[d] = (float) random.nextGaussian();
+    }
+    return v;
+  }
+}
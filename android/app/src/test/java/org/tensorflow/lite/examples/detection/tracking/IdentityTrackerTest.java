@@ -0,0 +1,132 @@
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.tracking.IdentityTracker.Track;
+
+public class IdentityTrackerTest {
+
+  private static float[] box(final float left, final float top, final float size) {
+    return new float[] {left, top, left + size, top + size};
+  }
+
+  private static Track<String> single(final IdentityTracker<String> tracker, final float[] box) {
+    final List<Track<String>> tracks = tracker.update(Collections.singletonList(box));
+    assertEquals(1, tracks.size());
+    return tracks.get(0);
+  }
+
+  @Test
+  public void steadyFaceReusesIdentityUntilRefresh() {
+    final IdentityTracker<String> tracker = new IdentityTracker<String>().setRefreshInterval(5);
+    final Track<String> first = single(tracker, box(100, 100, 100));
+    assertTrue(first.needsEmbedding());
+    first.setIdentity("alice", 0.5f);
+
+    for (int frame = 1; frame < 5; frame++) {
+      final Track<String> track = single(tracker, box(100 + frame, 100, 100));
+      assertSame(first, track);
+      assertFalse("frame " + frame, track.needsEmbedding());
+      assertEquals("alice", track.getIdentity());
+    }
+    final Track<String> refreshed = single(tracker, box(105, 100, 100));
+    assertTrue(refreshed.needsEmbedding());
+    refreshed.setIdentity("alice", 0.5f);
+    assertFalse(single(tracker, box(105, 100, 100)).needsEmbedding());
+
+    assertEquals(2, tracker.getEmbeddingCount());
+    assertEquals(5, tracker.getReuseCount());
+  }
+
+  @Test
+  public void movedOrScaledFaceIsEmbeddedAgain() {
+    final IdentityTracker<String> tracker = new IdentityTracker<>();
+    single(tracker, box(100, 100, 100)).setIdentity("alice", 0.5f);
+
+    // Small steps, each overlapping the previous box, add up to a large move.
+    Track<String> track = null;
+    for (int x = 105; x <= 120; x += 5) {
+      track = single(tracker, box(x, 100, 100));
+    }
+    assertTrue(track.needsEmbedding());
+    track.setIdentity("alice", 0.5f);
+
+    track = single(tracker, new float[] {105, 85, 235, 215});
+    assertTrue(track.needsEmbedding());
+  }
+
+  @Test
+  public void marginalDistanceIsEmbeddedEveryFrame() {
+    final IdentityTracker<String> tracker =
+        new IdentityTracker<String>().setMarginalDistance(1.0f, 0.1f);
+    single(tracker, box(0, 0, 50)).setIdentity("bob", 0.95f);
+    assertTrue(single(tracker, box(0, 0, 50)).needsEmbedding());
+
+    single(tracker, box(0, 0, 50)).setIdentity("bob", 0.6f);
+    assertFalse(single(tracker, box(0, 0, 50)).needsEmbedding());
+  }
+
+  @Test
+  public void facesKeepTheirTracksWhenOrderChanges() {
+    final IdentityTracker<String> tracker = new IdentityTracker<>();
+    final List<Track<String>> tracks =
+        tracker.update(Arrays.asList(box(0, 0, 100), box(300, 0, 100)));
+    tracks.get(0).setIdentity("left", 0.2f);
+    tracks.get(1).setIdentity("right", 0.2f);
+    assertNotSame(tracks.get(0), tracks.get(1));
+
+    final List<Track<String>> swapped =
+        tracker.update(Arrays.asList(box(302, 0, 100), box(2, 0, 100)));
+    assertEquals("right", swapped.get(0).getIdentity());
+    assertEquals("left", swapped.get(1).getIdentity());
+    assertFalse(swapped.get(0).needsEmbedding());
+    assertFalse(swapped.get(1).needsEmbedding());
+  }
+
+  @Test
+  public void fastMoveMatchesByCenterButIsReembedded() {
+    final IdentityTracker<String> tracker = new IdentityTracker<String>().setMatching(0.3f, 1.0f);
+    final Track<String> first = single(tracker, box(0, 0, 100));
+    first.setIdentity("carol", 0.3f);
+    // Too little overlap, but the center moved by less than the face size.
+    final Track<String> moved = single(tracker, box(80, 0, 100));
+    assertSame(first, moved);
+    assertTrue(moved.needsEmbedding());
+  }
+
+  @Test
+  public void missingFaceIsForgottenAfterMaxMissedFrames() {
+    final IdentityTracker<String> tracker = new IdentityTracker<String>().setMaxMissedFrames(1);
+    final Track<String> first = single(tracker, box(0, 0, 100));
+    first.setIdentity("dave", 0.3f);
+
+    tracker.update(Collections.<float[]>emptyList());
+    assertEquals(1, tracker.getTrackCount());
+    assertSame(first, single(tracker, box(0, 0, 100)));
+
+    tracker.update(Collections.<float[]>emptyList());
+    tracker.update(Collections.<float[]>emptyList());
+    assertEquals(0, tracker.getTrackCount());
+    final Track<String> next = single(tracker, box(0, 0, 100));
+    assertTrue(next.getId() != first.getId());
+    assertTrue(next.needsEmbedding());
+  }
+
+  @Test
+  public void invalidateForcesEmbeddingButKeepsIdentity() {
+    final IdentityTracker<String> tracker = new IdentityTracker<>();
+    single(tracker, box(0, 0, 100)).setIdentity("erin", 0.3f);
+    tracker.invalidate();
+    final Track<String> track = single(tracker, box(0, 0, 100));
+    assertTrue(track.needsEmbedding());
+    assertEquals("erin", track.getIdentity());
+  }
+}
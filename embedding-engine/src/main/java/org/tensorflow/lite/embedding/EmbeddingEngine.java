@@ -0,0 +1,357 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.embedding;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.os.Trace;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.tensorflow.lite.Delegate;
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Runs a face embedding model (e.g. MobileFaceNet) on square face crops.
+ *
+ * The detection app (enrolment and recognition) and VerifyMFN (offline verification) both embed
+ * faces through this class, so the same model and {@link Options} give bit-identical embeddings in
+ * both. Input and output buffers are allocated once and reused by every run; returned embeddings
+ * are overwritten by the next run.
+ *
+ * Not thread-safe. Threads that embed concurrently need an engine each; engines can share one
+ * model buffer.
+ */
+public final class EmbeddingEngine implements Closeable {
+
+  /** Normalization of float models: (v - mean) / std per channel. */
+  public static final float DEFAULT_IMAGE_MEAN = 128.0f;
+  public static final float DEFAULT_IMAGE_STD = 128.0f;
+  public static final int DEFAULT_NUM_THREADS = 4;
+  public static final int DEFAULT_MAX_BATCH_SIZE = 8;
+
+  /** Configuration of an engine; the defaults match MobileFaceNet on the CPU. */
+  public static final class Options {
+    private boolean quantized;
+    private float imageMean = DEFAULT_IMAGE_MEAN;
+    private float imageStd = DEFAULT_IMAGE_STD;
+    private int numThreads = DEFAULT_NUM_THREADS;
+    private boolean useNNAPI;
+    private Delegate delegate;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /** Whether the model takes uint8 input; the normalization is then unused. */
+    public Options setQuantized(final boolean quantized) {
+      this.quantized = quantized;
+      return this;
+    }
+
+    public Options setNormalization(final float mean, final float std) {
+      this.imageMean = mean;
+      this.imageStd = std;
+      return this;
+    }
+
+    /** Threads the interpreter uses for each run. */
+    public Options setNumThreads(final int numThreads) {
+      this.numThreads = numThreads;
+      return this;
+    }
+
+    public Options setUseNNAPI(final boolean useNNAPI) {
+      this.useNNAPI = useNNAPI;
+      return this;
+    }
+
+    /**
+     * Hardware delegate (e.g. a GpuDelegate) to run the model on, or null for the CPU. The caller
+     * owns the delegate and must close it after the engine.
+     */
+    public Options setDelegate(final Delegate delegate) {
+      this.delegate = delegate;
+      return this;
+    }
+
+    /** Largest number of faces {@link #embed(List, int, int)} runs in one inference. */
+    public Options setMaxBatchSize(final int maxBatchSize) {
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+  }
+
+  private final int inputSize;
+  private final int embeddingSize;
+  private final int maxBatchSize;
+  private Interpreter interpreter;
+  private final ImagePreprocessor preprocessor;
+  private final int[] intValues;
+
+  // Buffers of a single-image run, set up once.
+  private final ByteBuffer imgData;
+  private final Object[] inputs;
+  private final float[][] output;
+  private final Map<Integer, Object> outputs = new HashMap<>();
+
+  // Batch size the interpreter input is currently resized to.
+  private int inputBatchSize = 1;
+  // Input for up to maxBatchSize images, and per batch size the buffers of one batched run.
+  private ByteBuffer batchImgData;
+  private final Batch[] batches;
+
+  // Time the last embed call spent preparing the input and running the model.
+  private long lastPreprocessNanos;
+  private long lastRunNanos;
+
+  private EmbeddingEngine(
+      final ByteBuffer model,
+      final int inputSize,
+      final int embeddingSize,
+      final Options options) {
+    if (options.maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive: " + options.maxBatchSize);
+    }
+    this.inputSize = inputSize;
+    this.embeddingSize = embeddingSize;
+    this.maxBatchSize = options.maxBatchSize;
+
+    final Interpreter.Options interpreterOptions = new Interpreter.Options()
+        .setNumThreads(Math.max(1, options.numThreads))
+        .setUseNNAPI(options.useNNAPI);
+    if (options.delegate != null) {
+      interpreterOptions.addDelegate(options.delegate);
+    }
+    interpreter = new Interpreter(model, interpreterOptions);
+
+    final int numPixels = inputSize * inputSize;
+    preprocessor =
+        new ImagePreprocessor(numPixels, options.imageMean, options.imageStd, options.quantized);
+    intValues = new int[numPixels];
+    imgData = ByteBuffer.allocateDirect(preprocessor.getInputBytes());
+    imgData.order(ByteOrder.nativeOrder());
+    inputs = new Object[] {imgData};
+    output = new float[1][embeddingSize];
+    outputs.put(0, output);
+    batches = new Batch[maxBatchSize + 1];
+  }
+
+  /**
+   * Creates an engine over an already loaded (e.g. memory-mapped) model. Several engines can share
+   * one buffer.
+   *
+   * @param inputSize width and height of the model input, in pixels.
+   * @param embeddingSize length of the embedding the model outputs.
+   */
+  public static EmbeddingEngine create(
+      final ByteBuffer model,
+      final int inputSize,
+      final int embeddingSize,
+      final Options options) {
+    return new EmbeddingEngine(model, inputSize, embeddingSize, options);
+  }
+
+  /** Creates an engine over a model in the assets. */
+  public static EmbeddingEngine create(
+      final AssetManager assets,
+      final String modelFilename,
+      final int inputSize,
+      final int embeddingSize,
+      final Options options)
+      throws IOException {
+    return create(loadModelFile(assets, modelFilename), inputSize, embeddingSize, options);
+  }
+
+  /** Memory-map the model file in Assets. */
+  public static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+      throws IOException {
+    AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
+    FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+    FileChannel fileChannel = inputStream.getChannel();
+    long startOffset = fileDescriptor.getStartOffset();
+    long declaredLength = fileDescriptor.getDeclaredLength();
+    return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+  }
+
+  public int getInputSize() {
+    return inputSize;
+  }
+
+  public int getEmbeddingSize() {
+    return embeddingSize;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Embeds one face bitmap of inputSize x inputSize pixels.
+   *
+   * @return the embedding, overwritten by the next run.
+   */
+  public float[] embed(final Bitmap bitmap) {
+    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    return embedPixels(intValues);
+  }
+
+  /**
+   * Embeds one face given as inputSize * inputSize ARGB pixels, row by row, e.g. sampled straight
+   * from a camera frame without going through a Bitmap.
+   *
+   * @return the embedding, overwritten by the next run.
+   */
+  public float[] embedPixels(final int[] pixels) {
+    final long start = System.nanoTime();
+    Trace.beginSection("preprocessPixels");
+    preprocessor.process(pixels, imgData);
+    Trace.endSection();
+    final long preprocessed = System.nanoTime();
+    lastPreprocessNanos = preprocessed - start;
+
+    Trace.beginSection("run");
+    resizeInput(1);
+    interpreter.runForMultipleInputsOutputs(inputs, outputs);
+    Trace.endSection();
+    lastRunNanos = System.nanoTime() - preprocessed;
+    return output[0];
+  }
+
+  /**
+   * Embeds bitmaps[start, start + count) with a single inference.
+   *
+   * @param count at most {@link #getMaxBatchSize()}.
+   * @return one embedding per bitmap, overwritten by the next batch of the same size.
+   */
+  public float[][] embed(final List<Bitmap> bitmaps, final int start, final int count) {
+    checkBatchSize(count);
+    final long preprocessStart = System.nanoTime();
+    Trace.beginSection("preprocessBatch");
+    final Batch batch = getBatch(count);
+    for (int i = 0; i < count; i++) {
+      final Bitmap bitmap = bitmaps.get(start + i);
+      bitmap.getPixels(
+          intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+      preprocessor.process(intValues, batch.input, i);
+    }
+    Trace.endSection();
+    lastPreprocessNanos = System.nanoTime() - preprocessStart;
+    return runBatch(batch, count);
+  }
+
+  /**
+   * Like {@link #embed(List, int, int)}, for faces given as ARGB pixels as in
+   * {@link #embedPixels(int[])}.
+   */
+  public float[][] embedPixels(final List<int[]> pixels, final int start, final int count) {
+    checkBatchSize(count);
+    final long preprocessStart = System.nanoTime();
+    Trace.beginSection("preprocessPixelBatch");
+    final Batch batch = getBatch(count);
+    for (int i = 0; i < count; i++) {
+      preprocessor.process(pixels.get(start + i), batch.input, i);
+    }
+    Trace.endSection();
+    lastPreprocessNanos = System.nanoTime() - preprocessStart;
+    return runBatch(batch, count);
+  }
+
+  private float[][] runBatch(final Batch batch, final int count) {
+    final long start = System.nanoTime();
+    Trace.beginSection("runBatch");
+    resizeInput(count);
+    interpreter.runForMultipleInputsOutputs(batch.inputs, batch.outputs);
+    Trace.endSection();
+    lastRunNanos = System.nanoTime() - start;
+    return batch.output;
+  }
+
+  /** Time the last embed call spent preparing the model input. */
+  public long getLastPreprocessNanos() {
+    return lastPreprocessNanos;
+  }
+
+  /** Time the last embed call spent running the model. */
+  public long getLastRunNanos() {
+    return lastRunNanos;
+  }
+
+  private void checkBatchSize(final int count) {
+    if (count <= 0 || count > maxBatchSize) {
+      throw new IllegalArgumentException("Batch of " + count + ", max " + maxBatchSize);
+    }
+  }
+
+  // Buffers for a run over count images, created on first use. The input must have exactly the
+  // size of the resized input tensor, so each batch size gets its own view of batchImgData.
+  private Batch getBatch(final int count) {
+    if (batches[count] == null) {
+      if (batchImgData == null) {
+        batchImgData = ByteBuffer.allocateDirect(maxBatchSize * preprocessor.getInputBytes());
+      }
+      final ByteBuffer view = batchImgData.duplicate();
+      view.limit(count * preprocessor.getInputBytes());
+      batches[count] =
+          new Batch(view.slice().order(ByteOrder.nativeOrder()), count, embeddingSize);
+    }
+    return batches[count];
+  }
+
+  // Resizing reallocates the interpreter's tensors, so it is only done when the size changes.
+  private void resizeInput(final int batchSize) {
+    if (batchSize != inputBatchSize) {
+      interpreter.resizeInput(0, new int[] {batchSize, inputSize, inputSize, 3});
+      inputBatchSize = batchSize;
+    }
+  }
+
+  private static final class Batch {
+    final ByteBuffer input;
+    final Object[] inputs;
+    final float[][] output;
+    final Map<Integer, Object> outputs = new HashMap<>();
+
+    Batch(final ByteBuffer input, final int count, final int embeddingSize) {
+      this.input = input;
+      this.inputs = new Object[] {input};
+      this.output = new float[count][embeddingSize];
+      outputs.put(0, output);
+    }
+  }
+
+  public void setNumThreads(int numThreads) {
+    if (interpreter != null) interpreter.setNumThreads(numThreads);
+  }
+
+  public void setUseNNAPI(boolean useNNAPI) {
+    if (interpreter != null) interpreter.setUseNNAPI(useNNAPI);
+  }
+
+  /** Releases the interpreter; the engine cannot be used afterwards. */
+  @Override
+  public void close() {
+    if (interpreter != null) {
+      interpreter.close();
+      interpreter = null;
+    }
+  }
+}
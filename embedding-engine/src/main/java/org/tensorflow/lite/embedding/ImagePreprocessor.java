@@ -0,0 +1,108 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.embedding;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts ARGB pixels into the RGB input tensor of the model.
+ *
+ * Float models get (v - mean) / std per channel. There are only 256 possible channel values, so
+ * the normalized values come from a lookup table. They are unpacked into a reusable float[] and
+ * copied into the input buffer with one bulk put, instead of three putFloat calls per pixel on
+ * the direct buffer. Quantized models get the raw channel bytes the same way.
+ */
+public final class ImagePreprocessor {
+
+  private final int numPixels;
+  private final boolean quantized;
+  private final float[] normalized = new float[256];
+  private final float[] floatValues;
+  private final byte[] byteValues;
+
+  // Float view of the last output buffer, kept to avoid creating a view per call.
+  private ByteBuffer viewedBuffer;
+  private FloatBuffer floatView;
+
+  /**
+   * @param numPixels number of pixels per image (inputSize * inputSize).
+   * @param mean value subtracted from each channel of float models.
+   * @param std value each channel of float models is divided by.
+   * @param quantized whether the model takes uint8 input; mean and std are then unused.
+   */
+  public ImagePreprocessor(
+      final int numPixels, final float mean, final float std, final boolean quantized) {
+    this.numPixels = numPixels;
+    this.quantized = quantized;
+    for (int v = 0; v < 256; v++) {
+      // Same expression as the per-pixel code, so the values are bit-identical.
+      normalized[v] = (v - mean) / std;
+    }
+    this.floatValues = quantized ? null : new float[numPixels * 3];
+    this.byteValues = quantized ? new byte[numPixels * 3] : null;
+  }
+
+  /** Size in bytes of one preprocessed image. */
+  public int getInputBytes() {
+    return numPixels * 3 * (quantized ? 1 : 4);
+  }
+
+  /**
+   * Writes pixels[0, numPixels) to out, from position 0. out must be a buffer of at least
+   * getInputBytes() bytes, in the byte order the model expects. Its position is left at 0.
+   */
+  public void process(final int[] pixels, final ByteBuffer out) {
+    process(pixels, out, 0);
+  }
+
+  /**
+   * Like {@link #process(int[], ByteBuffer)}, but writes the index-th image of a batch, starting
+   * at byte index * getInputBytes() of out.
+   */
+  public void process(final int[] pixels, final ByteBuffer out, final int index) {
+    if (quantized) {
+      final byte[] values = byteValues;
+      for (int i = 0, j = 0; i < numPixels; i++, j += 3) {
+        final int pixel = pixels[i];
+        values[j] = (byte) (pixel >> 16);
+        values[j + 1] = (byte) (pixel >> 8);
+        values[j + 2] = (byte) pixel;
+      }
+      out.position(index * values.length);
+      out.put(values);
+      out.rewind();
+      return;
+    }
+
+    final float[] values = floatValues;
+    final float[] table = normalized;
+    for (int i = 0, j = 0; i < numPixels; i++, j += 3) {
+      final int pixel = pixels[i];
+      values[j] = table[(pixel >> 16) & 0xFF];
+      values[j + 1] = table[(pixel >> 8) & 0xFF];
+      values[j + 2] = table[pixel & 0xFF];
+    }
+    if (out != viewedBuffer) {
+      out.rewind();
+      viewedBuffer = out;
+      floatView = out.asFloatBuffer();
+    }
+    floatView.position(index * values.length);
+    floatView.put(values);
+    out.rewind();
+  }
+}
@@ -0,0 +1,89 @@
+package org.tensorflow.lite.embedding;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that {@link ImagePreprocessor} writes the same input as the per-pixel putFloat loop it
+ * replaces, on the 112x112 MobileFaceNet input. {@link ImagePreprocessorBenchmark} compares their
+ * speed.
+ */
+public class ImagePreprocessorTest {
+
+  private static final int INPUT_SIZE = 112;
+  static final int NUM_PIXELS = INPUT_SIZE * INPUT_SIZE;
+  static final float IMAGE_MEAN = 128.0f;
+  static final float IMAGE_STD = 128.0f;
+
+  static int[] randomPixels() {
+    final Random random = new Random(9);
+    final int[] pixels = new int[NUM_PIXELS];
+    for (int i = 0; i < NUM_PIXELS; i++) {
+      pixels[i] = random.nextInt();
+    }
+    return pixels;
+  }
+
+  static ByteBuffer newInput(final int bytesPerChannel) {
+    return ByteBuffer.allocateDirect(NUM_PIXELS * 3 * bytesPerChannel)
+        .order(ByteOrder.nativeOrder());
+  }
+
+  @Test
+  public void floatOutputMatchesPerPixelLoop() {
+    final int[] pixels = randomPixels();
+    final ByteBuffer expected = newInput(4);
+    final ByteBuffer actual = newInput(4);
+    perPixel(pixels, expected, false);
+    new ImagePreprocessor(NUM_PIXELS, IMAGE_MEAN, IMAGE_STD, false).process(pixels, actual);
+    expected.rewind();
+    assertEquals(0, expected.compareTo(actual));
+  }
+
+  @Test
+  public void quantizedOutputMatchesPerPixelLoop() {
+    final int[] pixels = randomPixels();
+    final ByteBuffer expected = newInput(1);
+    final ByteBuffer actual = newInput(1);
+    perPixel(pixels, expected, true);
+    new ImagePreprocessor(NUM_PIXELS, IMAGE_MEAN, IMAGE_STD, true).process(pixels, actual);
+    expected.rewind();
+    assertEquals(0, expected.compareTo(actual));
+  }
+
+  @Test
+  public void writesBatchEntriesAtTheirOffset() {
+    final int[] pixels = randomPixels();
+    final ByteBuffer single = newInput(4);
+    final ByteBuffer batch = newInput(4 * 3);
+    final ImagePreprocessor preprocessor =
+        new ImagePreprocessor(NUM_PIXELS, IMAGE_MEAN, IMAGE_STD, false);
+    preprocessor.process(pixels, single);
+    preprocessor.process(pixels, batch, 2);
+    batch.position(2 * preprocessor.getInputBytes());
+    assertEquals(0, single.compareTo(batch));
+  }
+
+  // The preprocessing loop as it was in the detection app's TFLiteObjectDetectionAPIModel.
+  static void perPixel(final int[] intValues, final ByteBuffer imgData, boolean quantized) {
+    imgData.rewind();
+    for (int i = 0; i < INPUT_SIZE; ++i) {
+      for (int j = 0; j < INPUT_SIZE; ++j) {
+        int pixelValue = intValues[i * INPUT_SIZE + j];
+        if (quantized) {
+          imgData.put((byte) ((pixelValue >> 16) & 0xFF));
+          imgData.put((byte) ((pixelValue >> 8) & 0xFF));
+          imgData.put((byte) (pixelValue & 0xFF));
+        } else {
+          imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+        }
+      }
+    }
+  }
+}